@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailboxFactory;
+
+/**
+ * Measures actor registration (TMailboxFactoryImpl.nextActorID, through
+ * the TActorBase constructor) and the findActor(long) and
+ * findActor(String) lookups.
+ *
+ * @author monster
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActorIDBenchmark {
+
+    /** The state shared by all threads: the factory and the lookup targets. */
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        /** Number of registered actors available for lookups. */
+        @Param({ "1000", "1000000" })
+        public int population;
+
+        /** The factory. */
+        TMailboxFactory factory;
+
+        /** Strong references, so the lookup targets are not collected. */
+        TActor[] actors;
+
+        /** The IDs of the lookup targets. */
+        long[] ids;
+
+        /** The names of the lookup targets. */
+        String[] names;
+
+        @Setup
+        public void setup() {
+            factory = Bench.newFactory();
+            final BenchOwner owner = Bench.newOwner(factory);
+            actors = new TActor[population];
+            ids = new long[population];
+            names = new String[population];
+            for (int i = 0; i < population; i++) {
+                names[i] = "actor" + i;
+                actors[i] = new BenchActor(owner.getMailbox(), names[i]);
+                ids[i] = actors[i].id();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            Bench.close(factory);
+        }
+    }
+
+    /** The per-thread state: one Mailbox per thread, and a lookup cursor. */
+    @State(Scope.Thread)
+    public static class PerThread {
+
+        /** The Mailbox owner of this thread. */
+        BenchOwner owner;
+
+        /** The lookup cursor. */
+        int next;
+
+        @Setup
+        public void setup(final Shared shared) {
+            owner = Bench.newOwner(shared.factory);
+        }
+
+        /** Returns the next lookup index. */
+        int nextIndex(final int population) {
+            final int result = next;
+            next = (result + 1 == population) ? 0 : result + 1;
+            return result;
+        }
+    }
+
+    /** Creates (and registers) a short-lived actor. */
+    @Benchmark
+    public TActor nextActorID(final PerThread perThread) {
+        return new BenchActor(perThread.owner.getMailbox(), null);
+    }
+
+    /** Creates (and registers) short-lived actors, on all cores. */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TActor nextActorIDContended(final PerThread perThread) {
+        return new BenchActor(perThread.owner.getMailbox(), null);
+    }
+
+    /** Finds an actor by ID. */
+    @Benchmark
+    public TActor findActorByID(final Shared shared, final PerThread perThread) {
+        return shared.factory.findActor(shared.ids[perThread
+                .nextIndex(shared.population)]);
+    }
+
+    /** Finds an actor by ID, on all cores. */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TActor findActorByIDContended(final Shared shared,
+            final PerThread perThread) {
+        return shared.factory.findActor(shared.ids[perThread
+                .nextIndex(shared.population)]);
+    }
+
+    /** Finds an actor by name. */
+    @Benchmark
+    public TActor findActorByName(final Shared shared,
+            final PerThread perThread) {
+        return shared.factory.findActor(shared.names[perThread
+                .nextIndex(shared.population)]);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.internal.TActorsImplModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+/**
+ * Shared helpers for the benchmarks.
+ *
+ * @author monster
+ */
+final class Bench {
+
+    /** No instances. */
+    private Bench() {
+        // NOP
+    }
+
+    /** Creates a new, fully configured, TMailboxFactory. */
+    static TMailboxFactory newFactory() {
+        final Injector injector = Guice.createInjector(new TActorsImplModule());
+        return injector.getInstance(TMailboxFactory.class);
+    }
+
+    /** Creates a new Mailbox, and registers its owner. */
+    static BenchOwner newOwner(final TMailboxFactory factory) {
+        final TMailbox mailbox = factory.createMailbox();
+        return new BenchOwner(mailbox, factory.clockService().coreTimeline());
+    }
+
+    /** Closes the factory, if any. */
+    static void close(final TMailboxFactory factory) throws Exception {
+        if (factory != null) {
+            factory.close();
+        }
+    }
+}
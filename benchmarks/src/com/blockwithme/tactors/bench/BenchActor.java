@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.internal.TActorBase;
+import com.blockwithme.tactors.internal.TActorListenerSupport;
+import com.blockwithme.time.Time;
+import com.blockwithme.time.Timeline;
+
+/**
+ * A minimal non-owner actor, used as request target, tick receiver and listener.
+ *
+ * @author monster
+ */
+public class BenchActor extends TActorBase {
+
+    /** Number of ticks received. Only modified from within the Mailbox. */
+    public long ticks;
+
+    /** Number of events received. Only modified from within the Mailbox. */
+    public long events;
+
+    /** Creates a BenchActor. */
+    public BenchActor(final TMailbox theMailbox, final String theName) {
+        super(theMailbox, theName);
+    }
+
+    /** Creates a BenchActor, with an explicit Timeline (required for owners). */
+    protected BenchActor(final TMailbox theMailbox, final String theName,
+            final Timeline theTimeline) {
+        super(theMailbox, theName, theTimeline);
+    }
+
+    /** Returns the listener support of this actor. */
+    public TActorListenerSupport listenerSupport() {
+        return support;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TActor#copy(com.blockwithme.tactors.TMailbox)
+     */
+    @Override
+    public TActor copy(final TMailbox theMailbox) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.TActorBase#onAsyncTimeChange(com.blockwithme.time.Time)
+     */
+    @Override
+    protected void onAsyncTimeChange(final Time time) {
+        ticks++;
+    }
+}
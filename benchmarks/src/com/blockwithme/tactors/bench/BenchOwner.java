@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import com.blockwithme.tactors.MBOwner;
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.time.Timeline;
+
+/**
+ * The Mailbox owner used by all benchmarks.
+ *
+ * @author monster
+ */
+public class BenchOwner extends BenchActor implements MBOwner {
+
+    /** Creates a BenchOwner. */
+    public BenchOwner(final TMailbox theMailbox, final Timeline theTimeline) {
+        super(theMailbox, null, theTimeline);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler (allocation rate) enabled, and
+ * writes the results as JSON, so that they can be compared across releases.
+ *
+ * The other standard JMH command-line options (benchmark regexp, -f, -wi,
+ * -i, -t, ...) are accepted as usual.
+ *
+ * @author monster
+ */
+public class BenchmarkRunner {
+
+    /** Default result file. */
+    private static final String RESULT_FILE = "tactors-bench.json";
+
+    /** Runs the benchmarks. */
+    public static void main(final String[] args) throws Exception {
+        final Options cmdLine = new CommandLineOptions(args);
+        final Options options = new OptionsBuilder().parent(cmdLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON).result(RESULT_FILE)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.agilewiki.jactor.api.Transport;
+import org.agilewiki.jactor.api.UnboundRequestBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailboxFactory;
+
+/**
+ * Measures TActorListenerSupportImpl.informListeners fan-out, with the
+ * listeners spread over one or more Mailboxes, and listenersFor().
+ *
+ * @author monster
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark {
+
+    /** The topic. */
+    private static final String TOPIC = "topic";
+
+    /** The event sent to all listeners. */
+    private static final UnboundRequestBase<Void, BenchActor> EVENT = new UnboundRequestBase<Void, BenchActor>() {
+        @Override
+        public void processRequest(final BenchActor _targetActor,
+                final Transport<Void> _transport) throws Exception {
+            _targetActor.events++;
+            _transport.processResponse(null);
+        }
+    };
+
+    /** Number of listeners registered to the topic. */
+    @Param({ "1", "100", "10000" })
+    public int listeners;
+
+    /** Number of Mailboxes the listeners are spread over. */
+    @Param({ "1", "8" })
+    public int mailboxes;
+
+    /** The factory. */
+    private TMailboxFactory factory;
+
+    /** The publisher. */
+    private BenchOwner publisher;
+
+    /** Strong references to the listeners. */
+    private BenchActor[] actors;
+
+    @Setup
+    public void setup() throws Exception {
+        factory = Bench.newFactory();
+        publisher = Bench.newOwner(factory);
+        final BenchOwner[] owners = new BenchOwner[mailboxes];
+        for (int i = 0; i < mailboxes; i++) {
+            owners[i] = Bench.newOwner(factory);
+        }
+        actors = new BenchActor[listeners];
+        for (int i = 0; i < listeners; i++) {
+            actors[i] = new BenchActor(owners[i % mailboxes].getMailbox(),
+                    null);
+            publisher.listenerSupport()
+                    .registerRequest(TOPIC, actors[i], false).call();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Bench.close(factory);
+    }
+
+    /** Publishes one event, and waits for all listeners to respond. */
+    @Benchmark
+    public Void informListeners() throws Exception {
+        return publisher.listenerSupport()
+                .informListenersRequest(TOPIC, EVENT).call();
+    }
+
+    /**
+     * Returns the listeners of the topic. The registry is not modified
+     * after setup, so it is safe to read it from the benchmark thread.
+     */
+    @Benchmark
+    public List<TActor> listenersFor() {
+        return publisher.listenerSupport().listenersFor(TOPIC);
+    }
+}
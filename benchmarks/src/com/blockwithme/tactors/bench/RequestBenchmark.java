@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.agilewiki.jactor.api.ResponseProcessor;
+import org.agilewiki.jactor.api.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.internal.TRequestBase;
+import com.blockwithme.time.Timeline;
+
+/**
+ * Measures TRequestBase round trips: call() from a foreign thread,
+ * signal() bursts, and send() between two Mailboxes.
+ *
+ * @author monster
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    /** Number of signals sent, before draining the target Mailbox. */
+    private static final int SIGNALS = 100;
+
+    /** Responds immediately with a constant. */
+    private static final class Echo extends TRequestBase<Long> {
+        Echo(final TMailbox target, final Timeline timeline) {
+            super(target, timeline);
+        }
+
+        @Override
+        public void processRequest(final Transport<Long> _rp)
+                throws Exception {
+            _rp.processResponse(42L);
+        }
+    }
+
+    /** Increments the events counter of the target Mailbox owner. */
+    private static final class Count extends TRequestBase<Void> {
+        private final BenchActor actor;
+
+        Count(final BenchActor theActor, final Timeline timeline) {
+            super(theActor.getMailbox(), timeline);
+            actor = theActor;
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> _rp)
+                throws Exception {
+            actor.events++;
+            _rp.processResponse(null);
+        }
+    }
+
+    /** Sends an Echo to another Mailbox, and relays the response. */
+    private static final class Relay extends TRequestBase<Long> {
+        private final TMailbox other;
+
+        private final Timeline timeline;
+
+        Relay(final TMailbox source, final Timeline theTimeline,
+                final TMailbox theOther) {
+            super(source, theTimeline);
+            timeline = theTimeline;
+            other = theOther;
+        }
+
+        @Override
+        public void processRequest(final Transport<Long> _rp)
+                throws Exception {
+            new Echo(other, timeline).send(getMailbox(),
+                    new ResponseProcessor<Long>() {
+                        @Override
+                        public void processResponse(final Long response)
+                                throws Exception {
+                            _rp.processResponse(response);
+                        }
+                    });
+        }
+    }
+
+    /** The factory. */
+    private TMailboxFactory factory;
+
+    /** The source Mailbox owner. */
+    private BenchOwner source;
+
+    /** The target Mailbox owner. */
+    private BenchOwner target;
+
+    /** The core timeline. */
+    private Timeline timeline;
+
+    @Setup
+    public void setup() {
+        factory = Bench.newFactory();
+        timeline = factory.clockService().coreTimeline();
+        source = Bench.newOwner(factory);
+        target = Bench.newOwner(factory);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Bench.close(factory);
+    }
+
+    /** Foreign thread to Mailbox, and back. */
+    @Benchmark
+    public Long call() throws Exception {
+        return new Echo(target.getMailbox(), timeline).call();
+    }
+
+    /** Fire-and-forget signals, drained with a single call(). */
+    @Benchmark
+    @OperationsPerInvocation(SIGNALS)
+    public Long signal() throws Exception {
+        for (int i = 0; i < SIGNALS; i++) {
+            new Count(target, timeline).signal();
+        }
+        return new Echo(target.getMailbox(), timeline).call();
+    }
+
+    /** Mailbox to Mailbox send(), with the response routed back. */
+    @Benchmark
+    public Long send() throws Exception {
+        return new Relay(source.getMailbox(), timeline, target.getMailbox())
+                .call();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.agilewiki.jactor.api.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.internal.TRequestBase;
+import com.blockwithme.time.Time;
+import com.blockwithme.time.Timeline;
+
+/**
+ * Measures TActorBase.onTimeChange tick delivery to many actors. One
+ * operation is one tick, delivered to (and processed by) every actor.
+ *
+ * @author monster
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeTickBenchmark {
+
+    /** Used to wait until a Mailbox has processed all previous ticks. */
+    private static final class Flush extends TRequestBase<Void> {
+        Flush(final TMailbox target, final Timeline timeline) {
+            super(target, timeline);
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> _rp)
+                throws Exception {
+            _rp.processResponse(null);
+        }
+    }
+
+    /** Number of actors receiving the ticks. */
+    @Param({ "1", "100", "10000" })
+    public int actors;
+
+    /** Number of Mailboxes the actors are spread over. */
+    @Param({ "1", "8" })
+    public int mailboxes;
+
+    /** The factory. */
+    private TMailboxFactory factory;
+
+    /** The core timeline. */
+    private Timeline timeline;
+
+    /** The Mailbox owners. */
+    private BenchOwner[] owners;
+
+    /** The tick receivers. */
+    private BenchActor[] receivers;
+
+    @Setup
+    public void setup() {
+        factory = Bench.newFactory();
+        timeline = factory.clockService().coreTimeline();
+        owners = new BenchOwner[mailboxes];
+        for (int i = 0; i < mailboxes; i++) {
+            owners[i] = Bench.newOwner(factory);
+        }
+        receivers = new BenchActor[actors];
+        for (int i = 0; i < actors; i++) {
+            receivers[i] = new BenchActor(owners[i % mailboxes].getMailbox(),
+                    null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Bench.close(factory);
+    }
+
+    /** Delivers one tick to all actors, and waits until it is processed. */
+    @Benchmark
+    public Time tick() throws Exception {
+        final Time time = timeline.lastTick();
+        for (final BenchActor receiver : receivers) {
+            receiver.onTimeChange(time);
+        }
+        for (final BenchOwner owner : owners) {
+            new Flush(owner.getMailbox(), timeline).call();
+        }
+        return time;
+    }
+}
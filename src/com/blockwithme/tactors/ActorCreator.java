@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors;
+
+/**
+ * ActorCreator creates the actors of a bulk creation.
+ *
+ * @see TMailbox#createActors(int, ActorCreator)
+ *
+ * @author monster
+ */
+public interface ActorCreator<A extends TActor> {
+    /** Creates the actor with the given index, using the given Mailbox. */
+    A create(TMailbox mailbox, int index);
+}
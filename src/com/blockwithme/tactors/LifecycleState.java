@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors;
+
+/**
+ * The lifecycle states of actors and Mailboxes.
+ *
+ * Explicit lifecycles are optional: actors and Mailboxes that are never
+ * started or stopped stay NEW, which behaves like STARTED, and are simply
+ * dropped once they are collected.
+ *
+ * @author monster
+ */
+public enum LifecycleState {
+    /** Created, but not explicitly started yet. */
+    NEW,
+    /** Explicitly started. */
+    STARTED,
+    /** Stopped. This state is final. */
+    STOPPED,
+    /**
+     * Passivated: the state of the actor was written to the ActorStore, and
+     * this instance must not be used anymore. This state is final.
+     */
+    PASSIVATED
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors;
+
+/**
+ * Thrown to the sender, when a bounded Mailbox cannot accept a request.
+ *
+ * @author monster
+ */
+public class MailboxOverflowException extends IllegalStateException {
+
+    /** serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /** The full Mailbox. */
+    private final transient TMailbox mailbox;
+
+    /** Creates a MailboxOverflowException. */
+    public MailboxOverflowException(final TMailbox theMailbox) {
+        super("Mailbox " + theMailbox + " is full (capacity: "
+                + theMailbox.capacity() + ")");
+        mailbox = theMailbox;
+    }
+
+    /** Returns the full Mailbox. */
+    public TMailbox mailbox() {
+        return mailbox;
+    }
+}
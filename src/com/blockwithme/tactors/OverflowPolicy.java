@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors;
+
+/**
+ * Defines what happens when a request is sent to a bounded Mailbox, which
+ * already holds as many pending requests as its capacity.
+ *
+ * @author monster
+ */
+public enum OverflowPolicy {
+    /**
+     * The sender thread blocks, until the Mailbox can accept the request.
+     * A sender running within a Mailbox gets a MailboxOverflowException
+     * instead, like with REJECT, since blocking one of the threads running
+     * the Mailboxes could deadlock them, if the full Mailbox needs them to
+     * make progress.
+     */
+    BLOCK,
+    /** A MailboxOverflowException is thrown to the sender. */
+    REJECT,
+    /**
+     * The new request is silently dropped, if it is a signal. Requests that
+     * expect a response are rejected instead, like with REJECT, since
+     * dropping them would leave the sender waiting forever.
+     */
+    DROP_NEWEST,
+    /**
+     * Signals wait in a buffer in front of the FIFO queue, holding at most
+     * capacity signals. When it is full, the oldest buffered signal is
+     * silently dropped, to make room for the new one. Signals are released
+     * from the buffer into the FIFO queue one at a time, so the queue
+     * itself never holds more than one of them. Requests that expect a
+     * response are rejected when the Mailbox is full, like with REJECT.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors;
+
+/**
+ * Latency statistics of one class of TRequest.
+ *
+ * The queue delay is the time between sending a request, and the start of
+ * its processing in the target Mailbox. The service time is the time
+ * spent processing the request in the target Mailbox. All values are in
+ * nanoseconds. The percentiles are upper bounds, with a relative error
+ * below 12.5%.
+ *
+ * @author monster
+ */
+public interface RequestLatency {
+
+    /** Returns the request class. */
+    Class<?> requestClass();
+
+    /**
+     * Returns the target Mailbox, or null if the statistics cover all
+     * Mailboxes, or if the target Mailbox was garbage collected.
+     */
+    TMailbox mailbox();
+
+    /** Returns the number of processed requests. */
+    long count();
+
+    /** Returns the queue delay at the given percentile, between 0 and 100. */
+    long queueDelay(double percentile);
+
+    /** Returns the service time at the given percentile, between 0 and 100. */
+    long serviceTime(double percentile);
+
+    /** Returns the maximum queue delay. */
+    long maxQueueDelay();
+
+    /** Returns the maximum service time. */
+    long maxServiceTime();
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors;
+
+/**
+ * The priority of a request, as returned by TRequestBase.priority().
+ * Requests that do not extend TRequestBase are always NORMAL.
+ *
+ * NORMAL requests use the FIFO queue of the target Mailbox. Signals with a
+ * higher priority use a separate lane of the target Mailbox. Adding to an
+ * empty lane queues a single drain message in the FIFO queue, which then
+ * processes the lanes, highest priority first. Signals therefore overtake
+ * every message queued after that drain message, but not the ones queued
+ * before it.
+ *
+ * @author monster
+ */
+public enum RequestPriority {
+    /** Regular traffic. */
+    NORMAL,
+    /** Traffic that should not wait behind regular traffic. */
+    HIGH,
+    /** Control traffic, like time ticks. */
+    CONTROL
+}
@@ -26,7 +26,7 @@ import com.blockwithme.util.IDedAndNamed;
 /**
  * Base interface for all temporal actors.
  *
- * TODO Now that all TActor are weakly referenced, we could add lifecycles to them.
+ * TActorBase offers an optional explicit lifecycle (start/stop).
  *
  * @author monster
  */
@@ -15,9 +15,13 @@
  */
 package com.blockwithme.tactors;
 
+import java.util.List;
+
 import org.agilewiki.jactor.api.Mailbox;
 import org.agilewiki.jactor.impl.JAMailbox;
 
+import com.blockwithme.time.TimeListener;
+
 /**
  * Base interface for all temporal mailboxes.
  *
@@ -26,7 +30,7 @@ import org.agilewiki.jactor.impl.JAMailbox;
  * The time is effectively "frozen". Because of this, the TimeSource methods
  * are NOT thread-safe in Mailbox, and can only be called from within the Mailbox.
  *
- * TODO Now that all Mailbox are weakly referenced, we could add lifecycles to them.
+ * TMailboxImpl offers an optional explicit lifecycle (start/stop).
  *
  * @author monster
  */
@@ -47,10 +51,49 @@ public interface TMailbox extends JAMailbox {
      */
     long nextActorID(TActor actor, boolean pin);
 
+    /**
+     * Creates count actors at once, by calling the creator with the indexes
+     * 0 to count-1, and returns them. The actors get a contiguous range of
+     * IDs, reserved in one operation, and are registered together once
+     * they are all created. They can therefore not be found by ID or name
+     * before this method returns. Named actors are the exception: they are
+     * registered as they are created, outside the reserved range, so that
+     * a name conflict fails their creation. The Mailbox owner must already
+     * exist. If the factory uses dense actor IDs, which cannot be reserved, the
+     * actors are instead registered one at a time, as they are created.
+     */
+    <A extends TActor> List<A> createActors(int count, ActorCreator<A> creator);
+
     /**
      * Returns the Mailbox owner. This is the first actor created for this
      * Mailbox. The reference prevents the owner from being CGed, as long as
      * something else references the Mailbox.
      */
     MBOwner owner();
+
+    /**
+     * Returns the TimeListener of the Mailbox. When registered to a Timeline,
+     * it queues a single request per tick for the whole Mailbox, which
+     * delivers the tick to every actor of the Mailbox that subscribed to it.
+     */
+    TimeListener tickListener();
+
+    /**
+     * Returns the maximum number of pending requests of this Mailbox, or
+     * Integer.MAX_VALUE, if the Mailbox is not bounded.
+     */
+    int capacity();
+
+    /**
+     * Returns the policy applied when a request is sent to this Mailbox
+     * while it is full, or null, if the Mailbox is not bounded.
+     */
+    OverflowPolicy overflowPolicy();
+
+    /**
+     * Returns true, if the Mailbox can currently accept more requests.
+     * Senders can use it to shed or delay work, before the overflow
+     * policy applies. The answer can be outdated as soon as it is returned.
+     */
+    boolean canAccept();
 }
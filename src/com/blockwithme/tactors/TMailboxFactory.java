@@ -15,6 +15,8 @@
  */
 package com.blockwithme.tactors;
 
+import java.util.List;
+
 import org.agilewiki.jactor.impl.JAMailboxFactory;
 
 import com.blockwithme.time.ClockServiceSource;
@@ -53,6 +55,35 @@ public interface TMailboxFactory extends JAMailboxFactory, ClockServiceSource {
     TMailbox createMailbox(final boolean mayBlock, final int initialBufferSize,
             final Runnable onIdle);
 
+    /**
+     * Creates a bounded Mailbox, which accepts at most capacity pending
+     * requests. When it is full, the overflow policy applies to the
+     * senders.
+     *
+     * Only TRequestBase requests with NORMAL priority are bounded. Not
+     * bounded are:
+     * requests that do not extend TRequestBase, like a plain RequestBase;
+     * signals with a higher priority, which use the priority lanes; and
+     * requests sent from within the Mailbox itself, as the Mailbox could
+     * otherwise block itself. With DROP_OLDEST, signals are counted in a
+     * separate buffer of capacity signals, including those sent from within
+     * the Mailbox, since dropping never blocks; requests that expect a
+     * response are then bounded separately, by capacity.
+     */
+    TMailbox createBoundedMailbox(final boolean mayBlock, final int capacity,
+            final OverflowPolicy overflowPolicy);
+
+    /**
+     * Creates a time-ordered Mailbox. Signals sent to it are not processed
+     * in arrival order, but sorted by creation time, then by sender actor ID.
+     * The pending signals are sorted while the Mailbox is busy, and
+     * released, at most window at a time, whenever it becomes ready.
+     * Signals with a priority above NORMAL, and requests that expect a
+     * response, are not reordered. Fails with an IllegalStateException if
+     * the factory has no deterministic way to order creation times.
+     */
+    TMailbox createTimeOrderedMailbox(final boolean mayBlock, final int window);
+
     /** @see org.agilewiki.jactor.api.MailboxFactory#createThreadBoundMailbox(Runnable) */
     @Override
     TMailbox createThreadBoundMailbox(final Runnable _messageProcessor);
@@ -77,4 +108,29 @@ public interface TMailboxFactory extends JAMailboxFactory, ClockServiceSource {
     /** Returns the actor with the given name, if any. */
     TActor findActor(String name);
 
+    /**
+     * Returns the live children of the given actor. Takes time proportional
+     * to the number of children.
+     */
+    List<TActor> children(TActor parent);
+
+    /**
+     * Returns the live descendants of the given actor, breadth-first,
+     * excluding the actor itself.
+     */
+    List<TActor> descendants(TActor parent);
+
+    /**
+     * Returns the latency statistics of every request class, per target
+     * Mailbox. Returns an empty list if request latencies are not recorded.
+     */
+    List<RequestLatency> requestLatencies();
+
+    /**
+     * Returns the latency statistics of a request class, aggregated over
+     * all Mailboxes. For example, requestLatency(c).queueDelay(99) returns
+     * the p99 queue delay of all requests of class c.
+     */
+    RequestLatency requestLatency(Class<?> requestClass);
+
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.blockwithme.tactors.TActor;
+
+/**
+ * The registry of all the actors of a TMailboxFactory.
+ *
+ * Actors are normally weakly referenced, so that they disappear from the
+ * registry once collected. Pinned and named actors are strongly referenced.
+ *
+ * This interface only covers lookups and removal. How actors are
+ * registered depends on who allocates the actor IDs: the factory, for an
+ * ExternalIDActorRegistry, or the registry itself, for an
+ * AllocatingActorRegistry. Every implementation is one or the other.
+ *
+ * All methods are thread-safe.
+ *
+ * @author monster
+ */
+public interface ActorRegistry {
+
+    /** Informed when actors leave the registry. */
+    interface Listener {
+        /**
+         * Called when the actor with the given ID was removed, or collected.
+         * Must not call the registry.
+         */
+        void removed(long id);
+    }
+
+    /** Returns the actor with the given ID, if any. */
+    TActor find(long id);
+
+    /** Returns the actor with the given name, if any. */
+    TActor find(String name);
+
+    /** Removes the actor with the given ID, if any. Returns true on success. */
+    boolean remove(long id);
+
+    /** Returns the approximate number of registered actors. */
+    int size();
+
+    /** Adds a Listener. */
+    void addListener(Listener listener);
+}
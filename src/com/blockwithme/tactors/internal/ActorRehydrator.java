@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import com.blockwithme.tactors.TMailboxFactory;
+
+/**
+ * Recreates a passivated actor, from the state written by
+ * Passivatable.writeState().
+ *
+ * The actor must be created normally, in a Mailbox of the given factory;
+ * the factory makes sure it gets its old ID back.
+ *
+ * @author monster
+ */
+public interface ActorRehydrator {
+
+    /** Recreates a passivated actor. name can be null. */
+    Passivatable rehydrate(TMailboxFactory factory, String name,
+            DataInput state) throws IOException;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.IOException;
+
+/**
+ * Stores the state of passivated actors.
+ *
+ * All methods are thread-safe.
+ *
+ * @author monster
+ */
+public interface ActorStore {
+
+    /** The stored state of a passivated actor. */
+    final class Entry {
+        /** The actor ID. */
+        public final long id;
+
+        /** The actor name, if any. */
+        public final String name;
+
+        /** The actor class name. */
+        public final String type;
+
+        /** The actor state. */
+        public final byte[] state;
+
+        /** Creates an Entry. */
+        public Entry(final long theID, final String theName,
+                final String theType, final byte[] theState) {
+            id = theID;
+            name = theName;
+            type = theType;
+            state = theState;
+        }
+    }
+
+    /** Stores the state of a passivated actor. */
+    void store(Entry entry) throws IOException;
+
+    /** Removes, and returns, the state of a passivated actor, if any. */
+    Entry take(long id) throws IOException;
+
+    /** Returns the ID of the passivated actor with the given name, or 0. */
+    long find(String name);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.blockwithme.tactors.TActor;
+
+/**
+ * An ActorRegistry which allocates the actor IDs itself, typically because
+ * the IDs encode where the actors are stored. The IDs can then not be
+ * known before registration, so they cannot be leased or reserved.
+ *
+ * All methods are thread-safe.
+ *
+ * @author monster
+ */
+public interface AllocatingActorRegistry extends ActorRegistry {
+
+    /**
+     * Allocates a new ID, registers the actor under it, and under its name,
+     * if not null, and returns the ID. The name cannot already be in use.
+     */
+    long registerNew(String name, TActor actor, boolean pin);
+}
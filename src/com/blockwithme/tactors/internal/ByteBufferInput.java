@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream reading from a ByteBuffer, which can be replaced.
+ *
+ * @author monster
+ */
+final class ByteBufferInput extends InputStream {
+
+    /** The buffer. */
+    ByteBuffer buffer;
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int result = Math.min(len, buffer.remaining());
+        buffer.get(b, off, result);
+        return result;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.blockwithme.tactors.TActor;
+
+/**
+ * ChildrenIndex maps the ID of each parent actor to the IDs of its children.
+ *
+ * The child IDs are stored as primitive longs, in one growable array per
+ * parent. The IDs of removed or collected children are pruned lazily, when
+ * the children are enumerated, or when the array is full. The array of a
+ * parent is dropped as soon as the parent leaves the registry, unless it
+ * leaves it because it is passivated. The array is then kept for the
+ * rehydrated parent, which reuses the ID. The children of a parent that
+ * is never rehydrated are therefore kept, until they are enumerated.
+ *
+ * @author monster
+ */
+final class ChildrenIndex implements ActorRegistry.Listener {
+
+    /** The child IDs of one parent. */
+    private static final class Children {
+        /** The child IDs. */
+        long[] ids = new long[4];
+
+        /** The number of used IDs. */
+        int size;
+    }
+
+    /** The registry, used to resolve the child IDs. */
+    private final ActorRegistry registry;
+
+    /** The children, per parent ID. */
+    private final ConcurrentHashMap<Long, Children> byParent = new ConcurrentHashMap<>();
+
+    /** The IDs of the parents being passivated. */
+    private final Set<Long> passivating = Collections
+            .newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /** Creates a ChildrenIndex, and registers it with the registry. */
+    ChildrenIndex(final ActorRegistry theRegistry) {
+        registry = theRegistry;
+        registry.addListener(this);
+    }
+
+    /**
+     * Adds a child to a parent. Does nothing if the parent has already
+     * left the registry, like when it was stopped.
+     */
+    void add(final long parentID, final long childID) {
+        Children children = byParent.get(parentID);
+        boolean created = false;
+        if (children == null) {
+            final Children added = new Children();
+            children = byParent.putIfAbsent(parentID, added);
+            if (children == null) {
+                children = added;
+                created = true;
+            }
+        }
+        synchronized (children) {
+            if (children.size == children.ids.length) {
+                prune(children, null);
+                if (children.size * 2 > children.ids.length) {
+                    children.ids = Arrays.copyOf(children.ids,
+                            children.ids.length * 2);
+                }
+            }
+            children.ids[children.size++] = childID;
+        }
+        // Checked after inserting, so that removed() cannot be missed.
+        if (created && (registry.find(parentID) == null)) {
+            byParent.remove(parentID, children);
+        }
+    }
+
+    /**
+     * Called before a parent leaves the registry, because it is
+     * passivated, so that its children are kept.
+     */
+    void passivating(final long parentID) {
+        passivating.add(parentID);
+    }
+
+    /** Called once a parent being passivated has left the registry. */
+    void passivated(final long parentID) {
+        passivating.remove(parentID);
+    }
+
+    /**
+     * Removes the IDs of the children that are not in the registry anymore.
+     * Adds the others to result, if not null.
+     */
+    private void prune(final Children children, final List<TActor> result) {
+        final long[] ids = children.ids;
+        int kept = 0;
+        for (int i = 0; i < children.size; i++) {
+            final TActor child = registry.find(ids[i]);
+            if (child != null) {
+                ids[kept++] = ids[i];
+                if (result != null) {
+                    result.add(child);
+                }
+            }
+        }
+        Arrays.fill(ids, kept, children.size, 0);
+        children.size = kept;
+    }
+
+    /** Adds the children of the given parent to result. */
+    private void addChildren(final long parentID, final List<TActor> result) {
+        final Children children = byParent.get(parentID);
+        if (children != null) {
+            synchronized (children) {
+                prune(children, result);
+            }
+        }
+    }
+
+    /** Returns the children of the given parent. */
+    List<TActor> children(final long parentID) {
+        final List<TActor> result = new ArrayList<>();
+        addChildren(parentID, result);
+        return result;
+    }
+
+    /**
+     * Returns all the descendants of the given parent, in breadth-first
+     * order, excluding the parent itself.
+     */
+    List<TActor> descendants(final long parentID) {
+        final List<TActor> result = new ArrayList<>();
+        addChildren(parentID, result);
+        for (int i = 0; i < result.size(); i++) {
+            addChildren(result.get(i).id(), result);
+        }
+        return result;
+    }
+
+    /** Returns the number of parents in the index. */
+    int parents() {
+        return byParent.size();
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry.Listener#removed(long)
+     */
+    @Override
+    public void removed(final long id) {
+        if (!passivating.contains(id)) {
+            byParent.remove(id);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import org.agilewiki.jactor.api.ExceptionHandler;
+import org.agilewiki.jactor.api.ResponseProcessor;
+import org.agilewiki.jactor.api.Transport;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+
+/**
+ * Sends a request received by a transport to its target, from the gateway
+ * Mailbox of the transport, and passes the response, or exception, to the
+ * Responder of the transport.
+ *
+ * @author monster
+ */
+final class DeliverRequest<R> extends TRequestBase<Void> {
+
+    /** Sends the responses back to the requester. */
+    interface Responder {
+        /** Sends a response, or an exception, for a correlation ID. */
+        void respond(long correlation, boolean failed, Object value);
+    }
+
+    /** The responder. */
+    private final Responder responder;
+
+    /** The correlation ID of the request. */
+    private final long correlation;
+
+    /** The received request, or null if it failed. */
+    private final TRequest<R> request;
+
+    /** Why the received request failed, if it did. */
+    private final Exception failure;
+
+    /** Creates a DeliverRequest. */
+    DeliverRequest(final TMailbox gateway, final Responder theResponder,
+            final long theCorrelation, final TRequest<R> theRequest) {
+        this(gateway, theResponder, theCorrelation, theRequest, null);
+    }
+
+    /** Creates a DeliverRequest. */
+    private DeliverRequest(final TMailbox gateway,
+            final Responder theResponder, final long theCorrelation,
+            final TRequest<R> theRequest, final Exception theFailure) {
+        super(gateway, (Time) null);
+        responder = theResponder;
+        correlation = theCorrelation;
+        request = theRequest;
+        failure = theFailure;
+    }
+
+    /** Sends a received request to its target. */
+    static <R> void deliver(final TMailbox gateway,
+            final Responder responder, final long correlation,
+            final TRequest<R> request) throws Exception {
+        new DeliverRequest<R>(gateway, responder, correlation, request)
+                .signal();
+    }
+
+    /**
+     * Passes the failure of a received request to the Responder, from the
+     * gateway Mailbox.
+     */
+    static void fail(final TMailbox gateway, final Responder responder,
+            final long correlation, final Exception failure) throws Exception {
+        new DeliverRequest<Void>(gateway, responder, correlation, null,
+                failure).signal();
+    }
+
+    @Override
+    public void processRequest(final Transport<Void> _rp) throws Exception {
+        if (failure != null) {
+            responder.respond(correlation, true, failure);
+            _rp.processResponse(null);
+            return;
+        }
+        getMailbox().setExceptionHandler(new ExceptionHandler() {
+            @Override
+            public void processException(final Throwable throwable)
+                    throws Exception {
+                responder.respond(correlation, true, throwable);
+            }
+        });
+        request.send(getMailbox(), new ResponseProcessor<R>() {
+            @Override
+            public void processResponse(final R response) throws Exception {
+                responder.respond(correlation, false, response);
+            }
+        });
+        _rp.processResponse(null);
+    }
+}
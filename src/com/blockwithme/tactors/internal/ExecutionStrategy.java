@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ExecutionStrategy defines on which threads the TMailboxFactoryImpl runs
+ * the Mailboxes' message processing.
+ *
+ * @author monster
+ */
+public enum ExecutionStrategy {
+
+    /** The thread pool inherited from DefaultMailboxFactoryImpl. */
+    DEFAULT {
+        @Override
+        ExecutorService newExecutor(final String name, final int threadCount) {
+            return null;
+        }
+    },
+
+    /** A fixed pool of platform threads. */
+    FIXED_POOL {
+        @Override
+        ExecutorService newExecutor(final String name, final int threadCount) {
+            return Executors.newFixedThreadPool(threadCount,
+                    threadFactory(name));
+        }
+    },
+
+    /**
+     * A work-stealing ForkJoinPool, in async (FIFO) mode, which suits
+     * message processing better than the default LIFO mode.
+     */
+    FORK_JOIN {
+        @Override
+        ExecutorService newExecutor(final String name, final int threadCount) {
+            return new ForkJoinPool(threadCount,
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null,
+                    true);
+        }
+    },
+
+    /**
+     * One virtual thread per active Mailbox. Blocking Mailboxes then do not
+     * pin platform threads. Requires a JDK with virtual threads; on older
+     * JDKs, one (cached) platform thread per active Mailbox is used instead.
+     */
+    VIRTUAL_THREADS {
+        @Override
+        ExecutorService newExecutor(final String name, final int threadCount) {
+            try {
+                return (ExecutorService) Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (final NoSuchMethodException e) {
+                LOG.warn("Virtual threads are not available;"
+                        + " using a cached thread pool instead");
+                return Executors.newCachedThreadPool(threadFactory(name));
+            } catch (final Exception e) {
+                throw new IllegalStateException(
+                        "Failed to create the virtual thread executor", e);
+            }
+        }
+    };
+
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ExecutionStrategy.class);
+
+    /** Creates a ThreadFactory of daemon threads, named name-N. */
+    static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread result = new Thread(r, name + "-"
+                        + counter.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Creates the executor of this strategy, or returns null, if the
+     * inherited thread pool should be used. threadCount is ignored by
+     * VIRTUAL_THREADS.
+     */
+    abstract ExecutorService newExecutor(String name, int threadCount);
+}
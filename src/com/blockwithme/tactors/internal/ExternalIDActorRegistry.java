@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.blockwithme.tactors.TActor;
+
+/**
+ * An ActorRegistry where the actor IDs are allocated by the factory, and
+ * given to the registry. This allows the Mailboxes to lease blocks of IDs,
+ * and to reserve ID ranges for bulk creation.
+ *
+ * All methods are thread-safe.
+ *
+ * @author monster
+ */
+public interface ExternalIDActorRegistry extends ActorRegistry {
+
+    /**
+     * Registers an actor under the given ID, and under its name, if not null.
+     * The ID cannot be 0, and neither the ID nor the name can already be in
+     * use.
+     */
+    void register(long id, String name, TActor actor, boolean pin);
+
+    /**
+     * Registers actors[i] under the ID firstID+i, for i in [0,count).
+     * pins[i] tells if actors[i] is pinned. The range cannot contain 0.
+     * Fails without registering anything if a name is already in use.
+     */
+    void registerAll(long firstID, TActor[] actors, boolean[] pins, int count);
+}
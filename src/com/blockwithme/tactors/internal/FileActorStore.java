@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An ActorStore keeping one file per passivated actor, in a directory.
+ * Each file is written to a temporary file first, and then renamed, so
+ * that a crash never leaves a truncated actor file behind.
+ *
+ * The name index is kept in memory, and persisted as a log of changes in
+ * the file "names.log", which is replayed on creation, rather than reading
+ * every actor file. The log is compacted when it gets much larger than
+ * the index. A name is logged before its actor file is written, and
+ * removed after it is deleted, so a crash can at worst leave a name
+ * pointing to an actor that is gone, which is then simply not found.
+ * Directories written without a log are indexed once, from their files.
+ *
+ * @author monster
+ */
+public class FileActorStore implements ActorStore {
+
+    /** The file name suffix. */
+    private static final String SUFFIX = ".actor";
+
+    /** The temporary file name suffix. */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** The name of the name index log. */
+    private static final String NAMES = "names.log";
+
+    /** The minimum number of log records before compaction. */
+    private static final int MIN_COMPACTION = 1024;
+
+    /** The directory. */
+    private final File directory;
+
+    /** The IDs of the named passivated actors. */
+    private final ConcurrentMap<String, Long> names = new ConcurrentHashMap<>();
+
+    /** Appends to the name index log. Guarded by this. */
+    private DataOutputStream log;
+
+    /** The number of records in the name index log. Guarded by this. */
+    private int logRecords;
+
+    /** Creates a FileActorStore, reusing the actors already in directory. */
+    public FileActorStore(final File theDirectory) throws IOException {
+        directory = Preconditions.checkNotNull(theDirectory, "theDirectory");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        final File namesFile = new File(directory, NAMES);
+        if (namesFile.isFile()) {
+            replay(namesFile);
+        } else {
+            for (final File file : directory.listFiles()) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    final Entry entry = read(file);
+                    if (entry.name != null) {
+                        names.put(entry.name, entry.id);
+                    }
+                }
+            }
+            synchronized (this) {
+                compact();
+            }
+        }
+    }
+
+    /** Returns the file of an actor. */
+    private File file(final long id) {
+        return new File(directory, Long.toHexString(id) + SUFFIX);
+    }
+
+    /** Reads an entry. */
+    private static Entry read(final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            final long id = in.readLong();
+            final String name = in.readBoolean() ? in.readUTF() : null;
+            final String type = in.readUTF();
+            final byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            return new Entry(id, name, type, state);
+        }
+    }
+
+    /**
+     * Replays the name index log. A truncated last record, left by a
+     * crash, is ignored.
+     */
+    private void replay(final File file) throws IOException {
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final boolean put;
+                final String name;
+                final long id;
+                try {
+                    put = in.readBoolean();
+                    name = in.readUTF();
+                    id = in.readLong();
+                } catch (final EOFException e) {
+                    return;
+                }
+                logRecords++;
+                if (put) {
+                    names.put(name, id);
+                } else {
+                    names.remove(name, id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a change to the name index log. The log is only opened on
+     * the first change. Must hold the lock.
+     */
+    private void log(final boolean put, final String name, final long id)
+            throws IOException {
+        if (log == null) {
+            log = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, NAMES), true)));
+        }
+        log.writeBoolean(put);
+        log.writeUTF(name);
+        log.writeLong(id);
+        log.flush();
+        logRecords++;
+        if (logRecords > Math.max(MIN_COMPACTION, 2 * names.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the name index log from the index, and renames it over the
+     * old one. Must hold the lock.
+     */
+    private void compact() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        final File namesFile = new File(directory, NAMES);
+        final File tmp = new File(directory, NAMES + TMP_SUFFIX);
+        try (final FileOutputStream fos = new FileOutputStream(tmp);
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fos))) {
+            for (final Map.Entry<String, Long> entry : names.entrySet()) {
+                out.writeBoolean(true);
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), namesFile.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        logRecords = names.size();
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorStore#store(com.blockwithme.tactors.internal.ActorStore.Entry)
+     */
+    @Override
+    public void store(final Entry entry) throws IOException {
+        if (entry.name != null) {
+            synchronized (this) {
+                log(true, entry.name, entry.id);
+            }
+            names.put(entry.name, entry.id);
+        }
+        final File file = file(entry.id);
+        final File tmp = new File(directory, file.getName() + TMP_SUFFIX);
+        try (final FileOutputStream fos = new FileOutputStream(tmp);
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fos))) {
+            out.writeLong(entry.id);
+            out.writeBoolean(entry.name != null);
+            if (entry.name != null) {
+                out.writeUTF(entry.name);
+            }
+            out.writeUTF(entry.type);
+            out.writeInt(entry.state.length);
+            out.write(entry.state);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorStore#take(long)
+     */
+    @Override
+    public Entry take(final long id) throws IOException {
+        final File file = file(id);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Entry result = read(file);
+        if (!file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+        if ((result.name != null) && names.remove(result.name, id)) {
+            synchronized (this) {
+                log(false, result.name, id);
+            }
+        }
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorStore#find(java.lang.String)
+     */
+    @Override
+    public long find(final String name) {
+        final Long result = names.get(name);
+        return (result == null) ? 0 : result;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.agilewiki.jactor.api.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+
+/**
+ * JournalReplayer feeds the requests recorded by a RequestJournal back
+ * into a (typically fresh) TMailboxFactory, as fast as possible.
+ *
+ * The target actors must exist in the factory, under the recorded IDs.
+ * This is normally achieved by recreating them in the same order as in
+ * the recorded run. Requests to missing actors are skipped.
+ *
+ * Not thread-safe.
+ *
+ * @author monster
+ */
+public class JournalReplayer {
+
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(JournalReplayer.class);
+
+    /** The decoders, per request class name. */
+    private final Map<String, RequestDecoder> decoders = new HashMap<>();
+
+    /** Decodes the creation times, or null to replay them as null. */
+    private final TimeCodec timeCodec;
+
+    /** The number of skipped requests, in the last replay. */
+    private long skipped;
+
+    /** Creates a JournalReplayer, which replays creation times as null. */
+    public JournalReplayer() {
+        this(null);
+    }
+
+    /**
+     * Creates a JournalReplayer. timeCodec decodes the creation times; it
+     * must match the TimeCodec of the RequestJournal.
+     */
+    public JournalReplayer(final TimeCodec theTimeCodec) {
+        timeCodec = theTimeCodec;
+    }
+
+    /** Registers the decoder of a request class. */
+    public void register(final Class<? extends JournaledRequest> type,
+            final RequestDecoder decoder) {
+        decoders.put(type.getName(),
+                Preconditions.checkNotNull(decoder, "decoder"));
+    }
+
+    /** Returns the number of requests skipped in the last replay. */
+    public long skipped() {
+        return skipped;
+    }
+
+    /**
+     * Replays all segments of the journal directory into the factory, and
+     * waits until all replayed requests were processed. Returns the number
+     * of replayed requests.
+     */
+    public long replay(final File directory, final TMailboxFactory factory)
+            throws Exception {
+        skipped = 0;
+        long replayed = 0;
+        final Set<TMailbox> mailboxes = Collections
+                .newSetFromMap(new IdentityHashMap<TMailbox, Boolean>());
+        final ByteBufferInput input = new ByteBufferInput();
+        final DataInputStream in = new DataInputStream(input);
+        for (final File file : RequestJournal.segments(directory)) {
+            final ByteBuffer segment;
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    final FileChannel channel = raf.getChannel()) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            }
+            while (segment.remaining() >= 4) {
+                final int length = segment.getInt();
+                if (length <= 0) {
+                    break;
+                }
+                final ByteBuffer record = segment.slice();
+                record.limit(length);
+                segment.position(segment.position() + length);
+                input.buffer = record;
+                final TMailbox mailbox = replayRecord(in, factory);
+                if (mailbox == null) {
+                    skipped++;
+                } else {
+                    mailboxes.add(mailbox);
+                    replayed++;
+                }
+            }
+        }
+        for (final TMailbox mailbox : mailboxes) {
+            // Requests are processed in order, so this waits for the others.
+            new TRequestBase<Void>(mailbox, (Time) null) {
+                @Override
+                public void processRequest(final Transport<Void> _rp)
+                        throws Exception {
+                    _rp.processResponse(null);
+                }
+            }.call();
+        }
+        return replayed;
+    }
+
+    /**
+     * Replays one record. Returns the target Mailbox, or null if the
+     * target actor does not exist.
+     */
+    private TMailbox replayRecord(final DataInputStream in,
+            final TMailboxFactory factory) throws Exception {
+        final long targetID = in.readLong();
+        final String type = in.readUTF();
+        final Time time;
+        if (in.readBoolean()) {
+            final long encoded = in.readLong();
+            time = (timeCodec == null) ? null : timeCodec.decode(encoded);
+        } else {
+            time = null;
+        }
+        final RequestDecoder decoder = decoders.get(type);
+        if (decoder == null) {
+            throw new IllegalStateException("No RequestDecoder for " + type);
+        }
+        final TActor target = factory.findActor(targetID);
+        if (target == null) {
+            LOG.warn("Skipping " + type + ": actor " + targetID
+                    + " not found");
+            return null;
+        }
+        decoder.decode(target, time, in).signal();
+        return target.getMailbox();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A request that can be recorded in a RequestJournal, and replayed with a
+ * JournalReplayer, which uses a RequestDecoder to recreate it.
+ *
+ * @author monster
+ */
+public interface JournaledRequest {
+
+    /** Returns the ID of the target actor. */
+    long targetID();
+
+    /** Writes the payload of the request, so that it can be decoded. */
+    void writePayload(DataOutput out) throws IOException;
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small fixed-size, log-linear histogram of durations (or any positive
+ * long values), in the spirit of HdrHistogram.
+ *
+ * Each power of 2 is divided into 8 linear sub-buckets, so the relative
+ * error of any reported value is below 12.5%, over the whole long range,
+ * with less than 500 buckets. Recording is wait-free and does not allocate.
+ *
+ * Thread-safe.
+ *
+ * @author monster
+ */
+public final class LatencyHistogram {
+
+    /** Number of bits used for sub-buckets. */
+    private static final int SUB_BITS = 3;
+
+    /** Number of sub-buckets per power of 2. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Number of buckets. */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /** The counts. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** The number of recorded values. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of recorded values. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** The maximum recorded value. */
+    private volatile long max;
+
+    /** Returns the bucket of a value. */
+    private static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the smallest value of a bucket. */
+    private static long lowerBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        final long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+    }
+
+    /** Returns the largest value of a bucket. */
+    private static long upperBound(final int bucket) {
+        return (bucket == BUCKETS - 1) ? Long.MAX_VALUE
+                : lowerBound(bucket + 1) - 1;
+    }
+
+    /** Records a value. Negative values are recorded as 0. */
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        if (v > max) {
+            // Racy, but only ever off by concurrent recordings.
+            max = v;
+        }
+    }
+
+    /** Returns the number of recorded values. */
+    public long count() {
+        return count.get();
+    }
+
+    /** Returns the mean of the recorded values, or 0. */
+    public double mean() {
+        final long n = count.get();
+        return (n == 0) ? 0 : ((double) sum.get()) / n;
+    }
+
+    /** Returns the maximum recorded value, or 0. */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns an upper bound of the value at the given percentile
+     * (between 0 and 100), or 0 if nothing was recorded.
+     */
+    public long percentile(final double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1,
+                (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Adds all values recorded in other to this histogram. Not atomic
+     * relative to concurrent recordings.
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            final long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        if (other.max > max) {
+            max = other.max;
+        }
+    }
+
+    /** Clears the histogram. Not atomic relative to concurrent recordings. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max = 0;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.blockwithme.tactors.TMailbox;
+
+/**
+ * MailboxLatencies holds the RequestLatencyImpl of one Mailbox, per
+ * request class.
+ *
+ * Only the Mailbox thread adds entries, but they can be read from any
+ * thread.
+ *
+ * @author monster
+ */
+final class MailboxLatencies {
+
+    /** The Mailbox. */
+    private final WeakReference<TMailbox> mailbox;
+
+    /** The latencies, per request class. */
+    private final ConcurrentMap<Class<?>, RequestLatencyImpl> latencies = new ConcurrentHashMap<>();
+
+    /** The last used latency; requests often come in runs of the same class. */
+    private RequestLatencyImpl last;
+
+    /** Creates a MailboxLatencies. */
+    public MailboxLatencies(final TMailbox theMailbox) {
+        mailbox = new WeakReference<>(theMailbox);
+    }
+
+    /** Returns the latency of a request class. Only called by the Mailbox. */
+    public RequestLatencyImpl forClass(final Class<?> requestClass) {
+        RequestLatencyImpl result = last;
+        if ((result == null) || (result.requestClass() != requestClass)) {
+            result = latencies.get(requestClass);
+            if (result == null) {
+                result = new RequestLatencyImpl(requestClass, mailbox.get());
+                latencies.put(requestClass, result);
+            }
+            last = result;
+        }
+        return result;
+    }
+
+    /** Returns all the latencies. */
+    public Collection<RequestLatencyImpl> latencies() {
+        return latencies.values();
+    }
+
+    /** Is the Mailbox still alive? */
+    public boolean isAlive() {
+        return mailbox.get() != null;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import com.blockwithme.tactors.TMailbox;
+
+/**
+ * The runtime metrics of one Mailbox.
+ *
+ * The processing counters are only updated from within the Mailbox, so
+ * they do not need atomic updates; the queue counter is updated by the
+ * senders. The Mailbox itself is only weakly referenced, so that
+ * registering the metrics as MBean does not keep it alive.
+ *
+ * @author monster
+ */
+public class MailboxMetrics implements MailboxMetricsMBean {
+
+    /** Nanoseconds per microsecond. */
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    /** The Mailbox. */
+    private final WeakReference<TMailbox> mailbox;
+
+    /** The JMX name. */
+    private final ObjectName name;
+
+    /** Number of TRequests sent to the Mailbox. */
+    private final AtomicLong queued = new AtomicLong();
+
+    /** Number of TRequests started. */
+    private volatile long started;
+
+    /** Number of requests processed. */
+    private volatile long requests;
+
+    /** Number of responses processed. */
+    private volatile long responses;
+
+    /** Time spent processing messages, in nanoseconds. */
+    private volatile long busyNanos;
+
+    /** The message processing times, in nanoseconds. */
+    private final LatencyHistogram processingTime = new LatencyHistogram();
+
+    /** Creates a MailboxMetrics. */
+    public MailboxMetrics(final TMailbox theMailbox, final ObjectName theName) {
+        mailbox = new WeakReference<>(theMailbox);
+        name = theName;
+    }
+
+    /** Returns the JMX name. */
+    public final ObjectName name() {
+        return name;
+    }
+
+    /** Called by the senders, when a TRequest is sent to the Mailbox. */
+    public final void requestQueued() {
+        queued.incrementAndGet();
+    }
+
+    /** Called when a queued TRequest is dropped by the overflow policy. */
+    public final void requestDropped() {
+        queued.decrementAndGet();
+    }
+
+    /** Called from within the Mailbox, when a TRequest starts. */
+    public final void requestStarted() {
+        started++;
+    }
+
+    /** Called from within the Mailbox, after processing a message. */
+    public final void messageProcessed(final boolean request,
+            final long nanos) {
+        if (request) {
+            requests++;
+        } else {
+            responses++;
+        }
+        busyNanos += nanos;
+        processingTime.record(nanos);
+    }
+
+    @Override
+    public long getRequestsProcessed() {
+        return requests;
+    }
+
+    @Override
+    public long getResponsesProcessed() {
+        return responses;
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return Math.max(0, queued.get() - started);
+    }
+
+    @Override
+    public long getBusyTimeMillis() {
+        return busyNanos / 1000000L;
+    }
+
+    /** Returns the time spent processing messages, in nanoseconds. */
+    public final long busyNanos() {
+        return busyNanos;
+    }
+
+    @Override
+    public double getProcessingTimeMeanMicros() {
+        return processingTime.mean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getProcessingTimeP50Micros() {
+        return processingTime.percentile(50) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getProcessingTimeP99Micros() {
+        return processingTime.percentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getProcessingTimeP999Micros() {
+        return processingTime.percentile(99.9) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getProcessingTimeMaxMicros() {
+        return processingTime.max() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return mailbox.get() != null;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+/**
+ * JMX view of the metrics of one Mailbox.
+ *
+ * @author monster
+ */
+public interface MailboxMetricsMBean {
+
+    /** Returns the number of requests processed. */
+    long getRequestsProcessed();
+
+    /** Returns the number of responses processed. */
+    long getResponsesProcessed();
+
+    /** Returns the number of TRequests sent to the Mailbox, and not yet started. */
+    long getQueueDepth();
+
+    /** Returns the total time spent processing messages, in milliseconds. */
+    long getBusyTimeMillis();
+
+    /** Returns the mean message processing time, in microseconds. */
+    double getProcessingTimeMeanMicros();
+
+    /** Returns the median message processing time, in microseconds. */
+    double getProcessingTimeP50Micros();
+
+    /** Returns the 99th percentile of message processing time, in microseconds. */
+    double getProcessingTimeP99Micros();
+
+    /** Returns the 99.9th percentile of message processing time, in microseconds. */
+    double getProcessingTimeP999Micros();
+
+    /** Returns the maximum message processing time, in microseconds. */
+    double getProcessingTimeMaxMicros();
+
+    /** Is the Mailbox still alive (not garbage-collected)? */
+    boolean isAlive();
+}
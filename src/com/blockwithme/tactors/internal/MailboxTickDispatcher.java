@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.agilewiki.jactor.api.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.blockwithme.tactors.RequestPriority;
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.time.Time;
+import com.blockwithme.time.TimeListener;
+
+/**
+ * Delivers the ticks of a Timeline to all the actors of a Mailbox that
+ * subscribed to it, using a single request per tick, for the whole Mailbox.
+ *
+ * The subscribers are weakly referenced, and stored in a copy-on-write
+ * array, so that dispatching a tick does not allocate.
+ *
+ * @author monster
+ */
+final class MailboxTickDispatcher implements TimeListener {
+
+    /** Logger */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(MailboxTickDispatcher.class);
+
+    /** No subscribers. */
+    @SuppressWarnings("unchecked")
+    private static final WeakReference<TActorBase>[] EMPTY = new WeakReference[0];
+
+    /** Delivers one tick to all subscribers. */
+    private static final class MailboxTickRequest extends TRequestBase<Void> {
+
+        /** The dispatcher. */
+        private final MailboxTickDispatcher dispatcher;
+
+        /** Creates a MailboxTickRequest. */
+        public MailboxTickRequest(final TMailbox targetMailbox,
+                final MailboxTickDispatcher theDispatcher, final Time time) {
+            super(targetMailbox, time);
+            dispatcher = theDispatcher;
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> responseProcessor)
+                throws Exception {
+            dispatcher.dispatch(creationTime());
+            responseProcessor.processResponse(null);
+        }
+
+        @Override
+        public RequestPriority priority() {
+            return RequestPriority.CONTROL;
+        }
+
+        @Override
+        protected void processPrioritySignal() throws Exception {
+            dispatcher.dispatch(creationTime());
+        }
+    }
+
+    /** The Mailbox. */
+    private final TMailbox mailbox;
+
+    /** The subscribers. Replaced on every modification. */
+    private volatile WeakReference<TActorBase>[] subscribers = EMPTY;
+
+    /** Creates a MailboxTickDispatcher. */
+    public MailboxTickDispatcher(final TMailbox theMailbox) {
+        mailbox = theMailbox;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.time.TimeListener#onTimeChange(com.blockwithme.time.Time)
+     */
+    @Override
+    public void onTimeChange(final Time time) {
+        if (subscribers.length != 0) {
+            try {
+                new MailboxTickRequest(mailbox, this, time).signal();
+            } catch (final Exception e) {
+                LOG.error("Failed to send MailboxTickRequest to " + mailbox,
+                        e);
+            }
+        }
+    }
+
+    /** Subscribes an actor. Returns false if it was already subscribed. */
+    public synchronized boolean subscribe(final TActorBase actor) {
+        final List<WeakReference<TActorBase>> list = live(actor);
+        if (list == null) {
+            return false;
+        }
+        list.add(new WeakReference<>(actor));
+        update(list);
+        return true;
+    }
+
+    /** Unsubscribes an actor. Returns false if it was not subscribed. */
+    public synchronized boolean unsubscribe(final TActorBase actor) {
+        final List<WeakReference<TActorBase>> list = live(null);
+        if (!list.remove(find(list, actor))) {
+            return false;
+        }
+        update(list);
+        return true;
+    }
+
+    /**
+     * Returns the live subscribers, or null if the given actor is already
+     * subscribed.
+     */
+    private List<WeakReference<TActorBase>> live(final TActorBase actor) {
+        final WeakReference<TActorBase>[] array = subscribers;
+        final List<WeakReference<TActorBase>> result = new ArrayList<>(
+                array.length + 1);
+        for (final WeakReference<TActorBase> ref : array) {
+            final TActorBase subscriber = ref.get();
+            if (subscriber != null) {
+                if (subscriber == actor) {
+                    return null;
+                }
+                result.add(ref);
+            }
+        }
+        return result;
+    }
+
+    /** Finds the reference to the given actor, if any. */
+    private static WeakReference<TActorBase> find(
+            final List<WeakReference<TActorBase>> list, final TActorBase actor) {
+        for (final WeakReference<TActorBase> ref : list) {
+            if (ref.get() == actor) {
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    /** Replaces the subscribers array. */
+    @SuppressWarnings("unchecked")
+    private void update(final List<WeakReference<TActorBase>> list) {
+        subscribers = list.toArray(new WeakReference[list.size()]);
+    }
+
+    /** Removes the collected subscribers. */
+    private synchronized void purge() {
+        update(live(null));
+    }
+
+    /** Delivers a tick to all subscribers, from within the Mailbox. */
+    void dispatch(final Time time) {
+        boolean collected = false;
+        for (final WeakReference<TActorBase> ref : subscribers) {
+            final TActorBase actor = ref.get();
+            if (actor == null) {
+                collected = true;
+            } else {
+                try {
+                    actor.onAsyncTimeChange(time);
+                } catch (final Exception e) {
+                    LOG.error("Failed to deliver tick to " + actor, e);
+                }
+            }
+        }
+        if (collected) {
+            purge();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Volatile, ordered and atomic accesses to off-heap memory, like a
+ * memory-mapped file, at absolute addresses, visible to other processes
+ * mapping the same file.
+ *
+ * Java 7 has no public API for this, so sun.misc.Unsafe is used. It is
+ * looked up reflectively, and called through MethodHandles, so that no
+ * internal API is referenced at compile time. The address of a direct
+ * buffer is read from the field Buffer.address, since sun.nio.ch is not
+ * exported by java.base on Java 9+. No JVM flag is needed, up to at least
+ * Java 17. This is the only class to replace for a JVM without
+ * sun.misc.Unsafe, for example with VarHandles on Java 9+.
+ *
+ * @author monster
+ */
+final class MappedMemory {
+
+    /** Reads a field of type long: (Object, long) long. */
+    private static final MethodHandle GET_LONG;
+
+    /** Reads a long with a volatile load: (long) long. */
+    private static final MethodHandle GET_LONG_VOLATILE;
+
+    /** Writes a long with an ordered store: (long, long) void. */
+    private static final MethodHandle PUT_ORDERED_LONG;
+
+    /** Compares and swaps a long: (long, long, long) boolean. */
+    private static final MethodHandle COMPARE_AND_SWAP_LONG;
+
+    /** The offset of the field Buffer.address. */
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            final Class<?> type = Class.forName("sun.misc.Unsafe");
+            final Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            final Object unsafe = field.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            GET_LONG = lookup.findVirtual(type, "getLong",
+                    MethodType.methodType(long.class, Object.class, long.class))
+                    .bindTo(unsafe);
+            GET_LONG_VOLATILE = MethodHandles.insertArguments(
+                    lookup.findVirtual(type, "getLongVolatile", MethodType
+                            .methodType(long.class, Object.class, long.class))
+                            .bindTo(unsafe), 0, (Object) null);
+            PUT_ORDERED_LONG = MethodHandles.insertArguments(
+                    lookup.findVirtual(type, "putOrderedLong", MethodType
+                            .methodType(void.class, Object.class, long.class,
+                                    long.class)).bindTo(unsafe), 0,
+                    (Object) null);
+            COMPARE_AND_SWAP_LONG = MethodHandles.insertArguments(
+                    lookup.findVirtual(type, "compareAndSwapLong", MethodType
+                            .methodType(boolean.class, Object.class,
+                                    long.class, long.class, long.class))
+                            .bindTo(unsafe), 0, (Object) null);
+            ADDRESS_OFFSET = (Long) type.getMethod("objectFieldOffset",
+                    Field.class).invoke(unsafe,
+                    Buffer.class.getDeclaredField("address"));
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** No instances. */
+    private MappedMemory() {
+        // NOP
+    }
+
+    /** Rethrows a Throwable thrown by a MethodHandle. */
+    private static RuntimeException rethrow(final Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+
+    /** Returns the address of a direct buffer. */
+    static long address(final ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Not a direct buffer");
+        }
+        try {
+            return (long) GET_LONG.invokeExact((Object) buffer,
+                    ADDRESS_OFFSET);
+        } catch (final Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** Reads a long, with a volatile load. */
+    static long getLongVolatile(final long address) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact(address);
+        } catch (final Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** Writes a long, with an ordered store. */
+    static void putOrderedLong(final long address, final long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact(address, value);
+        } catch (final Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /** Atomically replaces expected by value; returns true on success. */
+    static boolean compareAndSwapLong(final long address,
+            final long expected, final long value) {
+        try {
+            return (boolean) COMPARE_AND_SWAP_LONG.invokeExact(address,
+                    expected, value);
+        } catch (final Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.blockwithme.tactors.TActor;
+
+/**
+ * An actor that can be passivated: when its Mailbox has been idle long
+ * enough, its state is written to the ActorStore of the factory, and it is
+ * evicted from the heap. TMailboxFactory.findActor() rehydrates it, using
+ * the ActorRehydrator registered for its class.
+ *
+ * An actor is never passivated while a TRequestBase is pending in its
+ * Mailbox, whether it targets the actor or not, nor if a message was
+ * processed by the Mailbox during the idle time.
+ *
+ * Once passivated, the old instance must not be used anymore; the actor
+ * should only be reached through findActor(). If it extends TActorBase,
+ * the requests whose TRequestBase.target() is the old instance are
+ * rejected. Other requests sent to the old instance afterwards cannot be
+ * told apart from those to the other actors of the Mailbox, so they are
+ * still processed, and their changes are lost.
+ *
+ * @author monster
+ */
+public interface Passivatable extends TActor {
+
+    /** Writes the state of the actor. Called from within its Mailbox. */
+    void writeState(DataOutput out) throws IOException;
+}
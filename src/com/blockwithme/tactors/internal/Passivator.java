@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.agilewiki.jactor.api.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.blockwithme.tactors.LifecycleState;
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+
+/**
+ * Passivator tracks the Passivatable actors of a factory, passivates those
+ * whose Mailbox has been idle for a while, and rehydrates them on demand.
+ *
+ * The actors are weakly tracked, like in the registry, and forgotten once
+ * they leave it. Idleness is checked again from within the Mailbox, just
+ * before passivation: no message may have been processed for the idle
+ * time, and no TRequestBase may be pending in the Mailbox. An actor
+ * extending TActorBase is then marked as passivated, so that the requests
+ * whose TRequestBase.target() is the old instance are rejected afterwards.
+ *
+ * Passivation and rehydration lock the actor ID, so that findActor()
+ * waits for a running passivation, rather than returning the old
+ * instance. Different IDs are rehydrated concurrently.
+ *
+ * @author monster
+ */
+final class Passivator implements ActorRegistry.Listener {
+
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(Passivator.class);
+
+    /** The actor being rehydrated by the current thread. */
+    private static final class Rehydrating {
+        /** The ID to give back to the actor. */
+        final long id;
+
+        /** The actor class name. */
+        final String type;
+
+        /** Creates a Rehydrating. */
+        Rehydrating(final long theID, final String theType) {
+            id = theID;
+            type = theType;
+        }
+    }
+
+    /** A lock on an actor ID. */
+    private static final class IDLock extends ReentrantLock {
+
+        /** serialVersionUID */
+        private static final long serialVersionUID = 1L;
+
+        /** The number of threads using the lock. Guarded by locks. */
+        int users;
+    }
+
+    /**
+     * Passivates an actor, from within its Mailbox. Does not count as
+     * Mailbox activity, so that all idle actors of a Mailbox can be
+     * passivated in one scan.
+     */
+    final class PassivateRequest extends TRequestBase<Void> {
+
+        /** The actor. */
+        private final Passivatable actor;
+
+        /** The required idle time, in nanoseconds. */
+        private final long idle;
+
+        /** Creates a PassivateRequest. */
+        public PassivateRequest(final Passivatable theActor, final long theIdle) {
+            super(theActor.getMailbox(), (Time) null);
+            actor = theActor;
+            idle = theIdle;
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> responseProcessor)
+                throws Exception {
+            passivate(actor, idle);
+            responseProcessor.processResponse(null);
+        }
+    }
+
+    /** The factory. */
+    private final TMailboxFactoryImpl<?> factory;
+
+    /** The store. */
+    private final ActorStore store;
+
+    /** The idle time after which actors are passivated, in nanoseconds. */
+    private final long idleNanos;
+
+    /** The live Passivatable actors, weakly referenced. */
+    private final Map<Long, WeakReference<Passivatable>> active = new ConcurrentHashMap<>();
+
+    /** The rehydrators, per actor class name. */
+    private final Map<String, ActorRehydrator> rehydrators = new ConcurrentHashMap<>();
+
+    /** The locks of the IDs being passivated or rehydrated. */
+    private final Map<Long, IDLock> locks = new HashMap<>();
+
+    /** The actor being rehydrated by the current thread, if any. */
+    private final ThreadLocal<Rehydrating> rehydrating = new ThreadLocal<>();
+
+    /** Scans the actors regularly. */
+    private final ScheduledExecutorService scanner;
+
+    /** Creates a Passivator. */
+    public Passivator(final TMailboxFactoryImpl<?> theFactory,
+            final ActorStore theStore, final long idleMillis) {
+        Preconditions.checkArgument(idleMillis > 0,
+                "idleMillis must be positive");
+        factory = theFactory;
+        store = Preconditions.checkNotNull(theStore, "theStore");
+        idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        scanner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread result = new Thread(r, "Passivator-"
+                        + factory.id());
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        final long period = Math.max(1, idleMillis / 2);
+        scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    passivateIdle(idleNanos);
+                } catch (final RuntimeException e) {
+                    LOG.error("Failed to passivate idle actors", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Registers the rehydrator of an actor class. */
+    public void register(final Class<? extends Passivatable> type,
+            final ActorRehydrator rehydrator) {
+        rehydrators.put(type.getName(),
+                Preconditions.checkNotNull(rehydrator, "rehydrator"));
+    }
+
+    /** Tracks a newly registered actor, if it is Passivatable. */
+    public void track(final TActor actor, final long id) {
+        if (actor instanceof Passivatable) {
+            active.put(id, new WeakReference<>((Passivatable) actor));
+        }
+    }
+
+    /** Stops tracking a stopped actor. */
+    public void untrack(final long id) {
+        active.remove(id);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry.Listener#removed(long)
+     */
+    @Override
+    public void removed(final long id) {
+        // Collected, stopped or passivated.
+        active.remove(id);
+    }
+
+    /**
+     * Returns the ID to give back to the actor, if it is being rehydrated
+     * by the current thread, or 0.
+     */
+    public long rehydratingID(final TActor actor) {
+        final Rehydrating current = rehydrating.get();
+        if ((current != null)
+                && current.type.equals(actor.getClass().getName())) {
+            rehydrating.remove();
+            return current.id;
+        }
+        return 0;
+    }
+
+    /**
+     * Passivates the actors whose Mailbox has been idle for at least
+     * idle nanoseconds. Returns the number of actors being passivated.
+     */
+    public int passivateIdle(final long idle) {
+        final long now = System.nanoTime();
+        int result = 0;
+        for (final Map.Entry<Long, WeakReference<Passivatable>> entry : active
+                .entrySet()) {
+            final WeakReference<Passivatable> ref = entry.getValue();
+            final Passivatable actor = ref.get();
+            if (actor == null) {
+                active.remove(entry.getKey(), ref);
+                continue;
+            }
+            final TMailbox mailbox = actor.getMailbox();
+            if ((mailbox instanceof TMailboxImpl)
+                    && (now - ((TMailboxImpl) mailbox).lastActive() >= idle)
+                    && active.remove(entry.getKey(), ref)) {
+                try {
+                    new PassivateRequest(actor, idle).signal();
+                    result++;
+                } catch (final Exception e) {
+                    active.put(entry.getKey(), ref);
+                    LOG.error("Failed to send PassivateRequest to " + actor, e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Locks an actor ID, and returns the lock. */
+    private IDLock lock(final long id) {
+        IDLock result;
+        synchronized (locks) {
+            result = locks.get(id);
+            if (result == null) {
+                result = new IDLock();
+                locks.put(id, result);
+            }
+            result.users++;
+        }
+        result.lock();
+        return result;
+    }
+
+    /** Unlocks an actor ID. */
+    private void unlock(final long id, final IDLock lock) {
+        lock.unlock();
+        synchronized (locks) {
+            if (--lock.users == 0) {
+                locks.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Passivates an actor, from within its Mailbox, if the Mailbox is
+     * still idle, and no request is pending in it. Otherwise, the actor is
+     * tracked again.
+     */
+    private void passivate(final Passivatable actor, final long idle) {
+        final long id = actor.id();
+        final TMailboxImpl mailbox = (TMailboxImpl) actor.getMailbox();
+        if (!idle(mailbox, idle)) {
+            track(actor, id);
+            return;
+        }
+        final IDLock lock = lock(id);
+        try {
+            final TActorBase base = (actor instanceof TActorBase) ? (TActorBase) actor
+                    : null;
+            final LifecycleState previous = (base == null) ? null : base
+                    .passivate();
+            if ((base != null) && (previous == null)) {
+                if (base.state() != LifecycleState.STOPPED) {
+                    track(actor, id);
+                }
+                return;
+            }
+            // Requests sent before the actor was marked as passivated.
+            if (!idle(mailbox, idle)) {
+                if (base != null) {
+                    base.passivationFailed(previous);
+                }
+                track(actor, id);
+                return;
+            }
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (final DataOutputStream out = new DataOutputStream(bytes)) {
+                    actor.writeState(out);
+                }
+                store.store(new ActorStore.Entry(id, actor.name(), actor
+                        .getClass().getName(), bytes.toByteArray()));
+                factory.unregisterActor(id);
+            } catch (final Exception e) {
+                if (base != null) {
+                    base.passivationFailed(previous);
+                }
+                track(actor, id);
+                LOG.error("Failed to passivate " + actor, e);
+            }
+        } finally {
+            unlock(id, lock);
+        }
+    }
+
+    /**
+     * Returns true if the Mailbox processed no message for idle
+     * nanoseconds, and no TRequestBase is pending in it.
+     */
+    private static boolean idle(final TMailboxImpl mailbox, final long idle) {
+        return (System.nanoTime() - mailbox.lastActive() >= idle)
+                && (mailbox.pendingRequests() == 0);
+    }
+
+    /**
+     * Rehydrates the actor with the given ID, if it was passivated. Waits
+     * for the passivation of the actor, if it is running.
+     */
+    public TActor rehydrate(final long id) {
+        final IDLock lock = lock(id);
+        try {
+            return rehydrateLocked(id);
+        } finally {
+            unlock(id, lock);
+        }
+    }
+
+    /** Rehydrates the actor with the given ID. Must hold its lock. */
+    private TActor rehydrateLocked(final long id) {
+        // Someone else might have rehydrated it already.
+        final TActor live = factory.findLiveActor(id);
+        if (live != null) {
+            return live;
+        }
+        final ActorStore.Entry entry;
+        try {
+            entry = store.take(id);
+        } catch (final Exception e) {
+            throw new IllegalStateException("Failed to read actor " + id, e);
+        }
+        if (entry == null) {
+            return null;
+        }
+        final ActorRehydrator rehydrator = rehydrators.get(entry.type);
+        try {
+            if (rehydrator == null) {
+                throw new IllegalStateException("No ActorRehydrator for "
+                        + entry.type);
+            }
+            rehydrating.set(new Rehydrating(id, entry.type));
+            final Passivatable result = rehydrator.rehydrate(factory,
+                    entry.name, new DataInputStream(new ByteArrayInputStream(
+                            entry.state)));
+            if (result.id() != id) {
+                throw new IllegalStateException("Rehydrated actor " + result
+                        + " did not get ID " + id);
+            }
+            return result;
+        } catch (final Exception e) {
+            try {
+                // Keep the state, for a later attempt.
+                store.store(entry);
+            } catch (final Exception e2) {
+                LOG.error("Lost the state of actor " + id, e2);
+            }
+            throw new IllegalStateException("Failed to rehydrate actor " + id,
+                    e);
+        } finally {
+            rehydrating.remove();
+        }
+    }
+
+    /** Rehydrates the actor with the given name, if it was passivated. */
+    public TActor rehydrate(final String name) {
+        final long id = store.find(name);
+        return (id == 0) ? null : rehydrate(id);
+    }
+
+    /** Stops the background scanning. */
+    public void close() {
+        scanner.shutdownNow();
+    }
+}
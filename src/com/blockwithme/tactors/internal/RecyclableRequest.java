@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import org.agilewiki.jactor.api.Mailbox;
+import org.agilewiki.jactor.api.ResponseProcessor;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.time.Time;
+
+/**
+ * A TRequest that can be reused, once it was processed.
+ *
+ * Recyclable requests normally come from a RequestPool, which sets their
+ * creation time. The sender initializes their other fields, and sends
+ * them. Signaled requests are recycled automatically, once processed by
+ * the target Mailbox. Requests sent with send() or call() must be recycled
+ * by the sender, once the response arrived. recycle() calls reset(), which
+ * must clear every field, so that the request holds no reference while it
+ * is in the pool.
+ *
+ * Using a recycled request fails with an IllegalStateException. With the
+ * system property "com.blockwithme.tactors.poolDebug" set to true,
+ * recycled requests are never reused, and the exception tells where the
+ * request was recycled, so that every use-after-recycle is detected.
+ *
+ * @author monster
+ */
+public abstract class RecyclableRequest<RESPONSE_TYPE> extends
+        TRequestBase<RESPONSE_TYPE> {
+
+    /** Is the pool debug mode enabled? */
+    static final boolean DEBUG = Boolean
+            .getBoolean("com.blockwithme.tactors.poolDebug");
+
+    /** The pool, or null if not pooled. */
+    private final RequestPool<?> pool;
+
+    /** The creation time. */
+    private Time time;
+
+    /** Is the request in use (not recycled)? */
+    private volatile boolean active;
+
+    /** Was the request signaled? */
+    private boolean signaled;
+
+    /** Where the request was recycled, in debug mode. */
+    private Throwable recycledAt;
+
+    /**
+     * Creates a RecyclableRequest, for the Mailbox of the pool. It is
+     * activated by RequestPool.acquire().
+     */
+    protected RecyclableRequest(final RequestPool<?> thePool) {
+        super(thePool.mailbox(), (Time) null);
+        pool = thePool;
+    }
+
+    /**
+     * Creates a RecyclableRequest that is not pooled, and is active. It can
+     * be recycled, but is then not reused.
+     */
+    protected RecyclableRequest(final TMailbox _targetMailbox,
+            final Time theCreationTime) {
+        super(_targetMailbox, (Time) null);
+        pool = null;
+        activate(theCreationTime);
+    }
+
+    /** Makes the request usable again, with a new creation time. */
+    final void activate(final Time theCreationTime) {
+        time = theCreationTime;
+        recycledAt = null;
+        active = true;
+    }
+
+    /** Returns the pool, or null if not pooled. */
+    public final RequestPool<?> pool() {
+        return pool;
+    }
+
+    /** Returns true, if the request is in use. */
+    public final boolean active() {
+        return active;
+    }
+
+    /** Fails if the request was recycled. */
+    final void checkActive() {
+        if (!active) {
+            throw new IllegalStateException(this + " used after recycle",
+                    recycledAt);
+        }
+    }
+
+    @Override
+    public Time creationTime() {
+        return time;
+    }
+
+    /**
+     * Clears all the fields of the request, so that it can go back to the
+     * pool.
+     */
+    protected abstract void reset();
+
+    /**
+     * Recycles the request, and puts it back in its pool. The request must
+     * not be used anymore by the caller.
+     */
+    public final void recycle() {
+        checkActive();
+        active = false;
+        signaled = false;
+        time = null;
+        reset();
+        if (DEBUG) {
+            recycledAt = new Throwable("Recycled here");
+        } else if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    /** Recycles the request, if it was signaled. Called once processed. */
+    final void processed() {
+        if (signaled && active) {
+            recycle();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.TRequestBase#signal()
+     */
+    @Override
+    public void signal() throws Exception {
+        checkActive();
+        signaled = true;
+        super.signal();
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.TRequestBase#send(org.agilewiki.jactor.api.Mailbox, org.agilewiki.jactor.api.ResponseProcessor)
+     */
+    @Override
+    public void send(final Mailbox _source,
+            final ResponseProcessor<RESPONSE_TYPE> _rp) throws Exception {
+        checkActive();
+        super.send(_source, _rp);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.TRequestBase#call()
+     */
+    @Override
+    public RESPONSE_TYPE call() throws Exception {
+        checkActive();
+        return super.call();
+    }
+}
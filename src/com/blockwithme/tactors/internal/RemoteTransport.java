@@ -0,0 +1,611 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * RemoteTransport delivers JournaledRequests to the actors of other
+ * TMailboxFactories, normally in other JVMs, over TCP socket channels,
+ * and routes the responses back.
+ *
+ * A transport listens on an address; other transports connect to it, and
+ * learn its factory ID in the handshake. Connections are bidirectional.
+ * A request is addressed by the ID of the target factory, and the
+ * targetID() of the request. The receiving transport recreates it with
+ * the RequestDecoder registered for the class of the sent request, like a
+ * JournalReplayer does, and sends it to the target actor from its own
+ * gateway Mailbox. Responses and exceptions are transferred with Java
+ * serialization, so they must be Serializable. Only the classes allowed by
+ * WhitelistObjectInputStream, and those passed to allowResponseClass(),
+ * are deserialized; other responses fail with an InvalidClassException.
+ *
+ * The peers are not authenticated: anyone able to connect can send
+ * requests to the actors that have a registered RequestDecoder. Listen on
+ * the loopback interface, or on a trusted network only.
+ *
+ * Each frame is written as its length (int), followed by its kind (byte).
+ * HELLO frames carry the factory ID (long). REQUEST frames carry the
+ * correlation ID (long), target actor ID (long), request class name (UTF),
+ * a flag (boolean) telling if the creation time follows, the creation time
+ * as encoded by the TimeCodec (long), and the payload. Creation times are
+ * only sent if a TimeCodec was given. RESPONSE frames carry the
+ * correlation ID (long), a failure flag (boolean), and the serialized
+ * response or exception.
+ *
+ * A connection on which a frame could not be written completely is
+ * closed, since the frames that would follow could not be parsed.
+ *
+ * Thread-safe.
+ *
+ * @author monster
+ */
+public class RemoteTransport implements Closeable {
+
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(RemoteTransport.class);
+
+    /** The HELLO frame kind. */
+    private static final byte HELLO = 0;
+
+    /** The REQUEST frame kind. */
+    private static final byte REQUEST = 1;
+
+    /** The RESPONSE frame kind. */
+    private static final byte RESPONSE = 2;
+
+    /** The maximum length of a frame. */
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    /** A connection to another transport. */
+    private final class Connection implements Runnable,
+            DeliverRequest.Responder {
+
+        /** The channel. */
+        private final SocketChannel channel;
+
+        /** The requests waiting for a response, per correlation ID. */
+        private final Map<Long, SettableFuture<Object>> pending = new ConcurrentHashMap<>();
+
+        /** The frame buffer. Guarded by this. */
+        private final Bytes bytes = new Bytes();
+
+        /** Writes to the frame buffer. Guarded by this. */
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        /** Reads the frames. Used by the reader only. */
+        private final ByteBufferInput input = new ByteBufferInput();
+
+        /** The stream over input. Used by the reader only. */
+        private final DataInputStream frameInput = new DataInputStream(input);
+
+        /** The current frame; grows as needed. Used by the reader only. */
+        private ByteBuffer frame = ByteBuffer.allocate(256);
+
+        /** Reads the frame lengths. Used by the reader only. */
+        private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+        /** The ID of the remote factory, or 0 before the handshake. */
+        private volatile long remoteID;
+
+        /** Creates a Connection. */
+        public Connection(final SocketChannel theChannel) {
+            channel = theChannel;
+        }
+
+        /** Starts writing a frame. Must hold the lock. */
+        private void begin(final byte kind) throws IOException {
+            bytes.reset();
+            out.writeInt(0);
+            out.writeByte(kind);
+        }
+
+        /**
+         * Writes the current frame to the channel. Must hold the lock. If
+         * writing fails, a part of the frame might have been written, so
+         * the connection is closed.
+         */
+        private void end() throws IOException {
+            out.flush();
+            final ByteBuffer frame = ByteBuffer.wrap(bytes.array(), 0,
+                    bytes.size());
+            frame.putInt(0, bytes.size() - 4);
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } catch (final IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /** Reads bytes until the buffer is full. */
+        private void readFully(final ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        /**
+         * Reads the next frame, and returns a stream over it. The stream
+         * and the buffer behind it are reused, so they are only valid until
+         * the next call.
+         */
+        private DataInputStream readFrame() throws IOException {
+            lengthBuffer.clear();
+            readFully(lengthBuffer);
+            final int length = lengthBuffer.getInt(0);
+            if ((length <= 0) || (length > MAX_FRAME)) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            if (frame.capacity() < length) {
+                frame = ByteBuffer.allocate(Math.min(MAX_FRAME,
+                        Math.max(length, 2 * frame.capacity())));
+            }
+            frame.clear();
+            frame.limit(length);
+            readFully(frame);
+            frame.flip();
+            input.buffer = frame;
+            return frameInput;
+        }
+
+        /** Sends the local factory ID. */
+        public synchronized void hello() throws IOException {
+            begin(HELLO);
+            out.writeLong(factory.id());
+            end();
+        }
+
+        /** Reads the remote factory ID, and registers the route to it. */
+        public void readHello() throws IOException {
+            final DataInputStream in = readFrame();
+            if (in.readByte() != HELLO) {
+                throw new IOException("Expected HELLO from "
+                        + channel.getRemoteAddress());
+            }
+            final long id = in.readLong();
+            if (id == factory.id()) {
+                throw new IOException("The remote factory has the same ID "
+                        + id + "; give each factory a unique"
+                        + " TActorsConfig.factoryID()");
+            }
+            if (id == 0) {
+                throw new IOException("Invalid remote factory ID: " + id);
+            }
+            if (routes.putIfAbsent(id, this) != null) {
+                throw new IOException("Already connected to factory " + id);
+            }
+            remoteID = id;
+        }
+
+        /** Sends a request. */
+        public void request(final long correlation,
+                final JournaledRequest request, final Time creationTime,
+                final SettableFuture<Object> future) {
+            pending.put(correlation, future);
+            try {
+                synchronized (this) {
+                    begin(REQUEST);
+                    out.writeLong(correlation);
+                    out.writeLong(request.targetID());
+                    out.writeUTF(request.getClass().getName());
+                    final boolean hasTime = (timeCodec != null)
+                            && (creationTime != null);
+                    out.writeBoolean(hasTime);
+                    if (hasTime) {
+                        out.writeLong(timeCodec.encode(creationTime));
+                    }
+                    request.writePayload(out);
+                    end();
+                }
+            } catch (final IOException | RuntimeException e) {
+                pending.remove(correlation);
+                future.setException(e);
+            }
+        }
+
+        /** Sends a response, or an exception. */
+        @Override
+        public void respond(final long correlation, final boolean failed,
+                final Object value) {
+            boolean failure = failed;
+            byte[] data;
+            try {
+                data = serialize(value);
+            } catch (final IOException e) {
+                failure = true;
+                data = serializeFailure(value, e);
+            }
+            try {
+                synchronized (this) {
+                    begin(RESPONSE);
+                    out.writeLong(correlation);
+                    out.writeBoolean(failure);
+                    out.write(data);
+                    end();
+                }
+            } catch (final IOException e) {
+                LOG.warn("Failed to send response to factory " + remoteID, e);
+            }
+        }
+
+        /** Processes a REQUEST frame. */
+        private void received(final DataInputStream in) throws IOException {
+            final long correlation = in.readLong();
+            final long targetID = in.readLong();
+            final String type = in.readUTF();
+            Time time = null;
+            if (in.readBoolean()) {
+                final long encoded = in.readLong();
+                time = (timeCodec == null) ? null : timeCodec.decode(encoded);
+            }
+            final RequestDecoder decoder = decoders.get(type);
+            if (decoder == null) {
+                respond(correlation, true, new IllegalStateException(
+                        "No RequestDecoder for " + type));
+                return;
+            }
+            final TActor target = factory.findActor(targetID);
+            if (target == null) {
+                respond(correlation, true, new IllegalStateException("Actor "
+                        + targetID + " not found in factory " + factory.id()));
+                return;
+            }
+            try {
+                DeliverRequest.deliver(gateway, this, correlation,
+                        decoder.decode(target, time, in));
+            } catch (final Exception e) {
+                respond(correlation, true, e);
+            }
+        }
+
+        /** Processes a RESPONSE frame. */
+        private void responded(final DataInputStream in) throws IOException {
+            final long correlation = in.readLong();
+            final boolean failed = in.readBoolean();
+            final SettableFuture<Object> future = pending.remove(correlation);
+            if (future == null) {
+                LOG.warn("Unexpected response " + correlation
+                        + " from factory " + remoteID);
+                return;
+            }
+            try {
+                complete(future, failed, deserialize(in, allowed));
+            } catch (final ClassNotFoundException | IOException e) {
+                future.setException(e);
+            }
+        }
+
+        /** Reads and processes the frames, until the connection closes. */
+        @Override
+        public void run() {
+            try {
+                if (remoteID == 0) {
+                    readHello();
+                    hello();
+                }
+                while (true) {
+                    final DataInputStream in = readFrame();
+                    final byte kind = in.readByte();
+                    if (kind == REQUEST) {
+                        received(in);
+                    } else if (kind == RESPONSE) {
+                        responded(in);
+                    } else {
+                        throw new IOException("Unexpected frame kind: "
+                                + kind);
+                    }
+                }
+            } catch (final EOFException | ClosedChannelException e) {
+                // Closed
+            } catch (final IOException e) {
+                if (!closed) {
+                    LOG.warn("Connection to factory " + remoteID + " failed",
+                            e);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /** Closes the connection, and fails the pending requests. */
+        public void close() {
+            if (remoteID != 0) {
+                routes.remove(remoteID, this);
+            }
+            connections.remove(this);
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                // NOP
+            }
+            final IOException cause = new IOException("Connection to factory "
+                    + remoteID + " closed");
+            for (final Long correlation : pending.keySet()) {
+                final SettableFuture<Object> future = pending
+                        .remove(correlation);
+                if (future != null) {
+                    future.setException(cause);
+                }
+            }
+        }
+    }
+
+    /** The local factory. */
+    private final TMailboxFactory factory;
+
+    /** The Mailbox sending the received requests to their target. */
+    private final TMailbox gateway;
+
+    /** The decoders, per request class name. */
+    private final Map<String, RequestDecoder> decoders = new ConcurrentHashMap<>();
+
+    /** The additional classes allowed in the responses. */
+    private final Set<String> allowed = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Converts the creation times, or null to not send them. */
+    private final TimeCodec timeCodec;
+
+    /** The connections, per remote factory ID. */
+    private final ConcurrentHashMap<Long, Connection> routes = new ConcurrentHashMap<>();
+
+    /** All open connections, including those still in the handshake. */
+    private final Map<Connection, Boolean> connections = new ConcurrentHashMap<>();
+
+    /** The correlation ID counter. */
+    private final AtomicLong nextCorrelation = new AtomicLong();
+
+    /** Runs the accepting and reading loops. */
+    private final ExecutorService threads;
+
+    /** The server channel, if listening. */
+    private volatile ServerSocketChannel server;
+
+    /** Was the transport closed? */
+    private volatile boolean closed;
+
+    /**
+     * Creates a RemoteTransport for the given factory, which does not send
+     * the creation times.
+     */
+    public RemoteTransport(final TMailboxFactory theFactory) {
+        this(theFactory, null);
+    }
+
+    /**
+     * Creates a RemoteTransport for the given factory. If timeCodec is not
+     * null, it converts the creation times; it must match the TimeCodec of
+     * the other transports.
+     */
+    public RemoteTransport(final TMailboxFactory theFactory,
+            final TimeCodec theTimeCodec) {
+        factory = Preconditions.checkNotNull(theFactory, "theFactory");
+        timeCodec = theTimeCodec;
+        gateway = factory.createMailbox();
+        threads = Executors.newCachedThreadPool(ExecutionStrategy
+                .threadFactory("RemoteTransport-" + factory.id()));
+    }
+
+    /** Serializes a response, or an exception. */
+    static byte[] serialize(final Object value) throws IOException {
+        final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(tmp)) {
+            oos.writeObject(value);
+        }
+        return tmp.toByteArray();
+    }
+
+    /** Serializes the exception replacing a response that failed to serialize. */
+    static byte[] serializeFailure(final Object value, final IOException cause) {
+        try {
+            return serialize(new IllegalStateException(
+                    "Cannot serialize response " + value, cause));
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Deserializes a response, or an exception, of a whitelisted class. */
+    static Object deserialize(final InputStream in, final Set<String> allowed)
+            throws IOException, ClassNotFoundException {
+        try (final WhitelistObjectInputStream ois = new WhitelistObjectInputStream(
+                in, allowed)) {
+            return ois.readObject();
+        }
+    }
+
+    /** Completes the future of a request, with a deserialized response. */
+    static void complete(final SettableFuture<Object> future,
+            final boolean failed, final Object value) {
+        if (!failed) {
+            future.set(value);
+        } else if (value instanceof Throwable) {
+            future.setException((Throwable) value);
+        } else {
+            future.setException(new IllegalStateException(
+                    "Invalid failure: " + value));
+        }
+    }
+
+    /** Checks that the transport is not closed. */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("RemoteTransport closed");
+        }
+    }
+
+    /**
+     * Allows a class, in the responses and exceptions received from the
+     * other transports. See WhitelistObjectInputStream.
+     */
+    public void allowResponseClass(final Class<?> type) {
+        allowed.add(type.getName());
+    }
+
+    /** Registers the decoder of a request class. */
+    public void register(final Class<? extends JournaledRequest> type,
+            final RequestDecoder decoder) {
+        decoders.put(type.getName(),
+                Preconditions.checkNotNull(decoder, "decoder"));
+    }
+
+    /**
+     * Accepts connections on the given address, and returns the bound
+     * address. Use port 0 to bind to any free port.
+     */
+    public synchronized InetSocketAddress listen(
+            final InetSocketAddress address) throws IOException {
+        checkOpen();
+        if (server != null) {
+            throw new IllegalStateException("Already listening");
+        }
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(address);
+        server = channel;
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        start(new Connection(channel.accept()));
+                    }
+                } catch (final IOException e) {
+                    if (!closed) {
+                        LOG.error("Stopped accepting connections on "
+                                + address, e);
+                    }
+                }
+            }
+        });
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /** Starts reading from a connection. */
+    private void start(final Connection connection) {
+        connections.put(connection, Boolean.TRUE);
+        if (closed) {
+            connection.close();
+        } else {
+            threads.execute(connection);
+        }
+    }
+
+    /**
+     * Connects to the transport listening on the given address, and returns
+     * the ID of its factory.
+     */
+    public long connect(final InetSocketAddress address) throws IOException {
+        checkOpen();
+        final Connection connection = new Connection(
+                SocketChannel.open(address));
+        try {
+            connection.hello();
+            connection.readHello();
+        } catch (final IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        start(connection);
+        return connection.remoteID;
+    }
+
+    /** Returns true, if there is a connection to the given factory. */
+    public boolean connected(final long factoryID) {
+        return routes.containsKey(factoryID);
+    }
+
+    /**
+     * Sends a request to the actor targetID() of the factory factoryID, and
+     * returns its future response. If the request is a TRequest, its
+     * creation time is sent too.
+     */
+    public ListenableFuture<Object> send(final long factoryID,
+            final JournaledRequest request) {
+        Preconditions.checkNotNull(request, "request");
+        checkOpen();
+        final Connection connection = routes.get(factoryID);
+        if (connection == null) {
+            throw new IllegalStateException("No connection to factory "
+                    + factoryID);
+        }
+        final Time creationTime = (request instanceof TRequest) ? ((TRequest<?>) request)
+                .creationTime() : null;
+        final SettableFuture<Object> result = SettableFuture.create();
+        connection.request(nextCorrelation.incrementAndGet(), request,
+                creationTime, result);
+        return result;
+    }
+
+    /** Closes the server channel, and all connections. */
+    @Override
+    public void close() {
+        closed = true;
+        final ServerSocketChannel channel = server;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                // NOP
+            }
+        }
+        for (final Connection connection : connections.keySet()) {
+            connection.close();
+        }
+        threads.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteTransport(" + factory.id() + ")";
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.nio.ByteBuffer;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+
+/**
+ * Encodes and decodes the payload of one request type, directly in
+ * ByteBuffers. Registered in RequestCodecs.
+ *
+ * @author monster
+ */
+public interface RequestCodec<R> {
+
+    /**
+     * Writes the payload of the request. Must only use relative put
+     * operations; a BufferOverflowException makes RequestCodecs retry
+     * with a larger buffer, up to RequestCodecs.MAX_MESSAGE_SIZE.
+     */
+    void encode(R request, ByteBuffer buffer);
+
+    /**
+     * Recreates a request for the given target actor, from the payload
+     * written by encode(). The creation time is null if it was not encoded.
+     *
+     * The buffer is only valid during the call: transports reuse it, or
+     * it maps memory that is overwritten once the message is consumed. The
+     * returned request must therefore copy whatever it needs, and must not
+     * keep the buffer, nor a slice or duplicate of it.
+     */
+    TRequest<?> decode(TActor target, Time creationTime, ByteBuffer buffer);
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+
+/**
+ * RequestCodecs encodes TRequests in ByteBuffers, with the RequestCodec
+ * registered for their class, and decodes them back. It is meant as the
+ * common binary format of transports, journals and snapshots.
+ *
+ * Each message is written as a header (varint), holding the type ID of the
+ * request class shifted left by one, and a flag in the lowest bit telling
+ * if the creation time follows. Then come the target actor ID (varint),
+ * the creation time (signed varint) if present, and the payload. Creation
+ * times are only written if a TimeCodec was given. Messages are not
+ * framed; callers that need to skip messages must frame them.
+ *
+ * Registration is synchronized; encoding and decoding are thread-safe and
+ * do not allocate, unless the buffer needs to grow.
+ *
+ * @author monster
+ */
+public class RequestCodecs {
+
+    /** A registered codec. */
+    private static final class Entry {
+
+        /** The type ID. */
+        private final int typeID;
+
+        /** The codec. */
+        private final RequestCodec<Object> codec;
+
+        /** Creates an Entry. */
+        @SuppressWarnings("unchecked")
+        public Entry(final int theTypeID, final RequestCodec<?> theCodec) {
+            typeID = theTypeID;
+            codec = (RequestCodec<Object>) theCodec;
+        }
+    }
+
+    /**
+     * The maximum size of an encoded message. A codec that still overflows
+     * a buffer of that size is assumed to be broken.
+     */
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    /** The codecs, per request class. */
+    private final ConcurrentHashMap<Class<?>, Entry> byClass = new ConcurrentHashMap<>();
+
+    /** The codecs, per type ID. Replaced on registration. */
+    private volatile Entry[] byID = new Entry[16];
+
+    /** Converts the creation times, or null to not write them. */
+    private final TimeCodec timeCodec;
+
+    /** Creates RequestCodecs, which do not write the creation times. */
+    public RequestCodecs() {
+        this(null);
+    }
+
+    /** Creates RequestCodecs, which write the creation times, if not null. */
+    public RequestCodecs(final TimeCodec theTimeCodec) {
+        timeCodec = theTimeCodec;
+    }
+
+    /**
+     * Registers the codec of a request class, under a type ID, which must
+     * be positive, and the same wherever the messages are decoded. Small
+     * IDs are encoded in fewer bytes. The class does not have to be a
+     * TRequest: senders that do not have the target actor can encode
+     * request stubs, which are decoded as real requests.
+     */
+    public synchronized <R> void register(
+            final Class<R> type, final int typeID,
+            final RequestCodec<? super R> codec) {
+        Preconditions.checkNotNull(type, "type");
+        Preconditions.checkNotNull(codec, "codec");
+        Preconditions.checkArgument((typeID > 0) && (typeID <= 0x3FFFFFFF),
+                "typeID must be in [1,0x3FFFFFFF]");
+        Entry[] ids = byID;
+        if ((typeID < ids.length) && (ids[typeID] != null)) {
+            throw new IllegalArgumentException("typeID " + typeID
+                    + " already registered");
+        }
+        if (byClass.containsKey(type)) {
+            throw new IllegalArgumentException(type + " already registered");
+        }
+        if (typeID >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(typeID + 1, ids.length * 2));
+        } else {
+            ids = ids.clone();
+        }
+        final Entry entry = new Entry(typeID, codec);
+        ids[typeID] = entry;
+        byID = ids;
+        byClass.put(type, entry);
+    }
+
+    /** Returns the type ID of a request class, or 0 if not registered. */
+    public int typeID(final Class<?> type) {
+        final Entry entry = byClass.get(type);
+        return (entry == null) ? 0 : entry.typeID;
+    }
+
+    /**
+     * Encodes a request for the target actor, at the position of the
+     * buffer. If the buffer is too small, the bytes before the message are
+     * copied into a buffer twice as large, and encoding is retried, until
+     * the message would exceed MAX_MESSAGE_SIZE; the BufferOverflowException
+     * is then rethrown. Returns
+     * the buffer holding the message, positioned after it, so that it can
+     * be reused for the next message.
+     */
+    public ByteBuffer encode(final TRequest<?> request, final long targetID,
+            final ByteBuffer buffer) {
+        return encode(request, request.creationTime(), targetID, buffer);
+    }
+
+    /**
+     * Encodes a request, or request stub, with the given creation time,
+     * for the target actor. See encode(TRequest, long, ByteBuffer).
+     */
+    public ByteBuffer encode(final Object request, final Time creationTime,
+            final long targetID, final ByteBuffer buffer) {
+        final Entry entry = byClass.get(request.getClass());
+        if (entry == null) {
+            throw new IllegalArgumentException("No RequestCodec for "
+                    + request.getClass());
+        }
+        final Time time = (timeCodec == null) ? null : creationTime;
+        final int header = (entry.typeID << 1) | ((time == null) ? 0 : 1);
+        final long encodedTime = (time == null) ? 0 : timeCodec.encode(time);
+        // The header size is known, so only the payload can overflow.
+        final int headerSize = Varints.varLongSize(header & 0xFFFFFFFFL)
+                + Varints.varLongSize(targetID)
+                + ((time == null) ? 0 : Varints.signedVarLongSize(encodedTime));
+        final int start = buffer.position();
+        final int maxCapacity = (int) Math.min(Integer.MAX_VALUE, (long) start
+                + MAX_MESSAGE_SIZE);
+        ByteBuffer result = buffer;
+        if (result.remaining() < headerSize) {
+            result = grow(result, start, start + headerSize, maxCapacity);
+        }
+        while (true) {
+            try {
+                Varints.writeVarInt(result, header);
+                Varints.writeVarLong(result, targetID);
+                if (time != null) {
+                    Varints.writeSignedVarLong(result, encodedTime);
+                }
+                entry.codec.encode(request, result);
+                return result;
+            } catch (final BufferOverflowException e) {
+                if (result.capacity() >= maxCapacity) {
+                    result.position(start);
+                    throw e;
+                }
+                result = grow(result, start, 0, maxCapacity);
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer twice as large as buffer, and at least minCapacity,
+     * but at most maxCapacity, holding the bytes of buffer before start,
+     * positioned at start.
+     */
+    private static ByteBuffer grow(final ByteBuffer buffer, final int start,
+            final int minCapacity, final int maxCapacity) {
+        final int capacity = Math.min(maxCapacity, Math.max(minCapacity,
+                Math.max(64, (int) Math.min(Integer.MAX_VALUE,
+                        2L * buffer.capacity()))));
+        final ByteBuffer result = buffer.isDirect() ? ByteBuffer
+                .allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.limit(start);
+        buffer.position(0);
+        result.put(buffer);
+        return result;
+    }
+
+    /**
+     * Decodes the next message of the buffer, for the actors of the given
+     * factory. Returns null if the target actor does not exist; the payload
+     * is then not consumed.
+     */
+    public TRequest<?> decode(final ByteBuffer buffer,
+            final TMailboxFactory factory) {
+        final int header = Varints.readVarInt(buffer);
+        final int typeID = header >>> 1;
+        final Entry[] ids = byID;
+        final Entry entry = (typeID < ids.length) ? ids[typeID] : null;
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown type ID " + typeID);
+        }
+        final long targetID = Varints.readVarLong(buffer);
+        Time time = null;
+        if ((header & 1) != 0) {
+            if (timeCodec == null) {
+                throw new IllegalStateException(
+                        "Creation time found, but no TimeCodec");
+            }
+            time = timeCodec.decode(Varints.readSignedVarLong(buffer));
+        }
+        final TActor target = factory.findActor(targetID);
+        return (target == null) ? null : entry.codec.decode(target, time,
+                buffer);
+    }
+}
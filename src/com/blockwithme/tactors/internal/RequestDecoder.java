@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+
+/**
+ * Recreates a JournaledRequest, while replaying a RequestJournal.
+ *
+ * @author monster
+ */
+public interface RequestDecoder {
+
+    /**
+     * Recreates a request for the given target actor, from the payload
+     * written by JournaledRequest.writePayload(). The creation time is null
+     * if it was not recorded.
+     */
+    TRequest<?> decode(TActor target, Time creationTime, DataInput payload)
+            throws IOException;
+}
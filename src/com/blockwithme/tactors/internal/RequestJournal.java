@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+
+/**
+ * RequestJournal records the JournaledRequests delivered to the Mailboxes
+ * that use it, in memory-mapped segment files of a directory.
+ *
+ * Each record is written as its length (int), followed by the target
+ * actor ID (long), the request class name (UTF), a boolean telling if the
+ * creation time follows, the creation time as encoded by the TimeCodec
+ * (long), and the payload. Creation times are only written if a TimeCodec
+ * was given. A length of 0 marks the end of a segment. A segment is full
+ * when the next record does not fit; writing then continues in a new
+ * segment.
+ *
+ * Thread-safe. Records are encoded in a buffer of the calling thread, and
+ * each writer reserves its space in the segment with an atomic increment,
+ * so Mailboxes sharing a journal only synchronize to switch segments.
+ * The records of one Mailbox stay in order, but the records of different
+ * Mailboxes can interleave. If the process dies while a record is being
+ * copied, the rest of that segment is lost.
+ *
+ * @author monster
+ */
+public class RequestJournal implements Closeable {
+
+    /** The segment file name prefix. */
+    static final String PREFIX = "segment-";
+
+    /** The segment file name suffix. */
+    static final String SUFFIX = ".journal";
+
+    /** The record buffer of a thread. */
+    private static final class Encoder {
+
+        /** The record buffer. */
+        public final Bytes bytes = new Bytes();
+
+        /** Writes to the record buffer. */
+        public final DataOutputStream out = new DataOutputStream(bytes);
+    }
+
+    /** A mapped segment. */
+    private static final class Segment {
+
+        /** The index of the segment. */
+        public final int index;
+
+        /** The mapped file. */
+        public final MappedByteBuffer buffer;
+
+        /** The next free position; can grow beyond the segment size. */
+        public final AtomicInteger position = new AtomicInteger();
+
+        /** Creates a Segment. */
+        public Segment(final int theIndex, final MappedByteBuffer theBuffer) {
+            index = theIndex;
+            buffer = theBuffer;
+        }
+    }
+
+    /** The record buffers, per thread. */
+    private static final ThreadLocal<Encoder> ENCODER = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    /** The directory. */
+    private final File directory;
+
+    /** The size of each segment. */
+    private final int segmentSize;
+
+    /** Encodes the creation times, or null to not record them. */
+    private final TimeCodec timeCodec;
+
+    /** The current segment, or null once closed. */
+    private volatile Segment segment;
+
+    /** The number of written records. */
+    private final AtomicLong records = new AtomicLong();
+
+    /**
+     * Creates a RequestJournal, which does not record creation times.
+     * Segments already present in the directory are kept; new records go
+     * to new segments.
+     */
+    public RequestJournal(final File theDirectory, final int theSegmentSize)
+            throws IOException {
+        this(theDirectory, theSegmentSize, null);
+    }
+
+    /**
+     * Creates a RequestJournal. Segments already present in the directory
+     * are kept; new records go to new segments. If timeCodec is not null,
+     * it encodes the creation times.
+     */
+    public RequestJournal(final File theDirectory, final int theSegmentSize,
+            final TimeCodec theTimeCodec) throws IOException {
+        Preconditions.checkArgument(theSegmentSize >= 64,
+                "theSegmentSize must be at least 64");
+        directory = Preconditions.checkNotNull(theDirectory, "theDirectory");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        segmentSize = theSegmentSize;
+        timeCodec = theTimeCodec;
+        segment = openSegment(segments(directory).length);
+    }
+
+    /** Returns the segment files of a directory, in order. */
+    static File[] segments(final File directory) {
+        int count = 0;
+        while (segmentFile(directory, count).isFile()) {
+            count++;
+        }
+        final File[] result = new File[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = segmentFile(directory, i);
+        }
+        return result;
+    }
+
+    /** Returns the file of a segment. */
+    private static File segmentFile(final File directory, final int index) {
+        return new File(directory, PREFIX + String.format("%08d", index)
+                + SUFFIX);
+    }
+
+    /**
+     * Maps a new segment. A new file is filled with zeros, so the unused
+     * end of a segment already reads as the end marker.
+     */
+    private Segment openSegment(final int index) throws IOException {
+        try (final RandomAccessFile file = new RandomAccessFile(segmentFile(
+                directory, index), "rw");
+                final FileChannel channel = file.getChannel()) {
+            // The mapping remains valid after the channel is closed.
+            return new Segment(index, channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    /** Replaces the full segment s by the next one, unless already done. */
+    private synchronized void nextSegment(final Segment s) throws IOException {
+        if (segment == s) {
+            s.buffer.force();
+            segment = openSegment(s.index + 1);
+        }
+    }
+
+    /** Records a request. */
+    public void record(final JournaledRequest request, final Time creationTime)
+            throws IOException {
+        final Encoder encoder = ENCODER.get();
+        final Bytes bytes = encoder.bytes;
+        final DataOutputStream out = encoder.out;
+        bytes.reset();
+        // Keeps room for the length.
+        out.writeInt(0);
+        out.writeLong(request.targetID());
+        out.writeUTF(request.getClass().getName());
+        final boolean hasTime = (timeCodec != null) && (creationTime != null);
+        out.writeBoolean(hasTime);
+        if (hasTime) {
+            out.writeLong(timeCodec.encode(creationTime));
+        }
+        request.writePayload(out);
+        out.flush();
+        final int size = bytes.size();
+        // Keeps room for the end marker.
+        if (size + 4 > segmentSize) {
+            throw new IOException("Record of " + request + " too large: "
+                    + (size - 4) + " bytes");
+        }
+        final ByteBuffer record = ByteBuffer.wrap(bytes.array(), 0, size);
+        record.putInt(0, size - 4);
+        while (true) {
+            final Segment s = segment;
+            if (s == null) {
+                throw new IOException("Journal closed: " + directory);
+            }
+            final int start = s.position.getAndAdd(size);
+            if ((start >= 0) && (start + size + 4 <= segmentSize)) {
+                final ByteBuffer target = s.buffer.duplicate();
+                target.position(start);
+                target.put(record);
+                records.incrementAndGet();
+                return;
+            }
+            // Whoever overflows first leaves zeros behind: the end marker.
+            nextSegment(s);
+        }
+    }
+
+    /** Returns the number of records written by this journal. */
+    public long records() {
+        return records.get();
+    }
+
+    /** Flushes the current segment to disk. */
+    public void flush() {
+        final Segment s = segment;
+        if (s != null) {
+            s.buffer.force();
+        }
+    }
+
+    /** Flushes, and closes, the journal. */
+    @Override
+    public synchronized void close() {
+        final Segment s = segment;
+        if (s != null) {
+            segment = null;
+            s.buffer.force();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RequestJournal(" + directory + ")";
+    }
+}
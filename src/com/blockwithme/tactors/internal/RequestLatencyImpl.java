@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.WeakReference;
+
+import com.blockwithme.tactors.RequestLatency;
+import com.blockwithme.tactors.TMailbox;
+
+/**
+ * RequestLatencyImpl records the latency of one class of TRequest, in one
+ * Mailbox, or aggregated over several Mailboxes.
+ *
+ * @author monster
+ */
+final class RequestLatencyImpl implements RequestLatency {
+
+    /** The request class. */
+    private final Class<?> requestClass;
+
+    /** The target Mailbox, if any. */
+    private final WeakReference<TMailbox> mailbox;
+
+    /** The queue delays. */
+    private final LatencyHistogram queueDelay = new LatencyHistogram();
+
+    /** The service times. */
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+    /** Creates a RequestLatencyImpl. The mailbox can be null. */
+    public RequestLatencyImpl(final Class<?> theRequestClass,
+            final TMailbox theMailbox) {
+        requestClass = theRequestClass;
+        mailbox = (theMailbox == null) ? null : new WeakReference<>(
+                theMailbox);
+    }
+
+    /** Records the queue delay of a request. */
+    public void recordQueueDelay(final long nanos) {
+        queueDelay.record(nanos);
+    }
+
+    /** Records the service time of a request. */
+    public void recordServiceTime(final long nanos) {
+        serviceTime.record(nanos);
+    }
+
+    /** Adds the recorded values to total. */
+    public void addTo(final RequestLatencyImpl total) {
+        total.queueDelay.add(queueDelay);
+        total.serviceTime.add(serviceTime);
+    }
+
+    @Override
+    public Class<?> requestClass() {
+        return requestClass;
+    }
+
+    @Override
+    public TMailbox mailbox() {
+        return (mailbox == null) ? null : mailbox.get();
+    }
+
+    @Override
+    public long count() {
+        return serviceTime.count();
+    }
+
+    @Override
+    public long queueDelay(final double percentile) {
+        return queueDelay.percentile(percentile);
+    }
+
+    @Override
+    public long serviceTime(final double percentile) {
+        return serviceTime.percentile(percentile);
+    }
+
+    @Override
+    public long maxQueueDelay() {
+        return queueDelay.max();
+    }
+
+    @Override
+    public long maxServiceTime() {
+        return serviceTime.max();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestLatency(" + requestClass.getName() + ",count="
+                + count() + ",queueDelay.p50=" + queueDelay(50)
+                + ",queueDelay.p99=" + queueDelay(99) + ",queueDelay.p999="
+                + queueDelay(99.9) + ",serviceTime.p50=" + serviceTime(50)
+                + ",serviceTime.p99=" + serviceTime(99)
+                + ",serviceTime.p999=" + serviceTime(99.9) + ")";
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.time.Time;
+import com.blockwithme.time.Timeline;
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded pool of RecyclableRequests, all targeting the same Mailbox.
+ *
+ * Requests are acquired by the senders, and recycled within the target
+ * Mailbox, so the pool is synchronized; the lock is short and normally
+ * uncontended. When the pool is empty, the Factory creates a new request.
+ * When it is full, recycled requests are left to the GC.
+ *
+ * @author monster
+ */
+public class RequestPool<R extends RecyclableRequest<?>> {
+
+    /** Creates the requests of a pool. */
+    public interface Factory<R extends RecyclableRequest<?>> {
+        /** Creates a new request, for the given pool. */
+        R create(RequestPool<R> pool);
+    }
+
+    /** The target Mailbox. */
+    private final TMailbox mailbox;
+
+    /** The factory. */
+    private final Factory<R> factory;
+
+    /** The free requests. */
+    private final Object[] free;
+
+    /** The number of free requests. */
+    private int size;
+
+    /** The number of created requests. */
+    private final AtomicLong created = new AtomicLong();
+
+    /** Creates a RequestPool, keeping up to capacity free requests. */
+    public RequestPool(final TMailbox theMailbox, final int capacity,
+            final Factory<R> theFactory) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        mailbox = Preconditions.checkNotNull(theMailbox, "theMailbox");
+        factory = Preconditions.checkNotNull(theFactory, "theFactory");
+        free = new Object[capacity];
+    }
+
+    /** Returns the target Mailbox. */
+    public final TMailbox mailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Returns a free request, or a new one, with the given creation time.
+     * The caller initializes its other fields, and sends it.
+     */
+    public final R acquire(final Time creationTime) {
+        R result = null;
+        synchronized (this) {
+            if (size > 0) {
+                @SuppressWarnings("unchecked")
+                final R r = (R) free[--size];
+                free[size] = null;
+                result = r;
+            }
+        }
+        if (result == null) {
+            result = factory.create(this);
+            if (result.pool() != this) {
+                throw new IllegalStateException(result
+                        + " was not created for this pool");
+            }
+            created.incrementAndGet();
+        }
+        result.activate(creationTime);
+        return result;
+    }
+
+    /**
+     * Returns a free request, or a new one, with the last tick of the
+     * timeline as creation time.
+     */
+    public final R acquire(final Timeline timeline) {
+        return acquire((timeline == null) ? null : timeline.lastTick());
+    }
+
+    /** Puts back a recycled request, if there is room. */
+    final synchronized void release(final RecyclableRequest<?> request) {
+        if (size < free.length) {
+            free[size++] = request;
+        }
+    }
+
+    /** Returns the number of free requests. */
+    public final synchronized int size() {
+        return size;
+    }
+
+    /** Returns the number of requests created by this pool. */
+    public final long created() {
+        return created.get();
+    }
+}
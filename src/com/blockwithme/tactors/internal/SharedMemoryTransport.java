@@ -0,0 +1,650 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * SharedMemoryTransport exchanges requests and responses between the
+ * TMailboxFactories of the JVMs of one host, through ring buffers in a
+ * memory-mapped file.
+ *
+ * The file has a fixed number of slots. Each transport claims one slot,
+ * and is the single writer of the lane (ring buffer) of that slot. Every
+ * transport reads every other lane, and processes the records addressed
+ * to its factory. Each reader publishes how far it has read every lane,
+ * and a writer waits for the slowest reader before reusing lane space.
+ * Requests are encoded with RequestCodecs, and decoded straight from the
+ * mapped file. Responses and exceptions use Java serialization. Since any
+ * local process able to open the file can write into it, only the classes
+ * allowed by WhitelistObjectInputStream, and those passed to
+ * allowResponseClass(), are deserialized.
+ *
+ * The file starts with a 64 bytes header: magic (int), slot count (int),
+ * lane capacity (int). Then comes, for each slot, the factory ID (long,
+ * 0 if free), the write position of its lane (long), the heartbeat of its
+ * reader (long), and its read position in every lane (long per slot).
+ * Then come the lanes. A record holds its aligned length (int), kind
+ * (byte), destination factory ID (long), correlation ID (long), payload
+ * length (int) and payload.
+ *
+ * Records are published by an ordered store of the lane write position,
+ * after the record is written, and read after a volatile load of it. The
+ * read positions, factory IDs and heartbeats are accessed the same way,
+ * directly on the mapped memory, with MappedMemory, so the ordering also
+ * holds between processes. No JVM flag is needed.
+ *
+ * Every reader updates its heartbeat regularly. The slot of a transport
+ * whose heartbeat stopped, typically because its JVM crashed, is ignored
+ * by the writers, and reclaimed by the other transports.
+ *
+ * Thread-safe.
+ *
+ * @author monster
+ */
+public class SharedMemoryTransport implements Closeable {
+
+    /** How the reader waits, when there is nothing to read. */
+    public enum WaitStrategy {
+        /** Spins; lowest latency, but burns a core. */
+        BUSY_SPIN,
+        /** Parks for a few microseconds between polls. */
+        PARK
+    }
+
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SharedMemoryTransport.class);
+
+    /** Identifies the file format. */
+    private static final int MAGIC = 0x54414D32;
+
+    /** The header size. */
+    private static final int HEADER = 64;
+
+    /** The record header size. */
+    private static final int RECORD_HEADER = 28;
+
+    /** Marks the unused end of a lane. */
+    private static final byte PADDING = 0;
+
+    /** A request record. */
+    private static final byte REQUEST = 1;
+
+    /** A response record. */
+    private static final byte RESPONSE = 2;
+
+    /** How long PARK parks. */
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    /** How long a writer waits for lane space. */
+    private static final long FULL_TIMEOUT_NANOS = TimeUnit.SECONDS
+            .toNanos(5);
+
+    /** How often the reader updates its heartbeat, in milliseconds. */
+    private static final long HEARTBEAT_MILLIS = 100;
+
+    /**
+     * After how long without heartbeat a slot is considered dead, in
+     * milliseconds. Shorter than FULL_TIMEOUT_NANOS, so that the writers
+     * stop waiting for a dead reader before they give up.
+     */
+    private static final long DEAD_MILLIS = 3000;
+
+    /** The local factory. */
+    private final TMailboxFactory factory;
+
+    /** The codecs. */
+    private final RequestCodecs codecs;
+
+    /** The Mailbox sending the received requests to their target. */
+    private final TMailbox gateway;
+
+    /** The wait strategy. */
+    private final WaitStrategy waitStrategy;
+
+    /** The file. */
+    private final File file;
+
+    /** The mapped file. Only absolute operations are used. */
+    private final MappedByteBuffer map;
+
+    /** The address of the mapped file. */
+    private final long address;
+
+    /** The number of slots. */
+    private final int slots;
+
+    /** The capacity of each lane. A power of 2. */
+    private final int laneCapacity;
+
+    /** The size of each slot entry. */
+    private final int slotSize;
+
+    /** The offset of the first lane. */
+    private final int lanesOffset;
+
+    /** The claimed slot. */
+    private final int slot;
+
+    /** The write position in the own lane. Guarded by this. */
+    private long writePosition;
+
+    /** Encoding buffer. Guarded by this. */
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    /** The requests waiting for a response, per correlation ID. */
+    private final Map<Long, SettableFuture<Object>> pending = new ConcurrentHashMap<>();
+
+    /** The additional classes allowed in the responses. */
+    private final Set<String> allowed = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The correlation ID counter. */
+    private final AtomicLong nextCorrelation = new AtomicLong();
+
+    /** Runs the reader. */
+    private final ExecutorService reader;
+
+    /** When the reader last updated its heartbeat. Reader thread only. */
+    private long lastBeat;
+
+    /** Was the transport closed? */
+    private volatile boolean closed;
+
+    /**
+     * Creates a SharedMemoryTransport, using the given file, which is
+     * created if needed, and claims a slot in it. All the transports using
+     * a file must use the same slot count and lane capacity.
+     */
+    public SharedMemoryTransport(final TMailboxFactory theFactory,
+            final RequestCodecs theCodecs, final File theFile,
+            final int theSlots, final int theLaneCapacity,
+            final WaitStrategy theWaitStrategy) throws IOException {
+        factory = Preconditions.checkNotNull(theFactory, "theFactory");
+        codecs = Preconditions.checkNotNull(theCodecs, "theCodecs");
+        file = Preconditions.checkNotNull(theFile, "theFile");
+        waitStrategy = Preconditions.checkNotNull(theWaitStrategy,
+                "theWaitStrategy");
+        Preconditions.checkArgument(theSlots >= 2, "theSlots must be >= 2");
+        Preconditions.checkArgument((theLaneCapacity >= 1024)
+                && (Integer.bitCount(theLaneCapacity) == 1),
+                "theLaneCapacity must be a power of 2, >= 1024");
+        slots = theSlots;
+        laneCapacity = theLaneCapacity;
+        slotSize = align(24 + 8 * slots, 64);
+        lanesOffset = HEADER + slots * slotSize;
+        final long size = lanesOffset + (long) slots * laneCapacity;
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE,
+                "The file would be too large");
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                final FileChannel channel = raf.getChannel()) {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            address = MappedMemory.address(map);
+            try (final FileLock lock = channel.lock(0, HEADER, false)) {
+                slot = join();
+            }
+        }
+        gateway = factory.createMailbox();
+        reader = Executors.newSingleThreadExecutor(ExecutionStrategy
+                .threadFactory("SharedMemoryTransport-" + factory.id()));
+        reader.execute(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+    }
+
+    /** Rounds value up to a multiple of alignment, a power of 2. */
+    private static int align(final int value, final int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    /** Returns the offset of the factory ID of a slot. */
+    private int factoryIDOffset(final int s) {
+        return HEADER + s * slotSize;
+    }
+
+    /** Returns the offset of the write position of a lane. */
+    private int writePositionOffset(final int s) {
+        return HEADER + s * slotSize + 8;
+    }
+
+    /** Returns the offset of the heartbeat of a slot. */
+    private int heartbeatOffset(final int s) {
+        return HEADER + s * slotSize + 16;
+    }
+
+    /** Returns the offset of the read position of reader s in lane l. */
+    private int readPositionOffset(final int s, final int l) {
+        return HEADER + s * slotSize + 24 + 8 * l;
+    }
+
+    /** Reads a long of the file, with a volatile load. */
+    private long getLongVolatile(final int offset) {
+        return MappedMemory.getLongVolatile(address + offset);
+    }
+
+    /** Writes a long of the file, with an ordered store. */
+    private void putLongOrdered(final int offset, final long value) {
+        MappedMemory.putOrderedLong(address + offset, value);
+    }
+
+    /** Returns true if the slot s is in use, and its reader is alive. */
+    private boolean alive(final int s, final long now) {
+        return (getLongVolatile(factoryIDOffset(s)) != 0)
+                && (now - getLongVolatile(heartbeatOffset(s)) <= DEAD_MILLIS);
+    }
+
+    /** Initializes the file if needed, and claims a slot. Holds the lock. */
+    private int join() throws IOException {
+        if (map.getInt(0) == 0) {
+            map.putInt(4, slots);
+            map.putInt(8, laneCapacity);
+            map.putInt(0, MAGIC);
+        } else if ((map.getInt(0) != MAGIC) || (map.getInt(4) != slots)
+                || (map.getInt(8) != laneCapacity)) {
+            throw new IOException(file + " has an incompatible layout");
+        }
+        final long id = factory.id();
+        final long now = System.currentTimeMillis();
+        int free = -1;
+        for (int s = 0; s < slots; s++) {
+            final boolean alive = alive(s, now);
+            if (alive && (getLongVolatile(factoryIDOffset(s)) == id)) {
+                throw new IOException("Factory " + id + " already uses "
+                        + file + "; give each factory a unique"
+                        + " TActorsConfig.factoryID()");
+            }
+            if (!alive && (free < 0)) {
+                // Free, or left behind by a dead transport.
+                free = s;
+            }
+        }
+        if (free < 0) {
+            throw new IOException("No free slot in " + file);
+        }
+        // The lane restarts empty; the other readers restart with it.
+        putLongOrdered(writePositionOffset(free), 0);
+        for (int s = 0; s < slots; s++) {
+            putLongOrdered(readPositionOffset(s, free), 0);
+            // Records already in the other lanes are not for us.
+            putLongOrdered(readPositionOffset(free, s),
+                    getLongVolatile(writePositionOffset(s)));
+        }
+        putLongOrdered(heartbeatOffset(free), now);
+        putLongOrdered(factoryIDOffset(free), id);
+        map.force();
+        return free;
+    }
+
+    /** Returns the slot of a factory, or -1. */
+    private int slotOf(final long factoryID) {
+        final long now = System.currentTimeMillis();
+        for (int s = 0; s < slots; s++) {
+            if ((s != slot)
+                    && (getLongVolatile(factoryIDOffset(s)) == factoryID)
+                    && alive(s, now)) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Allows a class, in the responses and exceptions received from the
+     * other transports. See WhitelistObjectInputStream.
+     */
+    public void allowResponseClass(final Class<?> type) {
+        allowed.add(type.getName());
+    }
+
+    /** Returns true, if the given factory uses the same file. */
+    public boolean connected(final long factoryID) {
+        return slotOf(factoryID) >= 0;
+    }
+
+    /**
+     * Sends a request, or request stub registered in the RequestCodecs,
+     * to the actor targetID of the factory factoryID, and returns its
+     * future response. If the request is a TRequest, its creation time is
+     * sent too.
+     */
+    public ListenableFuture<Object> send(final long factoryID,
+            final long targetID, final Object request) {
+        Preconditions.checkNotNull(request, "request");
+        checkOpen();
+        if (slotOf(factoryID) < 0) {
+            throw new IllegalStateException("Factory " + factoryID
+                    + " does not use " + file);
+        }
+        final Time creationTime = (request instanceof TRequest) ? ((TRequest<?>) request)
+                .creationTime() : null;
+        final long correlation = nextCorrelation.incrementAndGet();
+        final SettableFuture<Object> result = SettableFuture.create();
+        pending.put(correlation, result);
+        try {
+            synchronized (this) {
+                scratch.clear();
+                scratch = codecs.encode(request, creationTime, targetID,
+                        scratch);
+                scratch.flip();
+                write(REQUEST, factoryID, correlation, scratch);
+            }
+        } catch (final RuntimeException e) {
+            pending.remove(correlation);
+            result.setException(e);
+        }
+        return result;
+    }
+
+    /** Sends the response of a received request. */
+    private void sendResponse(final long correlation, final boolean failed,
+            final long factoryID, final Object value) {
+        boolean failure = failed;
+        byte[] data;
+        try {
+            data = RemoteTransport.serialize(value);
+        } catch (final IOException e) {
+            failure = true;
+            data = RemoteTransport.serializeFailure(value, e);
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(data.length + 1);
+        payload.put((byte) (failure ? 1 : 0)).put(data).flip();
+        try {
+            synchronized (this) {
+                write(RESPONSE, factoryID, correlation, payload);
+            }
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to send response to factory " + factoryID, e);
+        }
+    }
+
+    /**
+     * Returns the smallest read position of the own lane. Dead readers
+     * are ignored.
+     */
+    private long slowestReader() {
+        final long now = System.currentTimeMillis();
+        long result = writePosition;
+        for (int s = 0; s < slots; s++) {
+            if ((s != slot) && alive(s, now)) {
+                result = Math.min(result,
+                        getLongVolatile(readPositionOffset(s, slot)));
+            }
+        }
+        return result;
+    }
+
+    /** Writes a record in the own lane. Must hold the lock. */
+    private void write(final byte kind, final long destination,
+            final long correlation, final ByteBuffer payload) {
+        final int length = align(RECORD_HEADER + payload.remaining(), 8);
+        if (length > laneCapacity / 2) {
+            throw new IllegalArgumentException("Record too large: " + length);
+        }
+        final int laneOffset = lanesOffset + slot * laneCapacity;
+        int offset = (int) (writePosition & (laneCapacity - 1));
+        final int padding = (offset + length > laneCapacity) ? laneCapacity
+                - offset : 0;
+        final long deadline = System.nanoTime() + FULL_TIMEOUT_NANOS;
+        while (writePosition + padding + length - slowestReader() > laneCapacity) {
+            checkOpen();
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Lane of factory "
+                        + factory.id() + " full in " + file);
+            }
+            idle();
+        }
+        if (padding != 0) {
+            map.putInt(laneOffset + offset, padding);
+            map.put(laneOffset + offset + 4, PADDING);
+            writePosition += padding;
+            offset = 0;
+        }
+        final int at = laneOffset + offset;
+        map.putInt(at, length);
+        map.put(at + 4, kind);
+        map.putLong(at + 8, destination);
+        map.putLong(at + 16, correlation);
+        map.putInt(at + 24, payload.remaining());
+        final ByteBuffer target = map.duplicate();
+        target.position(at + RECORD_HEADER);
+        target.put(payload);
+        writePosition += length;
+        // Ordered store: the record stores above cannot move after it.
+        putLongOrdered(writePositionOffset(slot), writePosition);
+    }
+
+    /**
+     * Updates the heartbeat of the own slot, and reclaims the slots of the
+     * dead transports. Returns false if the own slot was reclaimed, because
+     * this transport was considered dead.
+     */
+    private boolean heartbeat(final long now) {
+        if (getLongVolatile(factoryIDOffset(slot)) != factory.id()) {
+            return false;
+        }
+        putLongOrdered(heartbeatOffset(slot), now);
+        for (int s = 0; s < slots; s++) {
+            final long owner = getLongVolatile(factoryIDOffset(s));
+            if ((s != slot) && (owner != 0) && !alive(s, now)
+                    && MappedMemory.compareAndSwapLong(
+                            address + factoryIDOffset(s), owner, 0)) {
+                LOG.warn("Reclaimed slot " + s + " of dead factory " + owner
+                        + " in " + file);
+            }
+        }
+        return true;
+    }
+
+    /** Waits a little, according to the wait strategy. */
+    private void idle() {
+        if (waitStrategy == WaitStrategy.PARK) {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Reads the lanes of the other slots, until closed. */
+    private void read() {
+        final long id = factory.id();
+        while (!closed) {
+            final long now = System.currentTimeMillis();
+            if (now - lastBeat >= HEARTBEAT_MILLIS) {
+                lastBeat = now;
+                if (!heartbeat(now)) {
+                    LOG.error("Slot " + slot + " of " + file
+                            + " was reclaimed; closing " + this);
+                    closed = true;
+                    failPending();
+                    reader.shutdown();
+                    return;
+                }
+            }
+            boolean found = false;
+            for (int s = 0; s < slots; s++) {
+                if (s == slot) {
+                    continue;
+                }
+                // Volatile load: the record reads below cannot move before it.
+                final long available = getLongVolatile(writePositionOffset(s));
+                // Reset to 0 by a transport joining in slot s.
+                long position = getLongVolatile(readPositionOffset(slot, s));
+                if (position > available) {
+                    // Slot s was rejoined while we were reading it.
+                    position = 0;
+                }
+                if (position == available) {
+                    continue;
+                }
+                found = true;
+                final long sender = getLongVolatile(factoryIDOffset(s));
+                final int laneOffset = lanesOffset + s * laneCapacity;
+                while (position < available) {
+                    final int at = laneOffset
+                            + (int) (position & (laneCapacity - 1));
+                    final int length = map.getInt(at);
+                    final byte kind = map.get(at + 4);
+                    if ((kind != PADDING) && (map.getLong(at + 8) == id)) {
+                        // Decoded in place: the record cannot be overwritten
+                        // before the read position is published, below, and
+                        // RequestCodec.decode() must not keep the buffer.
+                        final ByteBuffer payload = map.duplicate();
+                        payload.position(at + RECORD_HEADER);
+                        payload.limit(at + RECORD_HEADER + map.getInt(at + 24));
+                        received(kind, sender, map.getLong(at + 16), payload);
+                    }
+                    position += length;
+                }
+                putLongOrdered(readPositionOffset(slot, s), position);
+            }
+            if (!found) {
+                idle();
+            }
+        }
+    }
+
+    /** Processes a record addressed to this transport. */
+    private void received(final byte kind, final long sender,
+            final long correlation, final ByteBuffer payload) {
+        if (kind == REQUEST) {
+            // The responses are written by the gateway, never by the reader,
+            // which could otherwise wait for the lane of a peer waiting for it.
+            final DeliverRequest.Responder responder = new DeliverRequest.Responder() {
+                @Override
+                public void respond(final long theCorrelation,
+                        final boolean failed, final Object value) {
+                    sendResponse(theCorrelation, failed, sender, value);
+                }
+            };
+            try {
+                final TRequest<?> request;
+                try {
+                    request = codecs.decode(payload, factory);
+                } catch (final RuntimeException e) {
+                    DeliverRequest.fail(gateway, responder, correlation, e);
+                    return;
+                }
+                if (request == null) {
+                    DeliverRequest.fail(gateway, responder, correlation,
+                            new IllegalStateException(
+                                    "Target actor not found in factory "
+                                            + factory.id()));
+                } else {
+                    DeliverRequest.deliver(gateway, responder, correlation,
+                            request);
+                }
+            } catch (final Exception e) {
+                LOG.error("Failed to deliver request " + correlation
+                        + " from factory " + sender, e);
+            }
+        } else if (kind == RESPONSE) {
+            final SettableFuture<Object> future = pending.remove(correlation);
+            if (future == null) {
+                LOG.warn("Unexpected response " + correlation
+                        + " from factory " + sender);
+                return;
+            }
+            final boolean failed = payload.get() != 0;
+            final ByteBufferInput input = new ByteBufferInput();
+            input.buffer = payload;
+            try {
+                RemoteTransport.complete(future, failed,
+                        RemoteTransport.deserialize(input, allowed));
+            } catch (final ClassNotFoundException | IOException e) {
+                future.setException(e);
+            }
+        }
+    }
+
+    /** Checks that the transport is not closed. */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("SharedMemoryTransport closed");
+        }
+    }
+
+    /** Releases the slot, and stops the reader. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.shutdown();
+        try {
+            reader.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                final FileChannel channel = raf.getChannel();
+                final FileLock lock = channel.lock(0, HEADER, false)) {
+            // The slot might already have been reclaimed by someone else.
+            MappedMemory.compareAndSwapLong(address + factoryIDOffset(slot),
+                    factory.id(), 0);
+            map.force();
+        } catch (final IOException e) {
+            LOG.warn("Failed to release slot " + slot + " of " + file, e);
+        }
+        failPending();
+    }
+
+    /** Fails the requests still waiting for a response. */
+    private void failPending() {
+        final IllegalStateException cause = new IllegalStateException(
+                "SharedMemoryTransport closed");
+        for (final Long correlation : pending.keySet()) {
+            final SettableFuture<Object> future = pending.remove(correlation);
+            if (future != null) {
+                future.setException(cause);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryTransport(" + factory.id() + "," + file + ")";
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.blockwithme.tactors.TActor;
+import com.google.common.base.Preconditions;
+
+/**
+ * AllocatingActorRegistry implementation.
+ *
+ * Each ID encodes a slot index in its low 32 bits, and the generation of
+ * that slot in its high 32 bits. Finding an actor by ID is therefore a
+ * bounds-checked array read, followed by a generation check. The slots of
+ * removed and collected actors are recycled with the next generation, so
+ * the table is bounded by the peak number of live actors, rather than by
+ * the number of actors ever created, and the IDs of the previous
+ * generations never resolve to the new actor. A slot whose generation is
+ * exhausted is never used again.
+ *
+ * Lookups by ID are lock-free; modifications lock the registry. Collected
+ * actors are removed through a ReferenceQueue, which is processed on every
+ * registration.
+ *
+ * Since the IDs are not sequential, actors can only be registered through
+ * registerNew(); ID ranges cannot be reserved in advance.
+ *
+ * Named actors are strongly referenced through the name map, like pinned
+ * actors, so that they can always be found by name.
+ *
+ * @author monster
+ */
+public class SlotActorRegistry implements AllocatingActorRegistry {
+
+    /** Holds the actor of a slot, knowing the actor ID. */
+    private interface Slot {
+
+        /** The actor ID. */
+        long id();
+
+        /** The actor, or null if it was collected. */
+        TActor actor();
+    }
+
+    /** Weak reference to the actor of a slot, knowing the actor ID. */
+    private static final class SlotRef extends WeakReference<TActor>
+            implements Slot {
+
+        /** The actor ID. */
+        private final long id;
+
+        /** Creates a SlotRef. */
+        public SlotRef(final long theID, final TActor actor,
+                final ReferenceQueue<? super TActor> queue) {
+            super(actor, queue);
+            id = theID;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public TActor actor() {
+            return get();
+        }
+    }
+
+    /**
+     * Holds a pinned actor, which can therefore never be GCed. It is not a
+     * Reference, so that the GC does not have to process it.
+     */
+    private static final class PinnedSlot implements Slot {
+
+        /** The actor ID. */
+        private final long id;
+
+        /** The hard reference to the actor. */
+        private final TActor actor;
+
+        /** Creates a PinnedSlot. */
+        public PinnedSlot(final long theID, final TActor theActor) {
+            id = theID;
+            actor = theActor;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public TActor actor() {
+            return actor;
+        }
+    }
+
+    /** Number of bits of the slot index. */
+    private static final int SLOT_BITS = 32;
+
+    /** The generation of a new slot. Never 0, so IDs are never 0. */
+    private static final int FIRST_GENERATION = 1;
+
+    /** Minimum (and initial) capacity of the table. */
+    private static final int MIN_CAPACITY = 64;
+
+    /** The slots. Replaced (not modified) when growing. */
+    private volatile AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(
+            MIN_CAPACITY);
+
+    /** The current generation of each used slot. */
+    private int[] generations = new int[MIN_CAPACITY];
+
+    /** The stack of free slots. */
+    private int[] free = new int[MIN_CAPACITY];
+
+    /** The number of free slots. */
+    private int freeCount;
+
+    /** The number of slots used so far. */
+    private int used;
+
+    /** The number of live entries. */
+    private int live;
+
+    /** The actors registered by name. */
+    private final ConcurrentMap<String, TActor> names = new ConcurrentHashMap<>();
+
+    /** The queue of collected actors. */
+    private final ReferenceQueue<TActor> queue = new ReferenceQueue<>();
+
+    /** The listeners. */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Returns the slot index encoded in an ID. */
+    public static int slot(final long id) {
+        return (int) id;
+    }
+
+    /** Returns the slot generation encoded in an ID. */
+    public static int generation(final long id) {
+        return (int) (id >>> SLOT_BITS);
+    }
+
+    /** Returns the ID of a slot, for the given generation. */
+    private static long id(final int slot, final int generation) {
+        return ((long) generation << SLOT_BITS) | (slot & 0xFFFFFFFFL);
+    }
+
+    /** Returns the Slot with the given ID, if any. Lock-free. */
+    private Slot lookup(final long id) {
+        final int slot = slot(id);
+        final AtomicReferenceArray<Slot> s = slots;
+        if ((slot < 0) || (slot >= s.length())) {
+            return null;
+        }
+        final Slot ref = s.get(slot);
+        return ((ref != null) && (ref.id() == id)) ? ref : null;
+    }
+
+    /** Allocates a slot, and stores a new Slot in it. Returns the ID. */
+    private synchronized long allocate(final TActor actor, final boolean pin) {
+        final int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == generations.length) {
+                grow();
+            }
+            slot = used++;
+            generations[slot] = FIRST_GENERATION;
+        }
+        final long result = id(slot, generations[slot]);
+        slots.set(slot, pin ? new PinnedSlot(result, actor) : new SlotRef(
+                result, actor, queue));
+        live++;
+        return result;
+    }
+
+    /** Doubles the capacity of the table. */
+    private void grow() {
+        final AtomicReferenceArray<Slot> old = slots;
+        final int capacity = old.length() * 2;
+        if (capacity < 0) {
+            // This is NEVER going to happen!
+            throw new InternalError("Maximum number of actor slots exceeded!");
+        }
+        final AtomicReferenceArray<Slot> s = new AtomicReferenceArray<>(
+                capacity);
+        for (int i = 0; i < used; i++) {
+            s.lazySet(i, old.get(i));
+        }
+        generations = Arrays.copyOf(generations, capacity);
+        free = Arrays.copyOf(free, capacity);
+        // Volatile write publishes the whole table.
+        slots = s;
+    }
+
+    /**
+     * Empties the slot of the given ref, if it is still there, and recycles
+     * the slot with the next generation. Returns true on success.
+     */
+    private synchronized boolean release(final Slot ref) {
+        final int slot = slot(ref.id());
+        if (slots.get(slot) != ref) {
+            return false;
+        }
+        slots.set(slot, null);
+        live--;
+        if (generations[slot] != Integer.MAX_VALUE) {
+            generations[slot]++;
+            free[freeCount++] = slot;
+        }
+        return true;
+    }
+
+    /** Removes the collected actors from the registry. */
+    public final void expungeStaleEntries() {
+        SlotRef ref;
+        while ((ref = (SlotRef) queue.poll()) != null) {
+            if (release(ref)) {
+                fireRemoved(ref.id);
+            }
+        }
+    }
+
+    /** Informs the listeners that an actor was removed. */
+    private void fireRemoved(final long id) {
+        for (final Listener listener : listeners) {
+            listener.removed(id);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#addListener(com.blockwithme.tactors.internal.ActorRegistry.Listener)
+     */
+    @Override
+    public void addListener(final Listener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "listener"));
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.AllocatingActorRegistry#registerNew(java.lang.String, com.blockwithme.tactors.TActor, boolean)
+     */
+    @Override
+    public long registerNew(final String name, final TActor actor,
+            final boolean pin) {
+        Preconditions.checkNotNull(actor, "actor");
+        expungeStaleEntries();
+        if ((name != null) && (names.putIfAbsent(name, actor) != null)) {
+            throw new IllegalArgumentException("Actor name " + name
+                    + " already registered");
+        }
+        return allocate(actor, pin);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#find(long)
+     */
+    @Override
+    public TActor find(final long id) {
+        final Slot ref = lookup(id);
+        return (ref == null) ? null : ref.actor();
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#find(java.lang.String)
+     */
+    @Override
+    public TActor find(final String name) {
+        return (name == null) ? null : names.get(name);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#remove(long)
+     */
+    @Override
+    public boolean remove(final long id) {
+        final Slot ref = lookup(id);
+        if ((ref == null) || !release(ref)) {
+            return false;
+        }
+        final TActor actor = ref.actor();
+        if ((actor != null) && (actor.name() != null)) {
+            names.remove(actor.name(), actor);
+        }
+        fireRemoved(id);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#size()
+     */
+    @Override
+    public synchronized int size() {
+        return live;
+    }
+
+    /** Returns the number of slots used so far, live or free. */
+    public synchronized int slots() {
+        return used;
+    }
+}
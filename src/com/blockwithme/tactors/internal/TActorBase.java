@@ -15,10 +15,13 @@
  */
 package com.blockwithme.tactors.internal;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import org.agilewiki.jactor.api.Actor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.blockwithme.tactors.LifecycleState;
 import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
 import com.blockwithme.time.Time;
@@ -29,8 +32,11 @@ import com.google.common.base.Preconditions;
  * Base class to use for most TActor.
  *
  * It can be registered as TimeListener, and the new Time will be queued as a
- * request, to be thread-safe.
+ * request, to be thread-safe. If conflateTimeChanges() returns true, at most
+ * one such request is pending at any time, and it delivers the latest Time.
  *
+ * Actors are weakly tracked by default. Actors with an explicit lifecycle
+ * can be stopped, which removes them from the registry immediately.
  *
  * @author monster
  */
@@ -39,6 +45,10 @@ public abstract class TActorBase implements TActor {
     /** Logger */
     private static final Logger LOG = LoggerFactory.getLogger(TActorBase.class);
 
+    /** Updates the pending field, without an Atomic object per actor. */
+    private static final AtomicIntegerFieldUpdater<TActorBase> PENDING = AtomicIntegerFieldUpdater
+            .newUpdater(TActorBase.class, "pending");
+
     /** The actor Mailbox. */
     protected final TMailbox mailbox;
 
@@ -57,6 +67,16 @@ public abstract class TActorBase implements TActor {
     /** The timeline. */
     protected final Timeline timeline;
 
+    /** Conflates the time ticks, if conflateTimeChanges() returned true. */
+    private final TickConflater tickConflater;
+
+    /** The lifecycle state. */
+    private volatile LifecycleState state = LifecycleState.NEW;
+
+    /** The number of pending requests targeting this actor. */
+    @SuppressWarnings("unused")
+    private volatile int pending;
+
     /**
      * Initialize the actor with a Mailbox.
      * Null is a valid Timeline, if you are not the future mailbox owner.
@@ -217,6 +237,7 @@ public abstract class TActorBase implements TActor {
                         .timeline() : theTimeline);
         name = theName;
         parent = theParent;
+        tickConflater = conflateTimeChanges() ? new TickConflater() : null;
         id = mailbox.nextActorID(this, pin);
     }
 
@@ -281,13 +302,187 @@ public abstract class TActorBase implements TActor {
      */
     @Override
     public final void onTimeChange(final Time time) {
+        final LifecycleState s = state;
+        if ((s == LifecycleState.STOPPED) || (s == LifecycleState.PASSIVATED)) {
+            // The Timeline registrations cannot be removed from here.
+            return;
+        }
         try {
-            new TimeListenerRequest(mailbox, this, time).signal();
+            if ((tickConflater == null) || tickConflater.offer(time)) {
+                timeListenerRequest(time).signal();
+            }
         } catch (final Exception e) {
+            if (tickConflater != null) {
+                // Otherwise, no further request would ever be sent.
+                tickConflater.take();
+            }
             LOG.error("Failed to send TimeListenerRequest to self: " + this, e);
         }
     }
 
+    /** Returns a TimeListenerRequest, pooled if the Mailbox supports it. */
+    private TimeListenerRequest timeListenerRequest(final Time time) {
+        if (mailbox instanceof TMailboxImpl) {
+            return ((TMailboxImpl) mailbox).timeListenerRequests()
+                    .acquire(time).target(this);
+        }
+        return new TimeListenerRequest(mailbox, this, time);
+    }
+
+    /** Called by TimeListenerRequest, from within the Mailbox. */
+    final void processTimeChange(final Time time) {
+        if (tickConflater == null) {
+            onAsyncTimeChange(time);
+        } else {
+            final Time latest = tickConflater.take();
+            onAsyncTimeChange(latest, tickConflater.lastSkipped());
+        }
+    }
+
+    /**
+     * Should time changes be conflated? If true, at most one time change
+     * request is pending at any time, and ticks received in the meantime only
+     * replace the Time it will deliver, through onAsyncTimeChange(Time,int).
+     *
+     * Called once, from the constructor, so it must not depend on the
+     * state of sub-classes. Returns false by default.
+     */
+    protected boolean conflateTimeChanges() {
+        return false;
+    }
+
+    /**
+     * Subscribes this actor to the ticks delivered by the Mailbox
+     * tickListener(). Those ticks are delivered through
+     * onAsyncTimeChange(Time), without conflation.
+     * Returns false if this actor was already subscribed.
+     */
+    protected final boolean subscribeMailboxTicks() {
+        return tickDispatcher().subscribe(this);
+    }
+
+    /**
+     * Unsubscribes this actor from the ticks delivered by the Mailbox
+     * tickListener(). Returns false if this actor was not subscribed.
+     */
+    protected final boolean unsubscribeMailboxTicks() {
+        return tickDispatcher().unsubscribe(this);
+    }
+
+    /** Returns the tick dispatcher of the Mailbox. */
+    private MailboxTickDispatcher tickDispatcher() {
+        if (mailbox instanceof TMailboxImpl) {
+            return ((TMailboxImpl) mailbox).tickDispatcher();
+        }
+        throw new UnsupportedOperationException(
+                "Mailbox ticks require a TMailboxImpl: " + mailbox);
+    }
+
+    /** Returns the lifecycle state of this actor. */
+    public final LifecycleState state() {
+        return state;
+    }
+
+    /**
+     * Starts this actor explicitly, and calls onStart(). Fails if it was
+     * already started, or stopped.
+     *
+     * Must be called from within the actor mailbox context, or before the
+     * actor is shared.
+     */
+    public final void start() {
+        if (state != LifecycleState.NEW) {
+            throw new IllegalStateException("Cannot start " + this
+                    + " in state " + state);
+        }
+        state = LifecycleState.STARTED;
+        onStart();
+    }
+
+    /**
+     * Stops this actor, after calling onStop(). It is removed from the
+     * factory registry immediately, rather than once collected, and its
+     * listeners and Mailbox tick subscription are dropped. It receives no
+     * further ticks. Returns false if it was already stopped.
+     *
+     * Must be called from within the actor mailbox context, or before the
+     * actor is shared.
+     */
+    public final boolean stop() {
+        if ((state == LifecycleState.STOPPED)
+                || (state == LifecycleState.PASSIVATED)) {
+            // The ID might already belong to the rehydrated instance.
+            return false;
+        }
+        state = LifecycleState.STOPPED;
+        try {
+            onStop();
+        } finally {
+            support.clear();
+            if (mailbox instanceof TMailboxImpl) {
+                ((TMailboxImpl) mailbox).actorStopped(this);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when a request whose target() is this actor is sent. Fails if
+     * this actor was passivated.
+     */
+    final void requestSent() {
+        PENDING.incrementAndGet(this);
+        if (state == LifecycleState.PASSIVATED) {
+            PENDING.decrementAndGet(this);
+            throw new IllegalStateException("Actor passivated; use findActor("
+                    + id + "): " + this);
+        }
+    }
+
+    /**
+     * Called when a request whose target() is this actor is taken out of
+     * the queue, or could not be sent.
+     */
+    final void requestDone() {
+        PENDING.decrementAndGet(this);
+    }
+
+    /**
+     * Marks this actor as passivated, unless requests targeting it are
+     * pending, and returns the previous state, or null on failure.
+     * Called from within the Mailbox.
+     */
+    final LifecycleState passivate() {
+        final LifecycleState previous = state;
+        if ((previous == LifecycleState.STOPPED)
+                || (previous == LifecycleState.PASSIVATED)) {
+            return null;
+        }
+        // The state is written before pending is read, and requestSent()
+        // does the opposite, so one of them always sees the other.
+        state = LifecycleState.PASSIVATED;
+        if (PENDING.get(this) != 0) {
+            state = previous;
+            return null;
+        }
+        return previous;
+    }
+
+    /** Cancels passivate(), if the state could not be stored. */
+    final void passivationFailed(final LifecycleState previous) {
+        state = previous;
+    }
+
+    /** Called by start(). Does nothing by default. */
+    protected void onStart() {
+        // NOP
+    }
+
+    /** Called by stop(), before deregistration. Does nothing by default. */
+    protected void onStop() {
+        // NOP
+    }
+
     /** What's the time? */
     protected final Time time() {
         return timeline.lastTick();
@@ -302,4 +497,16 @@ public abstract class TActorBase implements TActor {
     protected void onAsyncTimeChange(final Time time) {
         throw new UnsupportedOperationException("onAsyncTimeChange");
     }
+
+    /**
+     * Reacts to change of time, when time changes are conflated.
+     * skippedTicks is the number of ticks that were replaced by a later tick,
+     * before they could be delivered. This method is called through an Actor
+     * request, and is therefore thread-safe.
+     *
+     * Calls onAsyncTimeChange(Time) by default.
+     */
+    protected void onAsyncTimeChange(final Time time, final int skippedTicks) {
+        onAsyncTimeChange(time);
+    }
 }
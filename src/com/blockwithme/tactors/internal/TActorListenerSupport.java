@@ -38,7 +38,7 @@ public interface TActorListenerSupport {
      *
      * The topic might be anything, but should be immutable.
      * Remember that the registry is also used by base classes and derived classes.
-     * The topic cannot be null. The listener cannot be null.
+     * The topic cannot be null. The listener cannot be null, and must have an ID.
      * The listener must not already have been registered to this topic.
      */
     void register(final Object topic, final TActor listener,
@@ -64,6 +64,14 @@ public interface TActorListenerSupport {
      */
     void processWeakListenerQueue();
 
+    /**
+     * Unregisters all the listeners, of all topics.
+     *
+     * The registry is NOT thread-safe, and so this can only be called from
+     * within the actor mailbox context.
+     */
+    void clear();
+
     /**
      * Returns all the Listeners to a topic.
      *
@@ -97,4 +105,28 @@ public interface TActorListenerSupport {
     <TARGET_ACTOR_TYPE extends TActor> Request<Void> informListenersRequest(
             final Object topic,
             final UnboundRequest<Void, TARGET_ACTOR_TYPE> event);
+
+    /**
+     * Inform the listeners of a topic about an event (Request), sending a
+     * single batch request per listener Mailbox, instead of one request per
+     * listener. Each batch request informs the listeners of its Mailbox
+     * locally, and produces a single response.
+     *
+     * rp can be null, if not response is desired.
+     *
+     * The registry is NOT thread-safe, and so this can only be called from
+     * within the actor mailbox context.
+     */
+    <TARGET_ACTOR_TYPE extends TActor> void informListenersByMailbox(
+            final Object topic,
+            final UnboundRequest<Void, TARGET_ACTOR_TYPE> event,
+            final ResponseProcessor<Void> rp) throws Exception;
+
+    /**
+     * Creates a new Request, to inform the listeners of a topic about an
+     * event (Request), with one batch request per listener Mailbox.
+     */
+    <TARGET_ACTOR_TYPE extends TActor> Request<Void> informListenersByMailboxRequest(
+            final Object topic,
+            final UnboundRequest<Void, TARGET_ACTOR_TYPE> event);
 }
@@ -16,7 +16,6 @@
 package com.blockwithme.tactors.internal;
 
 import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,35 +31,96 @@ import org.agilewiki.jactor.api.UnboundRequest;
 import org.agilewiki.jactor.impl.EventResponseProcessor;
 import org.agilewiki.jactor.util.ResponseCounter;
 
+import com.blockwithme.tactors.RequestPriority;
 import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.tactors.internal.TopicListeners.Entry;
+import com.blockwithme.tactors.internal.TopicListeners.MailboxGroup;
+import com.blockwithme.tactors.internal.TopicListeners.StrongEntry;
+import com.blockwithme.tactors.internal.TopicListeners.WeakReferenceWithTopic;
 import com.google.common.base.Preconditions;
 
 /**
  * Helper class, allowing TActors to manage their listeners.
  *
+ * The listeners of each topic are indexed by actor ID, so registration,
+ * un-registration and the removal of collected weak listeners are O(1).
+ * Each topic also keeps an immutable snapshot array of its listeners, which
+ * is only rebuilt after the listeners change, so that informing the
+ * listeners does not allocate. The listeners can also be informed with one
+ * batch request per listener Mailbox, rather than one request per listener.
+ *
  * @author monster
  */
 public class TActorListenerSupportImpl implements TActorListenerSupport {
 
-    /** WeakReference with topic, so we can do quick remove on GC. */
-    private static final class WeakReferenceWithTopic extends
-            WeakReference<TActor> {
+    /**
+     * Informs all the listeners of one Mailbox about an event, from within
+     * that Mailbox, and responds once all of them have responded.
+     */
+    private static final class ListenerBatchRequest<TARGET_ACTOR_TYPE extends TActor>
+            extends RequestBase<Void> {
+
+        /** The listeners. */
+        private final MailboxGroup group;
 
-        public final Object topic;
+        /** The event. */
+        private final UnboundRequest<Void, TARGET_ACTOR_TYPE> event;
 
-        /**
-         * @param referent
-         */
-        public WeakReferenceWithTopic(final Object theTopic, final TActor obj,
-                final ReferenceQueue<? super TActor> queue) {
-            super(obj, queue);
-            topic = theTopic;
+        /** Should the event be signaled, rather than sent? */
+        private final boolean signal;
+
+        /** Creates a ListenerBatchRequest, for the Mailbox of the group. */
+        public ListenerBatchRequest(final TMailbox theMailbox,
+                final MailboxGroup theGroup,
+                final UnboundRequest<Void, TARGET_ACTOR_TYPE> theEvent,
+                final boolean theSignal) {
+            super(theMailbox);
+            group = theGroup;
+            event = theEvent;
+            signal = theSignal;
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> _rp)
+                throws Exception {
+            final Entry[] entries = group.entries;
+            if (signal) {
+                for (final Entry entry : entries) {
+                    @SuppressWarnings("unchecked")
+                    final TARGET_ACTOR_TYPE listener = (TARGET_ACTOR_TYPE) TopicListeners
+                            .live(entry);
+                    if (listener != null) {
+                        event.signal(listener);
+                    }
+                }
+                _rp.processResponse(null);
+            } else {
+                final ResponseCounter<Void> rc = new ResponseCounter<Void>(
+                        entries.length, null, _rp);
+                getMailbox().setExceptionHandler(new ExceptionHandler() {
+                    @Override
+                    public void processException(final Throwable throwable)
+                            throws Exception {
+                        rc.decrementCount();
+                    }
+                });
+                for (final Entry entry : entries) {
+                    @SuppressWarnings("unchecked")
+                    final TARGET_ACTOR_TYPE listener = (TARGET_ACTOR_TYPE) TopicListeners
+                            .live(entry);
+                    if (listener == null) {
+                        rc.decrementCount();
+                    } else {
+                        event.send(getMailbox(), listener, rc);
+                    }
+                }
+            }
         }
     }
 
     /** The listeners map. */
-    private Map<Object, List<Object>> listeners;
+    private Map<Object, TopicListeners> listeners;
 
     /** The optional reference queue, for weak listeners. */
     private ReferenceQueue<Object> refQueue;
@@ -81,7 +141,7 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
      *
      * The topic might be anything, but should be immutable.
      * Remember that the registry is also used by base classes and derived classes.
-     * The topic cannot be null. The listener cannot be null.
+     * The topic cannot be null. The listener cannot be null, and must have an ID.
      * The listener must not already have been registered to this topic.
      */
     @Override
@@ -89,33 +149,27 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
             final boolean weakRef) {
         Preconditions.checkNotNull(topic, "topic cannot be null");
         Preconditions.checkNotNull(listener, "listener cannot be null");
+        Preconditions.checkArgument(listener.id() != 0,
+                "listener must have an ID");
         if (listeners == null) {
-            listeners = new HashMap<Object, List<Object>>();
+            listeners = new HashMap<Object, TopicListeners>();
         }
-        List<Object> list = listeners.get(topic);
-        if (list == null) {
-            list = new ArrayList<Object>();
-            listeners.put(topic, list);
-        }
-        for (final Object obj : list) {
-            if (obj == listener) {
-                throw new IllegalStateException("listener " + listener
-                        + " already registered for topic " + topic);
-            } else if (obj instanceof WeakReferenceWithTopic) {
-                final WeakReferenceWithTopic ref = (WeakReferenceWithTopic) obj;
-                if (ref.get() == listener) {
-                    throw new IllegalStateException("listener " + listener
-                            + " already registered for topic " + topic);
-                }
-            }
+        TopicListeners topicListeners = listeners.get(topic);
+        if (topicListeners == null) {
+            topicListeners = new TopicListeners();
+            listeners.put(topic, topicListeners);
+        } else if (topicListeners.find(listener) != null) {
+            throw new IllegalStateException("listener " + listener
+                    + " already registered for topic " + topic);
         }
         if (weakRef) {
             if (refQueue == null) {
                 refQueue = new ReferenceQueue<Object>();
             }
-            list.add(new WeakReferenceWithTopic(topic, listener, refQueue));
+            topicListeners.add(new WeakReferenceWithTopic(topic, listener,
+                    refQueue));
         } else {
-            list.add(listener);
+            topicListeners.add(new StrongEntry(listener));
         }
     }
 
@@ -132,35 +186,26 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
         Preconditions.checkNotNull(topic, "topic cannot be null");
         Preconditions.checkNotNull(listener, "listener cannot be null");
         if (listeners != null) {
-            final List<Object> list = listeners.get(topic);
-            if (list != null) {
-                final int size = list.size();
-                for (int i = 0; i < size; i++) {
-                    final Object obj = list.get(i);
-                    if (obj == listener) {
-                        if (list.size() == 1) {
-                            listeners.remove(topic);
-                        } else {
-                            list.remove(i);
-                        }
-                        return true;
-                    } else if (obj instanceof WeakReferenceWithTopic) {
-                        final WeakReferenceWithTopic ref = (WeakReferenceWithTopic) obj;
-                        if (ref.get() == listener) {
-                            if (list.size() == 1) {
-                                listeners.remove(topic);
-                            } else {
-                                list.remove(i);
-                            }
-                            return true;
-                        }
-                    }
+            final TopicListeners topicListeners = listeners.get(topic);
+            if (topicListeners != null) {
+                final Entry entry = topicListeners.find(listener);
+                if (entry != null) {
+                    removeEntry(topic, topicListeners, entry);
+                    return true;
                 }
             }
         }
         return false;
     }
 
+    /** Removes an entry, and the topic if now empty. */
+    private void removeEntry(final Object topic,
+            final TopicListeners topicListeners, final Entry entry) {
+        if (topicListeners.remove(entry) && (topicListeners.size() == 0)) {
+            listeners.remove(topic);
+        }
+    }
+
     /**
      * Process the queue of weak references to listeners.
      *
@@ -174,85 +219,128 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
         if (refQueue != null) {
             WeakReferenceWithTopic ref;
             while ((ref = (WeakReferenceWithTopic) refQueue.poll()) != null) {
-                final List<Object> list = listeners.get(ref.topic);
-                if (list != null) {
-                    for (final Object obj : list) {
-                        if (obj == ref) {
-                            if (list.size() == 1) {
-                                listeners.remove(ref.topic);
-                            } else {
-                                list.remove(ref);
-                            }
-                            break;
-                        }
-                    }
+                final TopicListeners topicListeners = listeners.get(ref.topic);
+                if (topicListeners != null) {
+                    removeEntry(ref.topic, topicListeners, ref);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the collected listeners, and the stopped listeners of a
+     * topic.
+     */
+    private void prune(final Object topic) {
+        processWeakListenerQueue();
+        if (listeners != null) {
+            final TopicListeners topicListeners = listeners.get(topic);
+            if (topicListeners != null) {
+                topicListeners.removeStopped();
+                if (topicListeners.size() == 0) {
+                    listeners.remove(topic);
                 }
             }
         }
     }
 
     /**
-     * Returns all the Listeners to a topic.
+     * Unregisters all the listeners, of all topics.
+     *
+     * The registry is NOT thread-safe, and so this can only be called from
+     * within the actor mailbox context.
+     */
+    @Override
+    public final void clear() {
+        // The pending weak references are dropped with their queue.
+        listeners = null;
+        refQueue = null;
+    }
+
+    /**
+     * Returns all the Listeners to a topic, except the stopped ones.
      *
      * The registry is NOT thread-safe, and so this can only be called from
      * within the actor mailbox context.
      */
     @Override
     public final List<TActor> listenersFor(final Object topic) {
+        final Entry[] snapshot = snapshotFor(topic);
+        if (snapshot.length == 0) {
+            return Collections.emptyList();
+        }
+        final List<TActor> result = new ArrayList<>(snapshot.length);
+        for (final Entry entry : snapshot) {
+            final TActor actor = TopicListeners.live(entry);
+            if (actor != null) {
+                result.add(actor);
+            }
+        }
+        if (result.size() != snapshot.length) {
+            prune(topic);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current snapshot of the listener entries of a topic.
+     * The returned array must not be modified.
+     */
+    private Entry[] snapshotFor(final Object topic) {
         Preconditions.checkNotNull(topic, "topic cannot be null");
         if (listeners != null) {
-            final List<Object> list = listeners.get(topic);
-            if (list != null) {
-                final List<TActor> result = new ArrayList<>(list.size());
-                boolean processQueue = false;
-                for (final Object obj : list) {
-                    if (obj instanceof WeakReferenceWithTopic) {
-                        final WeakReferenceWithTopic ref = (WeakReferenceWithTopic) obj;
-                        final TActor actor = ref.get();
-                        if (actor == null) {
-                            processQueue = true;
-                        } else {
-                            result.add(actor);
-                        }
-                    } else {
-                        final TActor actor = (TActor) obj;
-                        result.add(actor);
-                    }
-                }
-                if (processQueue) {
-                    processWeakListenerQueue();
-                }
-                return result;
+            final TopicListeners topicListeners = listeners.get(topic);
+            if (topicListeners != null) {
+                return topicListeners.snapshot();
             }
         }
-        return Collections.emptyList();
+        return TopicListeners.NO_ENTRIES;
     }
 
-    /** Creates and returns a new Request to perform a registration. */
+    /**
+     * Creates and returns a new Request to perform a registration. It has
+     * the CONTROL priority, so that, when signaled, it does not wait behind
+     * the regular traffic of the Mailbox.
+     */
     @Override
     public final Request<Void> registerRequest(final Object topic,
             final TActor listener, final boolean weakRef) {
-        return new RequestBase<Void>(mailbox) {
+        Preconditions.checkNotNull(listener, "listener cannot be null");
+        return new TRequestBase<Void>(mailbox, listener) {
             @Override
             public void processRequest(final Transport<Void> _rp)
                     throws Exception {
                 register(topic, listener, weakRef);
                 _rp.processResponse(null);
             }
+
+            @Override
+            public RequestPriority priority() {
+                return RequestPriority.CONTROL;
+            }
         };
     }
 
-    /** Creates and returns a new Request to perform an un-registration. */
+    /**
+     * Creates and returns a new Request to perform an un-registration. It
+     * has the CONTROL priority, like registerRequest().
+     */
     @Override
     public final Request<Void> unregisterRequest(final Object topic,
             final TActor listener) {
-        return new RequestBase<Void>(mailbox) {
+        Preconditions.checkNotNull(listener, "listener cannot be null");
+        return new TRequestBase<Void>(mailbox, listener) {
             @Override
             public void processRequest(final Transport<Void> _rp)
                     throws Exception {
                 unregister(topic, listener);
                 _rp.processResponse(null);
             }
+
+            @Override
+            public RequestPriority priority() {
+                return RequestPriority.CONTROL;
+            }
         };
     }
 
@@ -269,16 +357,24 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
             final Object topic,
             final UnboundRequest<Void, TARGET_ACTOR_TYPE> event,
             final ResponseProcessor<Void> rp) throws Exception {
-        final List<TActor> actors = listenersFor(topic);
+        final Entry[] snapshot = snapshotFor(topic);
+        boolean collected = false;
         if ((rp == null) || (rp == EventResponseProcessor.SINGLETON)) {
-            for (final TActor actor : actors) {
+            for (final Entry entry : snapshot) {
                 @SuppressWarnings("unchecked")
-                final TARGET_ACTOR_TYPE listener = (TARGET_ACTOR_TYPE) actor;
-                event.signal(listener);
+                final TARGET_ACTOR_TYPE listener = (TARGET_ACTOR_TYPE) TopicListeners
+                        .live(entry);
+                if (listener == null) {
+                    collected = true;
+                } else {
+                    event.signal(listener);
+                }
             }
+        } else if (snapshot.length == 0) {
+            rp.processResponse(null);
         } else {
             final ResponseCounter<Void> rc = new ResponseCounter<Void>(
-                    actors.size(), null, rp);
+                    snapshot.length, null, rp);
             mailbox.setExceptionHandler(new ExceptionHandler() {
                 @Override
                 public void processException(final Throwable throwable)
@@ -286,12 +382,21 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
                     rc.decrementCount();
                 }
             });
-            for (final TActor actor : actors) {
+            for (final Entry entry : snapshot) {
                 @SuppressWarnings("unchecked")
-                final TARGET_ACTOR_TYPE listener = (TARGET_ACTOR_TYPE) actor;
-                event.send(mailbox, listener, rc);
+                final TARGET_ACTOR_TYPE listener = (TARGET_ACTOR_TYPE) TopicListeners
+                        .live(entry);
+                if (listener == null) {
+                    collected = true;
+                    rc.decrementCount();
+                } else {
+                    event.send(mailbox, listener, rc);
+                }
             }
         }
+        if (collected) {
+            prune(topic);
+        }
     }
 
     /**
@@ -309,4 +414,94 @@ public class TActorListenerSupportImpl implements TActorListenerSupport {
             }
         };
     }
+
+    /**
+     * Inform the listeners of a topic about an event (Request), sending a
+     * single batch request per listener Mailbox, instead of one request per
+     * listener. Each batch request informs the listeners of its Mailbox
+     * locally, and produces a single response.
+     *
+     * rp can be null, if not response is desired.
+     *
+     * The registry is NOT thread-safe, and so this can only be called from
+     * within the actor mailbox context.
+     */
+    @Override
+    public final <TARGET_ACTOR_TYPE extends TActor> void informListenersByMailbox(
+            final Object topic,
+            final UnboundRequest<Void, TARGET_ACTOR_TYPE> event,
+            final ResponseProcessor<Void> rp) throws Exception {
+        final MailboxGroup[] groups = groupsFor(topic);
+        boolean collected = false;
+        if ((rp == null) || (rp == EventResponseProcessor.SINGLETON)) {
+            for (final MailboxGroup group : groups) {
+                final TMailbox target = group.mailbox();
+                if (target == null) {
+                    collected = true;
+                } else {
+                    new ListenerBatchRequest<TARGET_ACTOR_TYPE>(target, group,
+                            event, true).signal();
+                }
+            }
+        } else if (groups.length == 0) {
+            rp.processResponse(null);
+        } else {
+            final ResponseCounter<Void> rc = new ResponseCounter<Void>(
+                    groups.length, null, rp);
+            mailbox.setExceptionHandler(new ExceptionHandler() {
+                @Override
+                public void processException(final Throwable throwable)
+                        throws Exception {
+                    rc.decrementCount();
+                }
+            });
+            for (final MailboxGroup group : groups) {
+                final TMailbox target = group.mailbox();
+                if (target == null) {
+                    collected = true;
+                    rc.decrementCount();
+                } else {
+                    new ListenerBatchRequest<TARGET_ACTOR_TYPE>(target, group,
+                            event, false).send(mailbox, rc);
+                }
+            }
+        }
+        if (collected) {
+            prune(topic);
+        }
+    }
+
+    /**
+     * Creates a new Request, to inform the listeners of a topic about an
+     * event (Request), with one batch request per listener Mailbox.
+     */
+    @Override
+    public final <TARGET_ACTOR_TYPE extends TActor> Request<Void> informListenersByMailboxRequest(
+            final Object topic,
+            final UnboundRequest<Void, TARGET_ACTOR_TYPE> event) {
+        return new RequestBase<Void>(mailbox) {
+            @Override
+            public void processRequest(final Transport<Void> _rp)
+                    throws Exception {
+                informListenersByMailbox(topic, event, _rp);
+            }
+        };
+    }
+
+    /**
+     * Returns the current listener entries of a topic, grouped by Mailbox.
+     * The collected listeners are removed first, so that the cached groups
+     * are rebuilt without them.
+     */
+    private MailboxGroup[] groupsFor(final Object topic) {
+        Preconditions.checkNotNull(topic, "topic cannot be null");
+        processWeakListenerQueue();
+        if (listeners != null) {
+            final TopicListeners topicListeners = listeners.get(topic);
+            if (topicListeners != null) {
+                return topicListeners.groups();
+            }
+        }
+        return TopicListeners.NO_GROUPS;
+    }
 }
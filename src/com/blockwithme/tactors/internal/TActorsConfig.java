@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The immutable configuration of a TMailboxFactoryImpl, as bound by
+ * TActorsImplModule. Use builder() to change the defaults.
+ *
+ * @author monster
+ */
+public final class TActorsConfig {
+
+    /** Builds a TActorsConfig. Not thread-safe. */
+    public static final class Builder {
+
+        /** The factory ID. */
+        private long factoryID = 1;
+
+        /** Number of actor IDs leased at once by each Mailbox. */
+        private int actorIDBlockSize = 1;
+
+        /** Are the Mailbox metrics enabled? */
+        private boolean mailboxMetrics;
+
+        /** Are the request latency statistics enabled? */
+        private boolean requestLatency = true;
+
+        /** Defines the threads running the Mailboxes. */
+        private ExecutionStrategy executionStrategy = ExecutionStrategy.DEFAULT;
+
+        /** Number of threads of the executor; 0 means one per CPU. */
+        private int threadCount;
+
+        /** Max signals taken out of each priority lane at once; 0 means all. */
+        private int priorityLaneBatch;
+
+        /** Are the actor IDs dense slot-plus-generation IDs? */
+        private boolean denseActorIDs;
+
+        /** Creates a Builder, with the default values. */
+        Builder() {
+            // NOP
+        }
+
+        /**
+         * Sets the ID of the factory, which must be unique among the
+         * factories that talk to each other, through a RemoteTransport or
+         * a SharedMemoryTransport; the transports refuse to connect two
+         * factories with the same ID. Defaults to 1.
+         */
+        public Builder factoryID(final long theFactoryID) {
+            Preconditions.checkArgument(theFactoryID > 0,
+                    "factoryID must be positive: %s", theFactoryID);
+            factoryID = theFactoryID;
+            return this;
+        }
+
+        /**
+         * Sets the number of actor IDs leased at once by each Mailbox. If
+         * greater than 1, the Mailboxes do not use the shared ID counter for
+         * every actor. Defaults to 1.
+         */
+        public Builder actorIDBlockSize(final int theActorIDBlockSize) {
+            Preconditions.checkArgument(theActorIDBlockSize > 0,
+                    "actorIDBlockSize must be positive: %s",
+                    theActorIDBlockSize);
+            actorIDBlockSize = theActorIDBlockSize;
+            return this;
+        }
+
+        /**
+         * Enables the runtime metrics of every Mailbox, which are published
+         * as JMX MBeans. Disabled by default.
+         */
+        public Builder mailboxMetrics(final boolean theMailboxMetrics) {
+            mailboxMetrics = theMailboxMetrics;
+            return this;
+        }
+
+        /**
+         * Enables the recording of the queue delay and service time of
+         * every TRequest. Enabled by default.
+         */
+        public Builder requestLatency(final boolean theRequestLatency) {
+            requestLatency = theRequestLatency;
+            return this;
+        }
+
+        /**
+         * Sets the strategy defining the threads running the Mailboxes.
+         * Defaults to ExecutionStrategy.DEFAULT.
+         */
+        public Builder executionStrategy(
+                final ExecutionStrategy theExecutionStrategy) {
+            executionStrategy = Preconditions.checkNotNull(
+                    theExecutionStrategy, "executionStrategy");
+            return this;
+        }
+
+        /**
+         * Sets the size of the thread pool, if the execution strategy uses
+         * one. 0, the default, means one thread per CPU.
+         */
+        public Builder threadCount(final int theThreadCount) {
+            Preconditions.checkArgument(theThreadCount >= 0,
+                    "threadCount must not be negative: %s", theThreadCount);
+            threadCount = theThreadCount;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of signals taken out of each priority
+         * lane, before the next regular message is processed. 0, the
+         * default, gives strict priority.
+         */
+        public Builder priorityLaneBatch(final int thePriorityLaneBatch) {
+            Preconditions.checkArgument(thePriorityLaneBatch >= 0,
+                    "priorityLaneBatch must not be negative: %s",
+                    thePriorityLaneBatch);
+            priorityLaneBatch = thePriorityLaneBatch;
+            return this;
+        }
+
+        /**
+         * Registers the actors in a SlotActorRegistry, which allocates
+         * recyclable slot-plus-generation IDs. actorIDBlockSize is then
+         * ignored, and passivation is not available. Disabled by default.
+         */
+        public Builder denseActorIDs(final boolean theDenseActorIDs) {
+            denseActorIDs = theDenseActorIDs;
+            return this;
+        }
+
+        /** Returns a TActorsConfig with the current values. */
+        public TActorsConfig build() {
+            return new TActorsConfig(this);
+        }
+    }
+
+    /** The default configuration. */
+    public static final TActorsConfig DEFAULT = builder().build();
+
+    /** The factory ID. */
+    private final long factoryID;
+
+    /** Number of actor IDs leased at once by each Mailbox. */
+    private final int actorIDBlockSize;
+
+    /** Are the Mailbox metrics enabled? */
+    private final boolean mailboxMetrics;
+
+    /** Are the request latency statistics enabled? */
+    private final boolean requestLatency;
+
+    /** Defines the threads running the Mailboxes. */
+    private final ExecutionStrategy executionStrategy;
+
+    /** Number of threads of the executor; 0 means one per CPU. */
+    private final int threadCount;
+
+    /** Max signals taken out of each priority lane at once; 0 means all. */
+    private final int priorityLaneBatch;
+
+    /** Are the actor IDs dense slot-plus-generation IDs? */
+    private final boolean denseActorIDs;
+
+    /** Creates a TActorsConfig from a Builder. */
+    private TActorsConfig(final Builder builder) {
+        factoryID = builder.factoryID;
+        actorIDBlockSize = builder.actorIDBlockSize;
+        mailboxMetrics = builder.mailboxMetrics;
+        requestLatency = builder.requestLatency;
+        executionStrategy = builder.executionStrategy;
+        threadCount = builder.threadCount;
+        priorityLaneBatch = builder.priorityLaneBatch;
+        denseActorIDs = builder.denseActorIDs;
+    }
+
+    /** Returns a new Builder, with the default values. */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Returns the factory ID. */
+    public long factoryID() {
+        return factoryID;
+    }
+
+    /** Returns the number of actor IDs leased at once by each Mailbox. */
+    public int actorIDBlockSize() {
+        return actorIDBlockSize;
+    }
+
+    /** Are the Mailbox metrics enabled? */
+    public boolean mailboxMetrics() {
+        return mailboxMetrics;
+    }
+
+    /** Are the request latency statistics enabled? */
+    public boolean requestLatency() {
+        return requestLatency;
+    }
+
+    /** Returns the strategy defining the threads running the Mailboxes. */
+    public ExecutionStrategy executionStrategy() {
+        return executionStrategy;
+    }
+
+    /** Returns the number of threads of the executor; 0 means one per CPU. */
+    public int threadCount() {
+        return threadCount;
+    }
+
+    /** Returns the max signals taken out of each priority lane at once. */
+    public int priorityLaneBatch() {
+        return priorityLaneBatch;
+    }
+
+    /** Are the actor IDs dense slot-plus-generation IDs? */
+    public boolean denseActorIDs() {
+        return denseActorIDs;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "TActorsConfig(factoryID=" + factoryID + ",actorIDBlockSize="
+                + actorIDBlockSize + ",mailboxMetrics=" + mailboxMetrics
+                + ",requestLatency=" + requestLatency + ",executionStrategy="
+                + executionStrategy + ",threadCount=" + threadCount
+                + ",priorityLaneBatch=" + priorityLaneBatch
+                + ",denseActorIDs=" + denseActorIDs + ")";
+    }
+}
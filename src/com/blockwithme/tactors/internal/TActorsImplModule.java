@@ -18,14 +18,10 @@ package com.blockwithme.tactors.internal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailboxFactory;
 import com.blockwithme.time.internal.TimeImplModule;
-import com.blockwithme.util.LongObjectCache;
-import com.blockwithme.util.LongObjectCacheImpl;
+import com.google.common.base.Preconditions;
 import com.google.inject.AbstractModule;
-import com.google.inject.TypeLiteral;
-import com.google.inject.name.Names;
 
 /**
  * Guice module for TActors implementation.
@@ -38,17 +34,31 @@ public class TActorsImplModule extends AbstractModule {
     private static final Logger LOG = LoggerFactory
             .getLogger(TActorsImplModule.class);
 
+    /** The configuration. */
+    private final TActorsConfig config;
+
+    /** Creates the module, with the default configuration. */
+    public TActorsImplModule() {
+        this(TActorsConfig.DEFAULT);
+    }
+
+    /** Creates the module, with the given configuration. */
+    public TActorsImplModule(final TActorsConfig theConfig) {
+        config = Preconditions.checkNotNull(theConfig, "theConfig");
+    }
+
     @Override
     protected void configure() {
         install(new TimeImplModule());
 
-        bind(Long.class).annotatedWith(Names.named("MailboxFactoryID"))
-                .toInstance(1L);
-        bind(new TypeLiteral<LongObjectCache<TActor>>() {
-        }).to(new TypeLiteral<LongObjectCacheImpl<TActor>>() {
-        });
+        bind(TActorsConfig.class).toInstance(config);
+        if (config.denseActorIDs()) {
+            bind(ActorRegistry.class).to(SlotActorRegistry.class);
+        } else {
+            bind(ActorRegistry.class).to(WeakActorRegistry.class);
+        }
         bind(TMailboxFactory.class).to(TMailboxFactoryImpl.class);
 
-        LOG.info("TActorsImplModule initialized");
+        LOG.info("TActorsImplModule initialized with " + config);
     }
 }
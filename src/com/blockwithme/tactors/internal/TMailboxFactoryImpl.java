@@ -15,20 +15,29 @@
  */
 package com.blockwithme.tactors.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
 import org.agilewiki.jactor.impl.DefaultMailboxFactoryImpl;
 import org.agilewiki.jactor.impl.MessageQueue;
 import org.slf4j.Logger;
 
+import com.blockwithme.tactors.LifecycleState;
+import com.blockwithme.tactors.OverflowPolicy;
+import com.blockwithme.tactors.RequestLatency;
 import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
 import com.blockwithme.tactors.TMailboxFactory;
 import com.blockwithme.time.ClockService;
-import com.blockwithme.util.LongObjectCache;
 import com.google.common.base.Preconditions;
 
 /**
@@ -49,17 +58,90 @@ public class TMailboxFactoryImpl<M extends TMailbox> extends
     private final AtomicLong nextID = new AtomicLong();
 
     /** All the actors. */
-    private final LongObjectCache<TActor> actors;
+    private final ActorRegistry actors;
+
+    /** actors, if the factory allocates the actor IDs; null otherwise. */
+    private final ExternalIDActorRegistry externalIDs;
+
+    /** actors, if it allocates the actor IDs itself; null otherwise. */
+    private final AllocatingActorRegistry allocating;
+
+    /** The children of all the actors. */
+    private final ChildrenIndex children;
+
+    /**
+     * Number of actor IDs leased at once by each Mailbox.
+     * 1 means every ID comes directly from the shared counter.
+     */
+    private final int actorIDBlockSize;
+
+    /** The Mailbox metrics, or null if disabled. */
+    private final TMailboxFactoryMetrics metrics;
+
+    /** Are the request latency statistics enabled? */
+    private final boolean requestLatency;
+
+    /** The request latencies of all Mailboxes. */
+    private final Queue<MailboxLatencies> latencies = new ConcurrentLinkedQueue<>();
+
+    /** Counts the created MailboxLatencies, to purge them regularly. */
+    private final AtomicLong latenciesCounter = new AtomicLong();
+
+    /** The execution strategy. */
+    private final ExecutionStrategy executionStrategy;
+
+    /** Runs the Mailboxes, or null to use the inherited thread pool. */
+    private final ExecutorService executor;
+
+    /**
+     * Maximum number of signals taken out of each priority lane, each time
+     * a Mailbox drains them. 0 means the lanes are always drained completely.
+     */
+    private final int priorityLaneBatch;
+
+    /** Passivates idle actors, if passivation is enabled. */
+    private volatile Passivator passivator;
+
+    /** Orders the creation times of time-ordered Mailboxes, if set. */
+    private volatile TimeCodec timeCodec;
+
+    /** Are unpinned actors weakly tracked? */
+    private volatile boolean weakTracking = true;
+
+    /** Constructor, with the default configuration, and the given ID. */
+    public TMailboxFactoryImpl(final long theID,
+            final ActorRegistry theRegistry,
+            final ClockService theClockService) {
+        this(theRegistry, theClockService, TActorsConfig.builder()
+                .factoryID(theID).build());
+    }
 
     /** Constructor */
     @Inject
-    public TMailboxFactoryImpl(@Named("MailboxFactoryID") final long theID,
-            final LongObjectCache<TActor> theCache,
-            final ClockService theClockService) {
-        id = theID;
-        actors = Preconditions.checkNotNull(theCache, "theCache");
+    public TMailboxFactoryImpl(final ActorRegistry theRegistry,
+            final ClockService theClockService, final TActorsConfig theConfig) {
+        Preconditions.checkNotNull(theConfig, "theConfig");
+        id = theConfig.factoryID();
+        actors = Preconditions.checkNotNull(theRegistry, "theRegistry");
+        externalIDs = (theRegistry instanceof ExternalIDActorRegistry)
+                ? (ExternalIDActorRegistry) theRegistry : null;
+        allocating = (theRegistry instanceof AllocatingActorRegistry)
+                ? (AllocatingActorRegistry) theRegistry : null;
+        Preconditions.checkArgument((externalIDs == null)
+                != (allocating == null), "theRegistry must be either an"
+                + " ExternalIDActorRegistry or an AllocatingActorRegistry");
+        children = new ChildrenIndex(actors);
         clockService = Preconditions.checkNotNull(theClockService,
                 "theClockService");
+        actorIDBlockSize = theConfig.actorIDBlockSize();
+        metrics = theConfig.mailboxMetrics() ? new TMailboxFactoryMetrics(id)
+                : null;
+        requestLatency = theConfig.requestLatency();
+        executionStrategy = theConfig.executionStrategy();
+        executor = executionStrategy.newExecutor("TMailboxFactory-" + id,
+                (theConfig.threadCount() == 0) ? Runtime.getRuntime()
+                        .availableProcessors() : theConfig.threadCount());
+        priorityLaneBatch = theConfig.priorityLaneBatch();
     }
 
     /* (non-Javadoc)
@@ -70,29 +152,442 @@ public class TMailboxFactoryImpl<M extends TMailbox> extends
         return id;
     }
 
+    /**
+     * Returns the number of actor IDs leased at once by each Mailbox.
+     * 1 means that Mailboxes do not lease ID blocks.
+     */
+    public final int actorIDBlockSize() {
+        return actorIDBlockSize;
+    }
+
+    /**
+     * Returns true if the actor IDs are dense slot-plus-generation IDs,
+     * allocated by the registry. Mailboxes then neither lease ID blocks,
+     * nor reserve ID ranges.
+     */
+    public final boolean denseActorIDs() {
+        return allocating != null;
+    }
+
+    /**
+     * Reserves count consecutive actor IDs, and returns the first one.
+     * The reserved range never contains 0.
+     */
+    public final long reserveActorIDs(final int count) {
+        Preconditions.checkArgument(count > 0, "count must be positive");
+        final long last = nextID.addAndGet(count);
+        if ((last >= 0) && (last - count < 0)) {
+            // This is NEVER going to happen!
+            throw new InternalError("Maximum valid Actor ID exceeded!");
+        }
+        return last - count + 1;
+    }
+
     @Override
     public long nextActorID(final TActor actor, final boolean pin) {
+        checkNotRegistered(actor);
+        if (allocating != null) {
+            return allocating.registerNew(actor.name(), actor, pin
+                    || !weakTracking);
+        }
+        final long result = reserveActorIDs(1);
+        externalIDs.register(result, actor.name(), actor, pin
+                || !weakTracking);
+        return result;
+    }
+
+    /**
+     * Registers an actor under an ID previously obtained from
+     * reserveActorIDs(), and returns that ID.
+     */
+    public long registerActor(final TActor actor, final boolean pin,
+            final long actorID) {
+        checkNotRegistered(actor);
+        if (actorID == 0) {
+            throw new IllegalArgumentException("actorID cannot be 0");
+        }
+        checkExternalIDs().register(actorID, actor.name(), actor, pin
+                || !weakTracking);
+        return actorID;
+    }
+
+    /**
+     * Registers actors[i] under the ID firstID+i, for i in [0,count). The
+     * IDs must have been obtained from reserveActorIDs().
+     */
+    final void registerActors(final long firstID, final TActor[] theActors,
+            final boolean[] pins, final int count) {
+        if (count > 0) {
+            if (!weakTracking) {
+                Arrays.fill(pins, 0, count, true);
+            }
+            checkExternalIDs().registerAll(firstID, theActors, pins, count);
+            for (int i = 0; i < count; i++) {
+                actorRegistered(theActors[i], firstID + i);
+            }
+        }
+    }
+
+    /** Returns externalIDs, failing if the registry allocates the IDs. */
+    private ExternalIDActorRegistry checkExternalIDs() {
+        if (externalIDs == null) {
+            throw new IllegalStateException(
+                    "Actor IDs are allocated by the registry");
+        }
+        return externalIDs;
+    }
+
+    /** Fails if the actor already has an ID. */
+    private static void checkNotRegistered(final TActor actor) {
         if (actor.id() != 0) {
             throw new IllegalStateException("Actor already registered! "
                     + actor);
         }
-        final long result = nextID.incrementAndGet();
-        if (result == 0) {
-            // This is NEVER going to happen!
-            throw new InternalError("Maximum valid Actor ID exceeded!");
-        }
-        actors.cacheObject(result, actor.name(), actor, pin);
-        return result;
     }
 
+    /**
+     * Returns the actor with the given ID, if any. Rehydrates it, if it was
+     * passivated. If it is being passivated, waits for the passivation to
+     * complete, and rehydrates it.
+     */
     @Override
     public TActor findActor(final long actorID) {
-        return actors.findObject(actorID);
+        final TActor result = actors.find(actorID);
+        final Passivator p = passivator;
+        if ((p == null) || ((result != null) && !passivated(result))) {
+            return result;
+        }
+        return p.rehydrate(actorID);
     }
 
+    /**
+     * Returns the actor with the given name, if any. Rehydrates it, if it
+     * was passivated. If it is being passivated, waits for the passivation
+     * to complete, and rehydrates it.
+     */
     @Override
     public TActor findActor(final String name) {
-        return actors.findObject(name);
+        final TActor result = actors.find(name);
+        final Passivator p = passivator;
+        if ((p == null) || ((result != null) && !passivated(result))) {
+            return result;
+        }
+        return (result == null) ? p.rehydrate(name) : p.rehydrate(result
+                .id());
+    }
+
+    /** Returns true if the actor is a passivated TActorBase instance. */
+    private static boolean passivated(final TActor actor) {
+        return (actor instanceof TActorBase)
+                && (((TActorBase) actor).state() == LifecycleState.PASSIVATED);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailboxFactory#children(com.blockwithme.tactors.TActor)
+     */
+    @Override
+    public List<TActor> children(final TActor parent) {
+        return children.children(parent.id());
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailboxFactory#descendants(com.blockwithme.tactors.TActor)
+     */
+    @Override
+    public List<TActor> descendants(final TActor parent) {
+        return children.descendants(parent.id());
+    }
+
+    /**
+     * Returns the actor with the given ID, if it is in the heap, and not
+     * passivated.
+     */
+    final TActor findLiveActor(final long actorID) {
+        final TActor result = actors.find(actorID);
+        return ((result == null) || passivated(result)) ? null : result;
+    }
+
+    /**
+     * Removes a passivated actor from the registry. Its children are kept,
+     * for the rehydrated actor.
+     */
+    final boolean unregisterActor(final long actorID) {
+        children.passivating(actorID);
+        try {
+            return actors.remove(actorID);
+        } finally {
+            children.passivated(actorID);
+        }
+    }
+
+    /** Called when an actor was stopped. Forgets it immediately. */
+    final void actorStopped(final long actorID) {
+        actors.remove(actorID);
+        final Passivator p = passivator;
+        if (p != null) {
+            p.untrack(actorID);
+        }
+    }
+
+    /**
+     * Disables the weak tracking of actors: the actors registered afterwards
+     * are all pinned, and so stay registered until they are stopped. Meant
+     * for applications where every actor has an explicit lifecycle.
+     */
+    public final void disableWeakTracking() {
+        weakTracking = false;
+    }
+
+    /** Returns true if the actors are weakly tracked (the default). */
+    public final boolean weakTrackingEnabled() {
+        return weakTracking;
+    }
+
+    /**
+     * Enables the passivation of the Passivatable actors: when their
+     * Mailbox has been idle for idleMillis, their state is written to the
+     * store, and they are removed from the registry. findActor()
+     * rehydrates them, using the registered ActorRehydrators.
+     * Only Passivatable actors created afterwards are passivated.
+     * Passivation is not supported with dense actor IDs, as the slot of a
+     * passivated actor could be recycled before it is rehydrated.
+     */
+    public final synchronized void enablePassivation(final ActorStore store,
+            final long idleMillis) {
+        if (denseActorIDs()) {
+            throw new IllegalStateException(
+                    "Passivation is not supported with dense actor IDs");
+        }
+        if (passivator != null) {
+            throw new IllegalStateException("Passivation already enabled");
+        }
+        passivator = new Passivator(this, store, idleMillis);
+        actors.addListener(passivator);
+    }
+
+    /** Returns true if passivation is enabled. */
+    public final boolean passivationEnabled() {
+        return passivator != null;
+    }
+
+    /** Registers the ActorRehydrator of a Passivatable actor class. */
+    public final void registerRehydrator(
+            final Class<? extends Passivatable> type,
+            final ActorRehydrator rehydrator) {
+        checkPassivator().register(type, rehydrator);
+    }
+
+    /**
+     * Passivates now the actors whose Mailbox has been idle for at least
+     * idleMillis, and returns their number. Passivation is asynchronous:
+     * it happens within the Mailbox of each actor.
+     */
+    public final int passivateIdleActors(final long idleMillis) {
+        return checkPassivator().passivateIdle(
+                TimeUnit.MILLISECONDS.toNanos(idleMillis));
+    }
+
+    /** Returns the Passivator, or fails if passivation is disabled. */
+    private Passivator checkPassivator() {
+        final Passivator result = passivator;
+        if (result == null) {
+            throw new IllegalStateException("Passivation not enabled");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ID to give back to the actor, if it is being rehydrated
+     * by the current thread, or 0.
+     */
+    final long rehydratingID(final TActor actor) {
+        final Passivator p = passivator;
+        return (p == null) ? 0 : p.rehydratingID(actor);
+    }
+
+    /** Called when a new actor was registered by a Mailbox. */
+    final void actorRegistered(final TActor actor, final long actorID) {
+        final TActor parent = actor.getParent();
+        if (parent != null) {
+            children.add(parent.id(), actorID);
+        }
+        final Passivator p = passivator;
+        if (p != null) {
+            p.track(actor, actorID);
+        }
+    }
+
+    /**
+     * Returns the aggregated Mailbox metrics, or null if metrics are
+     * disabled. They are also registered as MBeans.
+     */
+    public final TMailboxFactoryMetrics metrics() {
+        return metrics;
+    }
+
+    /** Creates the metrics of a new Mailbox, or returns null if disabled. */
+    final MailboxMetrics newMailboxMetrics(final TMailbox mailbox) {
+        return (metrics == null) ? null : metrics.newMailboxMetrics(mailbox);
+    }
+
+    /**
+     * Creates the request latencies of a new Mailbox, or returns null if
+     * disabled.
+     */
+    final MailboxLatencies newMailboxLatencies(final TMailbox mailbox) {
+        if (!requestLatency) {
+            return null;
+        }
+        if (latenciesCounter.incrementAndGet() % 64 == 0) {
+            final Iterator<MailboxLatencies> iter = latencies.iterator();
+            while (iter.hasNext()) {
+                if (!iter.next().isAlive()) {
+                    iter.remove();
+                }
+            }
+        }
+        final MailboxLatencies result = new MailboxLatencies(mailbox);
+        latencies.add(result);
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailboxFactory#requestLatencies()
+     */
+    @Override
+    public final List<RequestLatency> requestLatencies() {
+        final List<RequestLatency> result = new ArrayList<>();
+        for (final MailboxLatencies mailbox : latencies) {
+            result.addAll(mailbox.latencies());
+        }
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailboxFactory#requestLatency(java.lang.Class)
+     */
+    @Override
+    public final RequestLatency requestLatency(final Class<?> requestClass) {
+        final RequestLatencyImpl result = new RequestLatencyImpl(
+                Preconditions.checkNotNull(requestClass, "requestClass"),
+                null);
+        for (final MailboxLatencies mailbox : latencies) {
+            for (final RequestLatencyImpl latency : mailbox.latencies()) {
+                if (latency.requestClass() == requestClass) {
+                    latency.addTo(result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailboxFactory#createBoundedMailbox(boolean, int, com.blockwithme.tactors.OverflowPolicy)
+     */
+    @Override
+    public TMailbox createBoundedMailbox(final boolean mayBlock,
+            final int capacity, final OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkNotNull(overflowPolicy, "overflowPolicy");
+        final TMailbox result = createMailbox(mayBlock);
+        if (!(result instanceof TMailboxImpl)) {
+            throw new UnsupportedOperationException(result.getClass()
+                    + " does not support bounded Mailboxes");
+        }
+        ((TMailboxImpl) result).bound(capacity, overflowPolicy);
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailboxFactory#createTimeOrderedMailbox(boolean, int)
+     */
+    @Override
+    public TMailbox createTimeOrderedMailbox(final boolean mayBlock,
+            final int window) {
+        final TimeCodec codec = timeCodec;
+        if (codec == null) {
+            throw new IllegalStateException(
+                    "Time-ordered Mailboxes require a TimeCodec");
+        }
+        return createTimeOrderedMailbox(mayBlock, window, codec);
+    }
+
+    /**
+     * Creates a time-ordered Mailbox, which orders the creation times by
+     * the long the given TimeCodec encodes them as.
+     */
+    public TMailbox createTimeOrderedMailbox(final boolean mayBlock,
+            final int window, final TimeCodec theTimeCodec) {
+        Preconditions.checkArgument(window > 0, "window must be positive");
+        Preconditions.checkNotNull(theTimeCodec, "theTimeCodec");
+        final TMailbox result = createMailbox(mayBlock);
+        if (!(result instanceof TMailboxImpl)) {
+            throw new UnsupportedOperationException(result.getClass()
+                    + " does not support time-ordered Mailboxes");
+        }
+        ((TMailboxImpl) result).timeOrdered(window, theTimeCodec);
+        return result;
+    }
+
+    /**
+     * Sets the TimeCodec ordering the creation times of the time-ordered
+     * Mailboxes created afterwards. A typical TimeCodec returns tick counts.
+     * Without it, createTimeOrderedMailbox(boolean,int) fails.
+     */
+    public final void setTimeCodec(final TimeCodec theTimeCodec) {
+        timeCodec = Preconditions.checkNotNull(theTimeCodec, "theTimeCodec");
+    }
+
+    /**
+     * Returns the maximum number of signals taken out of each priority lane,
+     * each time a Mailbox drains them. 0 means "no limit".
+     */
+    public final int priorityLaneBatch() {
+        return priorityLaneBatch;
+    }
+
+    /** Returns the execution strategy. */
+    public final ExecutionStrategy executionStrategy() {
+        return executionStrategy;
+    }
+
+    /**
+     * Runs a Mailbox message processor, using the configured
+     * execution strategy.
+     */
+    @Override
+    public void submit(final Runnable _messageProcessor) throws Exception {
+        if (executor == null) {
+            super.submit(_messageProcessor);
+        } else {
+            executor.execute(_messageProcessor);
+        }
+    }
+
+    /**
+     * Closes the factory, stops the executor, if any, and unregisters the
+     * metrics MBeans.
+     */
+    @Override
+    public void close() {
+        try {
+            super.close();
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IllegalStateException("Failed to close " + this, e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            final Passivator p = passivator;
+            if (p != null) {
+                p.close();
+            }
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
     }
 
     /**
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.blockwithme.tactors.TMailbox;
+
+/**
+ * Creates the MailboxMetrics of a factory, registers them as MBeans, and
+ * provides an aggregated view of all of them.
+ *
+ * MailboxMetrics of collected Mailboxes are unregistered periodically.
+ *
+ * @author monster
+ */
+public class TMailboxFactoryMetrics implements TMailboxFactoryMetricsMBean {
+
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(TMailboxFactoryMetrics.class);
+
+    /** The JMX domain. */
+    public static final String DOMAIN = "com.blockwithme.tactors";
+
+    /** Collected Mailboxes are purged every PURGE_INTERVAL new Mailboxes. */
+    private static final int PURGE_INTERVAL = 64;
+
+    /** Distinguishes factories with the same ID, in the same JVM. */
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    /** The MBean server. */
+    private final MBeanServer server = ManagementFactory
+            .getPlatformMBeanServer();
+
+    /** The factory ID. */
+    private final long factoryID;
+
+    /** The instance number of the factory. */
+    private final long instance;
+
+    /** The JMX name of the factory. */
+    private final ObjectName name;
+
+    /** The metrics of all Mailboxes. */
+    private final Queue<MailboxMetrics> mailboxes = new ConcurrentLinkedQueue<>();
+
+    /** The Mailbox counter. */
+    private final AtomicLong mailboxCounter = new AtomicLong();
+
+    /** Creates the factory metrics, and registers them as MBean. */
+    public TMailboxFactoryMetrics(final long theFactoryID) {
+        factoryID = theFactoryID;
+        instance = INSTANCES.incrementAndGet();
+        name = objectName("type=TMailboxFactory,id=" + factoryID
+                + ",instance=" + instance);
+        register(this, name);
+    }
+
+    /** Returns the JMX name of the factory. */
+    public final ObjectName name() {
+        return name;
+    }
+
+    /** Creates an ObjectName in our domain. */
+    private static ObjectName objectName(final String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (final Exception e) {
+            throw new IllegalArgumentException(properties, e);
+        }
+    }
+
+    /** Registers an MBean. Failures are only logged. */
+    private void register(final Object mbean, final ObjectName objectName) {
+        try {
+            server.registerMBean(mbean, objectName);
+        } catch (final Exception e) {
+            LOG.warn("Failed to register MBean " + objectName, e);
+        }
+    }
+
+    /** Unregisters an MBean. Failures are only logged. */
+    private void unregister(final ObjectName objectName) {
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final Exception e) {
+            LOG.warn("Failed to unregister MBean " + objectName, e);
+        }
+    }
+
+    /** Creates, and registers, the metrics of a new Mailbox. */
+    public MailboxMetrics newMailboxMetrics(final TMailbox mailbox) {
+        final long index = mailboxCounter.incrementAndGet();
+        if (index % PURGE_INTERVAL == 0) {
+            purge();
+        }
+        final MailboxMetrics result = new MailboxMetrics(mailbox,
+                objectName("type=TMailbox,factory=" + factoryID
+                        + ",instance=" + instance + ",mailbox=" + index));
+        register(result, result.name());
+        mailboxes.add(result);
+        return result;
+    }
+
+    /** Unregisters the metrics of collected Mailboxes. */
+    public void purge() {
+        final Iterator<MailboxMetrics> iter = mailboxes.iterator();
+        while (iter.hasNext()) {
+            final MailboxMetrics metrics = iter.next();
+            if (!metrics.isAlive()) {
+                iter.remove();
+                unregister(metrics.name());
+            }
+        }
+    }
+
+    /** Unregisters all MBeans. */
+    public void close() {
+        MailboxMetrics metrics;
+        while ((metrics = mailboxes.poll()) != null) {
+            unregister(metrics.name());
+        }
+        unregister(name);
+    }
+
+    @Override
+    public int getMailboxCount() {
+        int result = 0;
+        for (final MailboxMetrics metrics : mailboxes) {
+            if (metrics.isAlive()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getRequestsProcessed() {
+        long result = 0;
+        for (final MailboxMetrics metrics : mailboxes) {
+            result += metrics.getRequestsProcessed();
+        }
+        return result;
+    }
+
+    @Override
+    public long getResponsesProcessed() {
+        long result = 0;
+        for (final MailboxMetrics metrics : mailboxes) {
+            result += metrics.getResponsesProcessed();
+        }
+        return result;
+    }
+
+    @Override
+    public long getQueueDepth() {
+        long result = 0;
+        for (final MailboxMetrics metrics : mailboxes) {
+            result += metrics.getQueueDepth();
+        }
+        return result;
+    }
+
+    @Override
+    public long getMaxQueueDepth() {
+        long result = 0;
+        for (final MailboxMetrics metrics : mailboxes) {
+            result = Math.max(result, metrics.getQueueDepth());
+        }
+        return result;
+    }
+
+    @Override
+    public String getMostQueuedMailbox() {
+        long max = -1;
+        ObjectName result = null;
+        for (final MailboxMetrics metrics : mailboxes) {
+            final long depth = metrics.getQueueDepth();
+            if (depth > max) {
+                max = depth;
+                result = metrics.name();
+            }
+        }
+        return (result == null) ? null : result.toString();
+    }
+
+    @Override
+    public long getBusyTimeMillis() {
+        long result = 0;
+        for (final MailboxMetrics metrics : mailboxes) {
+            result += metrics.busyNanos();
+        }
+        return result / 1000000L;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+/**
+ * JMX view of the aggregated metrics of all the Mailboxes of a factory.
+ *
+ * @author monster
+ */
+public interface TMailboxFactoryMetricsMBean {
+
+    /** Returns the number of live Mailboxes with metrics. */
+    int getMailboxCount();
+
+    /** Returns the number of requests processed by all Mailboxes. */
+    long getRequestsProcessed();
+
+    /** Returns the number of responses processed by all Mailboxes. */
+    long getResponsesProcessed();
+
+    /** Returns the sum of the queue depths of all Mailboxes. */
+    long getQueueDepth();
+
+    /** Returns the largest queue depth of all Mailboxes. */
+    long getMaxQueueDepth();
+
+    /** Returns the JMX name of the Mailbox with the largest queue depth. */
+    String getMostQueuedMailbox();
+
+    /** Returns the total time spent processing messages, in milliseconds. */
+    long getBusyTimeMillis();
+}
@@ -15,18 +15,38 @@
  */
 package com.blockwithme.tactors.internal;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.agilewiki.jactor.api.Mailbox;
+import org.agilewiki.jactor.api.Transport;
 import org.agilewiki.jactor.impl.MailboxImpl;
 import org.agilewiki.jactor.impl.Message;
 import org.agilewiki.jactor.impl.MessageQueue;
 import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.blockwithme.tactors.ActorCreator;
+import com.blockwithme.tactors.LifecycleState;
 import com.blockwithme.tactors.MBOwner;
+import com.blockwithme.tactors.MailboxOverflowException;
+import com.blockwithme.tactors.OverflowPolicy;
+import com.blockwithme.tactors.RequestPriority;
 import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
 import com.blockwithme.tactors.TMailboxFactory;
+import com.blockwithme.tactors.TRequest;
+import com.blockwithme.time.Time;
+import com.blockwithme.time.TimeListener;
+import com.google.common.base.Preconditions;
 
 /**
  * TMailboxImpl implements the TMailbox interface.
@@ -35,9 +55,251 @@ import com.blockwithme.tactors.TMailboxFactory;
  */
 public class TMailboxImpl extends MailboxImpl implements TMailbox {
 
+    /** Logger. */
+    private static final Logger LOG = LoggerFactory
+            .getLogger(TMailboxImpl.class);
+
+    /** Number of free TimeListenerRequests kept per Mailbox. */
+    private static final int TIME_LISTENER_POOL = 16;
+
+    /** Number of priority lanes; one per priority above NORMAL. */
+    private static final int LANES = RequestPriority.values().length - 1;
+
+    /**
+     * The number of messages being processed by the current thread, once
+     * some Mailbox uses OverflowPolicy.BLOCK. Mailboxes can process
+     * messages of other Mailboxes inline, so this is a depth.
+     */
+    private static final ThreadLocal<int[]> PROCESSING = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * Set once some Mailbox uses OverflowPolicy.BLOCK, so that the other
+     * Mailboxes do not pay for PROCESSING.
+     */
+    private static volatile boolean blockingUsed;
+
+    /** Wakes the Mailbox up, so that the priority lanes get drained. */
+    private static final class LaneDrainRequest extends TRequestBase<Void> {
+
+        /** Creates a LaneDrainRequest. */
+        public LaneDrainRequest(final TMailboxImpl mailbox) {
+            super(mailbox, (Time) null);
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> responseProcessor)
+                throws Exception {
+            ((TMailboxImpl) getMailbox()).drainLanes();
+            responseProcessor.processResponse(null);
+        }
+    }
+
+    /** A block of consecutive actor IDs, leased from the factory. */
+    private static final class ActorIDBlock {
+
+        /** The first ID of the block. */
+        private final long first;
+
+        /** The number of IDs in the block. */
+        private final int size;
+
+        /** The number of IDs already handed out (can exceed size). */
+        private final AtomicInteger used = new AtomicInteger();
+
+        /** Creates an ActorIDBlock. */
+        public ActorIDBlock(final long theFirst, final int theSize) {
+            first = theFirst;
+            size = theSize;
+        }
+
+        /** Returns the next ID of the block, or 0 if it is exhausted. */
+        public long next() {
+            final int index = used.getAndIncrement();
+            return (index < size) ? first + index : 0;
+        }
+    }
+
+    /** The actors created so far, by a call to createActors(). */
+    private static final class BulkCreation {
+
+        /** The thread calling createActors(). */
+        private final Thread thread = Thread.currentThread();
+
+        /** The first reserved ID. */
+        private final long firstID;
+
+        /** The created actors. */
+        private final TActor[] actors;
+
+        /** Are the created actors pinned? */
+        private final boolean[] pins;
+
+        /** The number of created actors. */
+        private int size;
+
+        /** Creates a BulkCreation, for count reserved IDs. */
+        public BulkCreation(final long theFirstID, final int count) {
+            firstID = theFirstID;
+            actors = new TActor[count];
+            pins = new boolean[count];
+        }
+
+        /**
+         * Gives the next reserved ID to the actor, and returns it, or
+         * returns 0 if all reserved IDs are used, or if the actor is named.
+         * Named actors are registered immediately instead, so that a name
+         * conflict fails the creation of that actor, rather than the
+         * deferred registration of the whole batch.
+         */
+        public long add(final TActor actor, final boolean pin) {
+            if ((size == actors.length) || (actor.name() != null)) {
+                return 0;
+            }
+            if (actor.id() != 0) {
+                throw new IllegalStateException("Actor already registered! "
+                        + actor);
+            }
+            actors[size] = actor;
+            pins[size] = pin;
+            return firstID + size++;
+        }
+    }
+
+    /** Releases the pending signals of a time-ordered Mailbox. */
+    private static final class OrderedReleaseRequest extends
+            TRequestBase<Void> {
+
+        /** Creates a OrderedReleaseRequest. */
+        public OrderedReleaseRequest(final TMailboxImpl mailbox) {
+            super(mailbox, (Time) null);
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> responseProcessor)
+                throws Exception {
+            ((TMailboxImpl) getMailbox()).releaseOrdered();
+            responseProcessor.processResponse(null);
+        }
+    }
+
+    /** Releases the next signal of a DROP_OLDEST Mailbox. */
+    private static final class DroppableReleaseRequest extends
+            TRequestBase<Void> {
+
+        /** Creates a DroppableReleaseRequest. */
+        public DroppableReleaseRequest(final TMailboxImpl mailbox) {
+            super(mailbox, (Time) null);
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> responseProcessor)
+                throws Exception {
+            ((TMailboxImpl) getMailbox()).releaseDroppable();
+            responseProcessor.processResponse(null);
+        }
+    }
+
     /** The owner. */
     private final AtomicReference<MBOwner> owner = new AtomicReference<>();
 
+    /** The lifecycle state. */
+    private final AtomicReference<LifecycleState> state = new AtomicReference<>(
+            LifecycleState.NEW);
+
+    /** The factory. */
+    private final TMailboxFactoryImpl<?> factory;
+
+    /** The current block of actor IDs, if the factory uses ID blocks. */
+    private volatile ActorIDBlock idBlock;
+
+    /** The pooled TimeListenerRequests of the actors of this Mailbox. */
+    private final RequestPool<TimeListenerRequest> timeListenerRequests;
+
+    /** The running bulk creation, if any. */
+    private final AtomicReference<BulkCreation> bulk = new AtomicReference<>();
+
+    /** Delivers the ticks to the subscribed actors. */
+    private final MailboxTickDispatcher tickDispatcher;
+
+    /** The metrics, or null if disabled. */
+    private final MailboxMetrics metrics;
+
+    /** The request latencies, or null if disabled. */
+    private final MailboxLatencies latencies;
+
+    /** Start of the current message processing. */
+    private long messageStart;
+
+    /** The latency of the current request, if any. */
+    private RequestLatencyImpl currentLatency;
+
+    /**
+     * The thread processing the current message, or null. Only ever
+     * compared to Thread.currentThread(), so it does not need to be volatile.
+     */
+    private Thread runner;
+
+    /** The capacity, or Integer.MAX_VALUE, if not bounded. */
+    private volatile int capacity = Integer.MAX_VALUE;
+
+    /** The overflow policy, or null, if not bounded. */
+    private volatile OverflowPolicy overflowPolicy;
+
+    /** One permit per request that can still be accepted, if bounded. */
+    private volatile Semaphore permits;
+
+    /** The number of dropped requests. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The signals not yet released into the FIFO queue, if the overflow
+     * policy is DROP_OLDEST; null otherwise. Guards itself, and
+     * droppableReleasePending.
+     */
+    private volatile ArrayDeque<TRequestBase<?>> droppable;
+
+    /** Is a DroppableReleaseRequest queued? Guarded by droppable. */
+    private boolean droppableReleasePending;
+
+    /** The priority lanes, indexed by priority ordinal - 1. */
+    private final Queue<TRequestBase<?>>[] lanes;
+
+    /**
+     * Maximum number of signals taken out of each lane, per drain.
+     * 0 means the lanes are always drained completely.
+     */
+    private final int laneBatch;
+
+    /**
+     * Is a LaneDrainRequest pending? If false, the lanes are empty, so
+     * they do not need to be polled.
+     */
+    private final AtomicBoolean drainPending = new AtomicBoolean();
+
+    /**
+     * The number of TRequestBase requests sent to this Mailbox, and not
+     * yet started. The actors of the Mailbox are not passivated while it
+     * is not 0.
+     */
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+
+    /** The pending signals, if the Mailbox is time-ordered. */
+    private volatile TimeOrderedBuffer timeOrdered;
+
+    /** The journal, if the delivered requests are recorded. */
+    private volatile RequestJournal journal;
+
+    /**
+     * The System.nanoTime() at which the last message was processed, if
+     * passivation is enabled, or at which the Mailbox was created.
+     */
+    private volatile long lastActive = System.nanoTime();
+
     /**
      * @param _mayBlock
      * @param _onIdle
@@ -54,6 +316,19 @@ public class TMailboxImpl extends MailboxImpl implements TMailbox {
             final int _initialBufferSize) {
         super(_mayBlock, _onIdle, _messageProcessor, factory, messageQueue,
                 _log, _initialBufferSize);
+        this.factory = factory;
+        tickDispatcher = new MailboxTickDispatcher(this);
+        metrics = factory.newMailboxMetrics(this);
+        latencies = factory.newMailboxLatencies(this);
+        laneBatch = factory.priorityLaneBatch();
+        timeListenerRequests = new RequestPool<>(this, TIME_LISTENER_POOL,
+                TimeListenerRequest.FACTORY);
+        @SuppressWarnings("unchecked")
+        final Queue<TRequestBase<?>>[] array = new Queue[LANES];
+        for (int i = 0; i < LANES; i++) {
+            array[i] = new ConcurrentLinkedQueue<>();
+        }
+        lanes = array;
     }
 
     @Override
@@ -66,10 +341,445 @@ public class TMailboxImpl extends MailboxImpl implements TMailbox {
         return (TMailboxImpl) super.createPort(_source, size);
     }
 
+    /** Called before running processXXXMessage(Message). */
+    @Override
+    protected void beforeProcessMessage(final boolean request,
+            final Message message) {
+        runner = Thread.currentThread();
+        if (blockingUsed) {
+            PROCESSING.get()[0]++;
+        }
+        started(request ? message.getRequest() : null);
+    }
+
+    /**
+     * Returns true if the current thread is processing a message of a
+     * Mailbox. Only valid once some Mailbox uses OverflowPolicy.BLOCK.
+     */
+    private static boolean processingMessage() {
+        return PROCESSING.get()[0] > 0;
+    }
+
+    /**
+     * Called before processing a message, or a priority signal. req is
+     * null for responses.
+     */
+    private void started(final Object req) {
+        if (req instanceof TRequestBase) {
+            requestNotQueued((TRequestBase<?>) req);
+            if (req instanceof RecyclableRequest) {
+                ((RecyclableRequest<?>) req).checkActive();
+            }
+            if (req instanceof TickedRequest) {
+                // Before the TickClock forgets the tick.
+                ((TickedRequest<?>) req).lookupCreationTime();
+            }
+        }
+        final RequestJournal j = journal;
+        if ((j != null) && (req instanceof JournaledRequest)) {
+            record(j, (JournaledRequest) req);
+        }
+        if ((metrics != null) || (latencies != null)) {
+            messageStart = System.nanoTime();
+            if ((metrics != null) && (req instanceof TRequest)) {
+                metrics.requestStarted();
+            }
+            if ((latencies != null) && (req instanceof TRequestBase)) {
+                final TRequestBase<?> treq = (TRequestBase<?>) req;
+                currentLatency = latencies.forClass(treq.getClass());
+                if (treq.sentNanos != 0) {
+                    currentLatency.recordQueueDelay(messageStart
+                            - treq.sentNanos);
+                    treq.sentNanos = 0;
+                }
+            }
+        }
+    }
+
     /** Called after running processXXXMessage(Message). */
     @Override
     protected void afterProcessMessage(final boolean request,
             final Message message) {
+        runner = null;
+        if (blockingUsed) {
+            final int[] depth = PROCESSING.get();
+            if (depth[0] > 0) {
+                depth[0]--;
+            }
+        }
+        finished(request, request ? message.getRequest() : null);
+    }
+
+    /**
+     * Called after processing a message, or a priority signal. req is null
+     * for responses.
+     */
+    private void finished(final boolean request, final Object req) {
+        if (req instanceof RecyclableRequest) {
+            ((RecyclableRequest<?>) req).processed();
+        }
+        if (factory.passivationEnabled()
+                && !(req instanceof Passivator.PassivateRequest)) {
+            lastActive = System.nanoTime();
+        }
+        if ((metrics != null) || (latencies != null)) {
+            final long duration = System.nanoTime() - messageStart;
+            if (metrics != null) {
+                metrics.messageProcessed(request, duration);
+            }
+            if (currentLatency != null) {
+                currentLatency.recordServiceTime(duration);
+                currentLatency = null;
+            }
+        }
+    }
+
+    /** Returns the pool of the TimeListenerRequests of this Mailbox. */
+    final RequestPool<TimeListenerRequest> timeListenerRequests() {
+        return timeListenerRequests;
+    }
+
+    /** Returns the metrics, or null if metrics are disabled. */
+    public final MailboxMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes this Mailbox bounded. Must be called before the Mailbox is
+     * used.
+     */
+    final void bound(final int theCapacity,
+            final OverflowPolicy theOverflowPolicy) {
+        Preconditions.checkArgument(theCapacity > 0,
+                "theCapacity must be positive");
+        overflowPolicy = Preconditions.checkNotNull(theOverflowPolicy,
+                "theOverflowPolicy");
+        capacity = theCapacity;
+        permits = new Semaphore(theCapacity);
+        if (theOverflowPolicy == OverflowPolicy.BLOCK) {
+            blockingUsed = true;
+        }
+        if (theOverflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            droppable = new ArrayDeque<>();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailbox#capacity()
+     */
+    @Override
+    public final int capacity() {
+        return capacity;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailbox#overflowPolicy()
+     */
+    @Override
+    public final OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailbox#canAccept()
+     */
+    @Override
+    public final boolean canAccept() {
+        final ArrayDeque<TRequestBase<?>> buffer = droppable;
+        if (buffer != null) {
+            synchronized (buffer) {
+                if (buffer.size() >= capacity) {
+                    return false;
+                }
+            }
+        }
+        final Semaphore p = permits;
+        return (p == null) || (p.availablePermits() > 0);
+    }
+
+    /** Returns the number of requests dropped by the overflow policy. */
+    public final long droppedRequests() {
+        return dropped.get();
+    }
+
+    /**
+     * Called by TRequestBase, when a request is sent to this Mailbox.
+     * Applies the overflow policy, if the Mailbox is bounded. Returns false
+     * if the request must be dropped.
+     */
+    final boolean requestQueued(final TRequestBase<?> request,
+            final boolean signal) throws InterruptedException {
+        checkNotStopped();
+        final Semaphore p = permits;
+        // DROP_OLDEST signals are bounded by the droppable buffer instead.
+        if ((p != null) && (runner != Thread.currentThread())
+                && !(signal && (droppable != null))) {
+            if (!p.tryAcquire()) {
+                final OverflowPolicy policy = overflowPolicy;
+                if ((policy == OverflowPolicy.BLOCK) && !processingMessage()) {
+                    p.acquire();
+                } else if (signal && (policy == OverflowPolicy.DROP_NEWEST)) {
+                    dropped.incrementAndGet();
+                    return false;
+                } else {
+                    throw new MailboxOverflowException(this);
+                }
+            }
+            request.holdsPermit = true;
+        }
+        if (metrics != null) {
+            metrics.requestQueued();
+        }
+        if (latencies != null) {
+            request.sentNanos = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Called by TRequestBase, to signal a request with a priority above
+     * NORMAL. The request is added to its lane, and processed by the next
+     * LaneDrainRequest.
+     */
+    final void offerPrioritySignal(final TRequestBase<?> request)
+            throws Exception {
+        checkNotStopped();
+        if (metrics != null) {
+            metrics.requestQueued();
+        }
+        if (latencies != null) {
+            request.sentNanos = System.nanoTime();
+        }
+        lanes[request.priority().ordinal() - 1].add(request);
+        wakeUp();
+    }
+
+    /**
+     * Makes sure the Mailbox processes another message soon, so that the
+     * lanes get drained, even if nothing else is sent to the Mailbox.
+     */
+    private void wakeUp() throws Exception {
+        if (drainPending.compareAndSet(false, true)) {
+            try {
+                new LaneDrainRequest(this).signalNow();
+            } catch (final Exception e) {
+                drainPending.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Processes the signals of the priority lanes, highest priority first.
+     * Called by LaneDrainRequest, so that every signal is processed in the
+     * context of that message, rather than of some unrelated one. Each
+     * signal goes through the same journal, metrics and latency hooks as
+     * a regular message.
+     */
+    private void drainLanes() {
+        drainPending.set(false);
+        // The bookkeeping of the LaneDrainRequest itself.
+        final long drainStart = messageStart;
+        final RequestLatencyImpl drainLatency = currentLatency;
+        currentLatency = null;
+        boolean more = false;
+        for (int i = LANES - 1; i >= 0; i--) {
+            final Queue<TRequestBase<?>> lane = lanes[i];
+            int count = 0;
+            TRequestBase<?> request;
+            while ((request = lane.poll()) != null) {
+                started(request);
+                try {
+                    // Left over by the previous signal, if any.
+                    setExceptionHandler(null);
+                    request.processPrioritySignal();
+                } catch (final Exception e) {
+                    LOG.error("Failed to process priority signal " + request
+                            + " in " + this, e);
+                }
+                finished(true, request);
+                if (++count == laneBatch) {
+                    more |= !lane.isEmpty();
+                    break;
+                }
+            }
+        }
+        messageStart = drainStart;
+        currentLatency = drainLatency;
+        if (more) {
+            try {
+                wakeUp();
+            } catch (final Exception e) {
+                LOG.error("Failed to wake up " + this, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the journal recording the JournaledRequests delivered to this
+     * Mailbox. null stops the recording.
+     */
+    public final void journal(final RequestJournal theJournal) {
+        journal = theJournal;
+    }
+
+    /** Returns the journal, if any. */
+    public final RequestJournal journal() {
+        return journal;
+    }
+
+    /** Records a delivered request in the journal. */
+    private void record(final RequestJournal j, final JournaledRequest req) {
+        try {
+            j.record(req, (req instanceof TRequest) ? ((TRequest<?>) req)
+                    .creationTime() : null);
+        } catch (final Exception e) {
+            LOG.error("Failed to record " + req + " in " + j, e);
+        }
+    }
+
+    /**
+     * Makes this Mailbox time-ordered. Must be called before the Mailbox is
+     * used. The creation times are ordered by their timeCodec encoding.
+     */
+    final void timeOrdered(final int window, final TimeCodec timeCodec) {
+        Preconditions.checkArgument(window > 0, "window must be positive");
+        timeOrdered = new TimeOrderedBuffer(window, timeCodec);
+    }
+
+    /**
+     * Returns the maximum number of pending signals released at once, in
+     * creation time order, or 0 if the Mailbox is not time-ordered.
+     */
+    public final int timeOrderWindow() {
+        final TimeOrderedBuffer buffer = timeOrdered;
+        return (buffer == null) ? 0 : buffer.window();
+    }
+
+    /**
+     * Called by TRequestBase, to signal a request with NORMAL priority.
+     * Returns false if the request can go directly into the FIFO queue.
+     * Otherwise, the request is buffered, and released later.
+     */
+    final boolean offerBufferedSignal(final TRequestBase<?> request)
+            throws Exception {
+        return offerOrderedSignal(request) || offerDroppableSignal(request);
+    }
+
+    /**
+     * Returns false if the Mailbox is not time-ordered. Otherwise, the
+     * request is buffered, and released later in creation time order.
+     */
+    private boolean offerOrderedSignal(final TRequestBase<?> request)
+            throws Exception {
+        final TimeOrderedBuffer buffer = timeOrdered;
+        if (buffer == null) {
+            return false;
+        }
+        if (buffer.add(request)) {
+            new OrderedReleaseRequest(this).signalNow();
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if the overflow policy is not DROP_OLDEST. Otherwise,
+     * the request is buffered, dropping the oldest buffered signal if the
+     * buffer is full, and released later into the FIFO queue.
+     */
+    private boolean offerDroppableSignal(final TRequestBase<?> request)
+            throws Exception {
+        final ArrayDeque<TRequestBase<?>> buffer = droppable;
+        if (buffer == null) {
+            return false;
+        }
+        final TRequestBase<?> oldest;
+        final boolean release;
+        synchronized (buffer) {
+            oldest = (buffer.size() >= capacity) ? buffer.poll() : null;
+            buffer.add(request);
+            release = !droppableReleasePending;
+            droppableReleasePending = true;
+        }
+        if (oldest != null) {
+            dropped.incrementAndGet();
+            requestNotQueued(oldest);
+            if (metrics != null) {
+                metrics.requestDropped();
+            }
+        }
+        if (release) {
+            try {
+                new DroppableReleaseRequest(this).signalNow();
+            } catch (final Exception e) {
+                synchronized (buffer) {
+                    droppableReleasePending = false;
+                    buffer.remove(request);
+                }
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the oldest buffered signal of a DROP_OLDEST Mailbox into the
+     * FIFO queue. Only one signal is released at a time, so that the others
+     * can still be dropped. Called from within the Mailbox.
+     */
+    private void releaseDroppable() throws Exception {
+        final ArrayDeque<TRequestBase<?>> buffer = droppable;
+        final TRequestBase<?> next;
+        final boolean more;
+        synchronized (buffer) {
+            next = buffer.poll();
+            more = !buffer.isEmpty();
+            droppableReleasePending = more;
+        }
+        if (next != null) {
+            try {
+                next.signalNow();
+            } catch (final Exception e) {
+                requestNotQueued(next);
+                LOG.error("Failed to release " + next + " in " + this, e);
+            }
+        }
+        if (more) {
+            new DroppableReleaseRequest(this).signalNow();
+        }
+    }
+
+    /**
+     * Releases up to "window" pending signals, in creation time order,
+     * into the FIFO queue. Called from within the Mailbox.
+     */
+    private void releaseOrdered() throws Exception {
+        final TimeOrderedBuffer buffer = timeOrdered;
+        for (final TRequestBase<?> request : buffer.release()) {
+            try {
+                request.signalNow();
+            } catch (final Exception e) {
+                requestNotQueued(request);
+                LOG.error("Failed to release " + request + " in " + this, e);
+            }
+        }
+        if (!buffer.isEmpty()) {
+            // Requests arriving meanwhile are sorted with the remaining ones.
+            new OrderedReleaseRequest(this).signalNow();
+        }
+    }
+
+    /**
+     * Called by TRequestBase, when sending a request failed, and when a
+     * request is taken out of the queue. Releases the permit of the request,
+     * if any.
+     */
+    final void requestNotQueued(final TRequestBase<?> request) {
+        request.pendingDone();
+        if (request.holdsPermit) {
+            request.holdsPermit = false;
+            permits.release();
+        }
     }
 
     @Override
@@ -77,6 +787,19 @@ public class TMailboxImpl extends MailboxImpl implements TMailbox {
         return owner.get();
     }
 
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailbox#tickListener()
+     */
+    @Override
+    public final TimeListener tickListener() {
+        return tickDispatcher;
+    }
+
+    /** Returns the tick dispatcher. */
+    final MailboxTickDispatcher tickDispatcher() {
+        return tickDispatcher;
+    }
+
     /**
      * Generates the next Actor ID, register that actor under that ID,
      * and returns the ID. If the actor has a non-null name, it will be
@@ -84,6 +807,7 @@ public class TMailboxImpl extends MailboxImpl implements TMailbox {
      */
     @Override
     public final long nextActorID(final TActor actor, final boolean pin) {
+        checkNotStopped();
         if (actor instanceof MBOwner) {
             // owner will only be set for the first registered actor.
             if (!owner.compareAndSet(null, (MBOwner) actor)) {
@@ -96,7 +820,162 @@ public class TMailboxImpl extends MailboxImpl implements TMailbox {
             throw new IllegalStateException(
                     "First registered actor is not a MBOwner");
         }
-        final long result = getMailboxFactory().nextActorID(actor, pin);
+        final long rehydratedID = factory.rehydratingID(actor);
+        if (rehydratedID == 0) {
+            final BulkCreation b = bulk.get();
+            if ((b != null) && (b.thread == Thread.currentThread())) {
+                final long result = b.add(actor, pin);
+                if (result != 0) {
+                    // Registered when the bulk creation completes.
+                    return result;
+                }
+            }
+        }
+        final int blockSize = factory.actorIDBlockSize();
+        final long result;
+        if (rehydratedID != 0) {
+            result = factory.registerActor(actor, pin, rehydratedID);
+        } else if ((blockSize == 1) || factory.denseActorIDs()) {
+            result = factory.nextActorID(actor, pin);
+        } else {
+            result = factory.registerActor(actor, pin, nextBlockID(blockSize));
+        }
+        factory.actorRegistered(actor, result);
         return result;
     }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.TMailbox#createActors(int, com.blockwithme.tactors.ActorCreator)
+     */
+    @Override
+    public final <A extends TActor> List<A> createActors(final int count,
+            final ActorCreator<A> creator) {
+        Preconditions.checkArgument(count > 0, "count must be positive");
+        Preconditions.checkNotNull(creator, "creator");
+        checkNotStopped();
+        if (owner.get() == null) {
+            throw new IllegalStateException(
+                    "First registered actor is not a MBOwner");
+        }
+        final List<A> result = new ArrayList<>(count);
+        if (factory.denseActorIDs()) {
+            // Dense IDs cannot be reserved; each actor registers itself.
+            for (int i = 0; i < count; i++) {
+                result.add(creator.create(this, i));
+            }
+            return result;
+        }
+        final BulkCreation b = new BulkCreation(
+                factory.reserveActorIDs(count), count);
+        if (!bulk.compareAndSet(null, b)) {
+            throw new IllegalStateException(
+                    "Another bulk creation is running in this Mailbox");
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                result.add(creator.create(this, i));
+            }
+        } catch (final RuntimeException | Error e) {
+            bulk.set(null);
+            // Also registers the actors created before the failure, without
+            // hiding the failure itself.
+            try {
+                factory.registerActors(b.firstID, b.actors, b.pins, b.size);
+            } catch (final RuntimeException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+        bulk.set(null);
+        factory.registerActors(b.firstID, b.actors, b.pins, b.size);
+        return result;
+    }
+
+    /** Returns the lifecycle state of this Mailbox. */
+    public final LifecycleState state() {
+        return state.get();
+    }
+
+    /**
+     * Starts this Mailbox explicitly. Fails if it was already started, or
+     * stopped.
+     */
+    public final void start() {
+        if (!state.compareAndSet(LifecycleState.NEW, LifecycleState.STARTED)) {
+            throw new IllegalStateException("Cannot start " + this
+                    + " in state " + state.get());
+        }
+    }
+
+    /**
+     * Stops this Mailbox. It rejects new actors and new requests afterwards,
+     * but the requests already queued are still processed. The actors of
+     * the Mailbox are not stopped; they should be stopped first.
+     * Returns false if it was already stopped.
+     */
+    public final boolean stop() {
+        final LifecycleState previous = state
+                .getAndSet(LifecycleState.STOPPED);
+        return (previous != LifecycleState.STOPPED);
+    }
+
+    /** Fails if this Mailbox was stopped. */
+    private void checkNotStopped() {
+        if (state.get() == LifecycleState.STOPPED) {
+            throw new IllegalStateException("Mailbox stopped: " + this);
+        }
+    }
+
+    /** Called by TActorBase.stop(), once the actor is stopped. */
+    final void actorStopped(final TActorBase actor) {
+        tickDispatcher.unsubscribe(actor);
+        factory.actorStopped(actor.id());
+    }
+
+    /** Called by TRequestBase, when a request starts being pending. */
+    final void requestPending() {
+        pendingRequests.incrementAndGet();
+    }
+
+    /** Called by TRequestBase, when a request stops being pending. */
+    final void requestNotPending() {
+        pendingRequests.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of TRequestBase requests sent to this Mailbox, and
+     * not yet started, or dropped.
+     */
+    public final int pendingRequests() {
+        return pendingRequests.get();
+    }
+
+    /**
+     * Returns the System.nanoTime() at which the last message was
+     * processed, if passivation is enabled, or at which the Mailbox was
+     * created.
+     */
+    public final long lastActive() {
+        return lastActive;
+    }
+
+    /**
+     * Returns the next ID from the current ID block, leasing a new block
+     * from the factory when needed. No lock is needed: if two threads
+     * lease a block at the same time, the remaining IDs of one of the blocks
+     * are simply never used.
+     */
+    private long nextBlockID(final int blockSize) {
+        while (true) {
+            final ActorIDBlock block = idBlock;
+            if (block != null) {
+                final long result = block.next();
+                if (result != 0) {
+                    return result;
+                }
+            }
+            idBlock = new ActorIDBlock(factory.reserveActorIDs(blockSize),
+                    blockSize);
+        }
+    }
 }
@@ -15,8 +15,13 @@
  */
 package com.blockwithme.tactors.internal;
 
+import org.agilewiki.jactor.api.Mailbox;
 import org.agilewiki.jactor.api.RequestBase;
+import org.agilewiki.jactor.api.ResponseProcessor;
+import org.agilewiki.jactor.api.Transport;
 
+import com.blockwithme.tactors.RequestPriority;
+import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
 import com.blockwithme.tactors.TRequest;
 import com.blockwithme.time.Time;
@@ -33,6 +38,30 @@ public abstract class TRequestBase<RESPONSE_TYPE> extends
     /** The creation time. */
     private final Time creationTime;
 
+    /** The ID of the sender actor, or 0 if unknown. */
+    private final long senderID;
+
+    /**
+     * The System.nanoTime() at which this request was last sent, if the
+     * target Mailbox records request latencies.
+     */
+    long sentNanos;
+
+    /** Does this request hold a permit of a bounded target Mailbox? */
+    boolean holdsPermit;
+
+    /** The arrival order in a TimeOrderedBuffer. */
+    long arrival;
+
+    /** The creation time order key in a TimeOrderedBuffer. */
+    long timeKey;
+
+    /** The target() actor, while this request counts as pending for it. */
+    private TActorBase pendingTarget;
+
+    /** The target Mailbox, while this request counts as pending for it. */
+    private TMailboxImpl pendingMailbox;
+
     /**
      * @param _targetMailbox The target Mailbox
      * @param theCreationTime The creation time, coming from the *source* Mailbox
@@ -41,6 +70,7 @@ public abstract class TRequestBase<RESPONSE_TYPE> extends
             final Time theCreationTime) {
         super(_targetMailbox);
         creationTime = theCreationTime;
+        senderID = 0;
     }
 
     /**
@@ -51,6 +81,19 @@ public abstract class TRequestBase<RESPONSE_TYPE> extends
             final Timeline timeline) {
         super(_targetMailbox);
         creationTime = (timeline == null) ? null : timeline.lastTick();
+        senderID = 0;
+    }
+
+    /**
+     * @param _targetMailbox The target Mailbox
+     * @param sender The *source* actor, which provides the creation time,
+     *        and the sender ID
+     */
+    protected TRequestBase(final TMailbox _targetMailbox, final TActor sender) {
+        super(_targetMailbox);
+        final Timeline timeline = sender.timeline();
+        creationTime = (timeline == null) ? null : timeline.lastTick();
+        senderID = sender.id();
     }
 
     /** @see org.agilewiki.jactor.Request#getMailbox() */
@@ -63,4 +106,182 @@ public abstract class TRequestBase<RESPONSE_TYPE> extends
     public Time creationTime() {
         return creationTime;
     }
+
+    /**
+     * Returns the ID of the sender actor, or 0 if unknown. Used to order
+     * requests with the same creation time, in time-ordered Mailboxes.
+     */
+    public final long senderID() {
+        return senderID;
+    }
+
+    /**
+     * Returns NORMAL. Request types that need a priority lane override it,
+     * and can also override processPrioritySignal(). Only signals with a
+     * priority above NORMAL are delivered through the priority lanes of
+     * the target Mailbox.
+     *
+     * This is not part of TRequest, so that adding it did not break the
+     * existing implementations of that interface.
+     */
+    public RequestPriority priority() {
+        return RequestPriority.NORMAL;
+    }
+
+    /**
+     * Processes this request, when it was signaled with a priority above
+     * NORMAL, and taken out of a priority lane of the target Mailbox.
+     * As signals have no response, the default calls processRequest() with
+     * a Transport that discards the response.
+     */
+    protected void processPrioritySignal() throws Exception {
+        processRequest(new Transport<RESPONSE_TYPE>() {
+            @Override
+            public void processResponse(final RESPONSE_TYPE response) {
+                // Signals have no response.
+            }
+        });
+    }
+
+    /**
+     * Returns the actor this request acts upon, if it targets a single
+     * actor, or null (the default). A request with a known target is
+     * rejected once that actor is passivated. Every pending request,
+     * with or without a target, delays the passivation of the actors of
+     * its Mailbox.
+     */
+    protected TActor target() {
+        return null;
+    }
+
+    /**
+     * Counts this request as pending for its Mailbox, and its target(),
+     * if any. Fails if the target was passivated.
+     */
+    private void pendingSent() {
+        final TActor target = target();
+        if (target instanceof TActorBase) {
+            final TActorBase actor = (TActorBase) target;
+            actor.requestSent();
+            pendingTarget = actor;
+        }
+        final TMailbox mailbox = getMailbox();
+        if (mailbox instanceof TMailboxImpl) {
+            pendingMailbox = (TMailboxImpl) mailbox;
+            pendingMailbox.requestPending();
+        }
+    }
+
+    /** Stops counting this request as pending. */
+    final void pendingDone() {
+        final TActorBase actor = pendingTarget;
+        if (actor != null) {
+            pendingTarget = null;
+            actor.requestDone();
+        }
+        final TMailboxImpl mailbox = pendingMailbox;
+        if (mailbox != null) {
+            pendingMailbox = null;
+            mailbox.requestNotPending();
+        }
+    }
+
+    /**
+     * Informs the target actor and Mailbox that this request is being
+     * sent. Returns false if the request must be dropped.
+     */
+    private boolean queued(final boolean signal) throws InterruptedException {
+        pendingSent();
+        final TMailbox mailbox = getMailbox();
+        if (mailbox instanceof TMailboxImpl) {
+            final boolean result;
+            try {
+                result = ((TMailboxImpl) mailbox).requestQueued(this, signal);
+            } catch (final RuntimeException | InterruptedException e) {
+                pendingDone();
+                throw e;
+            }
+            if (!result) {
+                pendingDone();
+            }
+            return result;
+        }
+        return true;
+    }
+
+    /** Informs the target actor and Mailbox that sending failed. */
+    private void notQueued() {
+        pendingDone();
+        final TMailbox mailbox = getMailbox();
+        if (mailbox instanceof TMailboxImpl) {
+            ((TMailboxImpl) mailbox).requestNotQueued(this);
+        }
+    }
+
+    /**
+     * Signals this request, without applying priority, bounds or ordering
+     * of the target Mailbox.
+     */
+    final void signalNow() throws Exception {
+        super.signal();
+    }
+
+    /**
+     * Signals with a priority above NORMAL bypass the FIFO queue (and any
+     * bound) of the target Mailbox, using its priority lanes. Other signals
+     * to a time-ordered Mailbox are buffered, and released in creation time
+     * order. So are the signals to a DROP_OLDEST Mailbox, which are released
+     * in arrival order, unless dropped first.
+     *
+     * @see org.agilewiki.jactor.api.Request#signal()
+     */
+    @Override
+    public void signal() throws Exception {
+        final TMailbox mailbox = getMailbox();
+        if ((mailbox instanceof TMailboxImpl)
+                && (priority() != RequestPriority.NORMAL)) {
+            pendingSent();
+            try {
+                ((TMailboxImpl) mailbox).offerPrioritySignal(this);
+            } catch (final Exception e) {
+                pendingDone();
+                throw e;
+            }
+        } else if (queued(true)) {
+            try {
+                if (!(mailbox instanceof TMailboxImpl)
+                        || !((TMailboxImpl) mailbox).offerBufferedSignal(this)) {
+                    super.signal();
+                }
+            } catch (final Exception e) {
+                notQueued();
+                throw e;
+            }
+        }
+    }
+
+    /** @see org.agilewiki.jactor.api.Request#send(Mailbox, ResponseProcessor) */
+    @Override
+    public void send(final Mailbox _source,
+            final ResponseProcessor<RESPONSE_TYPE> _rp) throws Exception {
+        queued(false);
+        try {
+            super.send(_source, _rp);
+        } catch (final Exception e) {
+            notQueued();
+            throw e;
+        }
+    }
+
+    /** @see org.agilewiki.jactor.api.Request#call() */
+    @Override
+    public RESPONSE_TYPE call() throws Exception {
+        queued(false);
+        try {
+            return super.call();
+        } catch (final Exception e) {
+            notQueued();
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.blockwithme.time.Time;
+import com.blockwithme.time.TimeListener;
+import com.google.common.base.Preconditions;
+
+/**
+ * TickClock numbers the ticks of one Timeline, and remembers the Time of
+ * the most recent ones. Requests can then capture the current tick as a
+ * primitive long, and only look the Time up if it is actually needed.
+ *
+ * It must be registered as TimeListener of a single Timeline, which
+ * delivers the ticks one at a time. tick() and time() are thread-safe.
+ *
+ * @author monster
+ */
+public class TickClock implements TimeListener {
+
+    /** The Time of a tick. */
+    private static final class Entry {
+
+        /** The tick. */
+        public final long tick;
+
+        /** The Time. */
+        public final Time time;
+
+        /** Creates an Entry. */
+        public Entry(final long theTick, final Time theTime) {
+            tick = theTick;
+            time = theTime;
+        }
+    }
+
+    /** The Time of the recent ticks. */
+    private final AtomicReferenceArray<Entry> history;
+
+    /** The index mask of history. */
+    private final int mask;
+
+    /** The number of received ticks. */
+    private volatile long tick;
+
+    /** Creates a TickClock, remembering the last 1024 ticks. */
+    public TickClock() {
+        this(1024);
+    }
+
+    /** Creates a TickClock, remembering the given number of ticks. */
+    public TickClock(final int historySize) {
+        Preconditions.checkArgument((historySize > 0)
+                && (Integer.bitCount(historySize) == 1),
+                "historySize must be a power of 2");
+        history = new AtomicReferenceArray<>(historySize);
+        mask = historySize - 1;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.time.TimeListener#onTimeChange(com.blockwithme.time.Time)
+     */
+    @Override
+    public void onTimeChange(final Time time) {
+        final long next = tick + 1;
+        history.set((int) (next & mask), new Entry(next, time));
+        tick = next;
+    }
+
+    /** Returns the current tick, or 0 if no tick was received yet. */
+    public long tick() {
+        return tick;
+    }
+
+    /**
+     * Returns the Time of the given tick, or null if the tick is 0, or so
+     * old that it is not remembered anymore.
+     */
+    public Time time(final long theTick) {
+        if ((theTick <= 0) || (theTick > tick)) {
+            return null;
+        }
+        // The slot might already have been reused by a later tick.
+        final Entry entry = history.get((int) (theTick & mask));
+        return ((entry != null) && (entry.tick == theTick)) ? entry.time
+                : null;
+    }
+}
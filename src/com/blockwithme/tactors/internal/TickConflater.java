@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.blockwithme.time.Time;
+
+/**
+ * Conflates the time ticks of one actor, so that at most one tick request
+ * is pending at any time. It remembers the latest Time, and the number of
+ * ticks that were replaced before being delivered.
+ *
+ * offer() is called from the timeline, take() from within the actor Mailbox.
+ *
+ * @author monster
+ */
+final class TickConflater {
+
+    /** Is a tick pending? */
+    private boolean pending;
+
+    /** The latest Time. */
+    private Time latest;
+
+    /** Number of ticks replaced since the last take(). */
+    private int skipped;
+
+    /** Number of ticks skipped before the Time returned by the last take(). */
+    private int lastSkipped;
+
+    /**
+     * Records a new tick. Returns true if no tick was pending, in which case
+     * the caller must send a tick request.
+     */
+    public synchronized boolean offer(final Time time) {
+        final boolean result = !pending;
+        if (pending) {
+            skipped++;
+        }
+        pending = true;
+        latest = time;
+        return result;
+    }
+
+    /**
+     * Returns the latest Time, and clears the pending state.
+     * lastSkipped() then returns the number of skipped ticks.
+     */
+    public synchronized Time take() {
+        final Time result = latest;
+        lastSkipped = skipped;
+        pending = false;
+        latest = null;
+        skipped = 0;
+        return result;
+    }
+
+    /** Returns the number of ticks skipped before the last take() result. */
+    public synchronized int lastSkipped() {
+        return lastSkipped;
+    }
+}
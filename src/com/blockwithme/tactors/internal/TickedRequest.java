@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.blockwithme.tactors.TMailbox;
+import com.blockwithme.time.Time;
+
+/**
+ * A TRequest that captures its creation time as a primitive tick of a
+ * TickClock, instead of a Time reference. The Time is only looked up when
+ * creationTime() is called, so requests that never read it neither pay
+ * for Timeline.lastTick(), nor keep a Time alive while queued.
+ *
+ * The Time is looked up at the latest when the target Mailbox starts
+ * processing the request. creationTime() fails with an
+ * IllegalStateException if it is first called once the TickClock does not
+ * remember the tick anymore, which can only happen before the request was
+ * processed, or if it was queued for longer than the TickClock history.
+ *
+ * @author monster
+ */
+public abstract class TickedRequest<RESPONSE_TYPE> extends
+        TRequestBase<RESPONSE_TYPE> {
+
+    /** The clock. */
+    private final TickClock clock;
+
+    /** The tick at creation. */
+    private final long tick;
+
+    /** The creation time, once looked up. */
+    private Time time;
+
+    /**
+     * @param _targetMailbox The target Mailbox
+     * @param theClock The clock of the timeline of the *source* Mailbox
+     */
+    protected TickedRequest(final TMailbox _targetMailbox,
+            final TickClock theClock) {
+        super(_targetMailbox, (Time) null);
+        clock = theClock;
+        tick = (theClock == null) ? 0 : theClock.tick();
+    }
+
+    /** Returns the tick at creation, or 0 if unknown. */
+    public final long tick() {
+        return tick;
+    }
+
+    /**
+     * Looks the creation time up, if not done yet. Returns null if it is
+     * unknown, or was forgotten by the TickClock.
+     */
+    final Time lookupCreationTime() {
+        Time result = time;
+        if ((result == null) && (tick != 0)) {
+            result = clock.time(tick);
+            time = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the creation time, or null if the clock had no tick yet.
+     * Fails if the TickClock does not remember the tick anymore.
+     */
+    @Override
+    public Time creationTime() {
+        final Time result = lookupCreationTime();
+        if ((result == null) && (tick != 0)) {
+            throw new IllegalStateException("Tick " + tick
+                    + " is older than the TickClock history");
+        }
+        return result;
+    }
+}
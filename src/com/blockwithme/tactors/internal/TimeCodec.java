@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import com.blockwithme.time.Time;
+
+/**
+ * Converts request creation times to and from longs, so that RequestCodecs
+ * can write them as varints. Typically, the long is a tick count.
+ *
+ * @author monster
+ */
+public interface TimeCodec {
+
+    /** Returns the time as a long. The time is never null. */
+    long encode(Time time);
+
+    /** Returns the time of a long returned by encode(). */
+    Time decode(long value);
+}
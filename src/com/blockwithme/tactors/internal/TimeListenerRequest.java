@@ -2,12 +2,23 @@ package com.blockwithme.tactors.internal;
 
 import org.agilewiki.jactor.api.Transport;
 
+import com.blockwithme.tactors.RequestPriority;
+import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
 import com.blockwithme.time.Time;
 
-public class TimeListenerRequest extends TRequestBase<Void> {
+public class TimeListenerRequest extends RecyclableRequest<Void> {
 
-    private final TActorBase target;
+    /** Creates the pooled TimeListenerRequests of a Mailbox. */
+    static final RequestPool.Factory<TimeListenerRequest> FACTORY = new RequestPool.Factory<TimeListenerRequest>() {
+        @Override
+        public TimeListenerRequest create(
+                final RequestPool<TimeListenerRequest> pool) {
+            return new TimeListenerRequest(pool);
+        }
+    };
+
+    private TActorBase target;
 
     public TimeListenerRequest(final TMailbox targetMailbox,
             final TActorBase _target, final Time time) {
@@ -15,10 +26,40 @@ public class TimeListenerRequest extends TRequestBase<Void> {
         target = _target;
     }
 
+    private TimeListenerRequest(final RequestPool<TimeListenerRequest> pool) {
+        super(pool);
+    }
+
+    /** Sets the target of a pooled request. */
+    final TimeListenerRequest target(final TActorBase _target) {
+        target = _target;
+        return this;
+    }
+
+    @Override
+    protected TActor target() {
+        return target;
+    }
+
+    @Override
+    protected void reset() {
+        target = null;
+    }
+
     @Override
     public void processRequest(final Transport<Void> responseProcessor)
             throws Exception {
-        target.onAsyncTimeChange(creationTime());
+        target.processTimeChange(creationTime());
         responseProcessor.processResponse(null);
     }
+
+    @Override
+    public RequestPriority priority() {
+        return RequestPriority.CONTROL;
+    }
+
+    @Override
+    protected void processPrioritySignal() throws Exception {
+        target.processTimeChange(creationTime());
+    }
 }
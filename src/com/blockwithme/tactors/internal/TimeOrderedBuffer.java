@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.blockwithme.time.Time;
+import com.google.common.base.Preconditions;
+
+/**
+ * TimeOrderedBuffer holds the pending signals of a time-ordered Mailbox,
+ * sorted by creation time, then by sender actor ID, then by arrival order.
+ * Creation times are compared through the long their TimeCodec gives them,
+ * so the order does not depend on the Time implementation.
+ *
+ * Thread-safe.
+ *
+ * @author monster
+ */
+final class TimeOrderedBuffer {
+
+    /** The order key of requests without creation time; they come first. */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /** Orders requests by creation time key, then sender ID, then arrival. */
+    private static final Comparator<TRequestBase<?>> ORDER = new Comparator<TRequestBase<?>>() {
+        @Override
+        public int compare(final TRequestBase<?> a, final TRequestBase<?> b) {
+            if (a.timeKey != b.timeKey) {
+                return (a.timeKey < b.timeKey) ? -1 : 1;
+            }
+            if (a.senderID() != b.senderID()) {
+                return (a.senderID() < b.senderID()) ? -1 : 1;
+            }
+            return (a.arrival < b.arrival) ? -1
+                    : ((a.arrival == b.arrival) ? 0 : 1);
+        }
+    };
+
+    /** The pending signals. */
+    private final PriorityQueue<TRequestBase<?>> pending = new PriorityQueue<>(
+            16, ORDER);
+
+    /** Maximum number of signals released at once. */
+    private final int window;
+
+    /** Converts the creation times to order keys. */
+    private final TimeCodec timeCodec;
+
+    /** The arrival counter. */
+    private long arrivals;
+
+    /** Creates a TimeOrderedBuffer. */
+    public TimeOrderedBuffer(final int theWindow, final TimeCodec theTimeCodec) {
+        window = theWindow;
+        timeCodec = Preconditions.checkNotNull(theTimeCodec, "theTimeCodec");
+    }
+
+    /** Returns the maximum number of signals released at once. */
+    public int window() {
+        return window;
+    }
+
+    /** Adds a signal. Returns true if the buffer was empty. */
+    public synchronized boolean add(final TRequestBase<?> request) {
+        final Time time = request.creationTime();
+        request.timeKey = (time == null) ? NO_TIME : timeCodec.encode(time);
+        request.arrival = arrivals++;
+        pending.add(request);
+        return pending.size() == 1;
+    }
+
+    /** Removes, and returns, up to window signals, in order. */
+    public synchronized List<TRequestBase<?>> release() {
+        final int count = Math.min(window, pending.size());
+        final List<TRequestBase<?>> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(pending.poll());
+        }
+        return result;
+    }
+
+    /** Returns true if the buffer is empty. */
+    public synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.blockwithme.tactors.LifecycleState;
+import com.blockwithme.tactors.TActor;
+import com.blockwithme.tactors.TMailbox;
+
+/**
+ * The listeners of one topic, in TActorListenerSupportImpl.
+ *
+ * The entries are stored in a dense array, and indexed by listener ID, in
+ * an open-addressing table keyed by the primitive IDs, so that the
+ * duplicate check, the removal, and the removal of collected weak
+ * listeners are all O(1), without boxing. Removal moves the last entry
+ * into the freed slot, so the order of the listeners is not preserved.
+ *
+ * An immutable snapshot of the entries, and of the entries grouped by
+ * listener Mailbox, is rebuilt lazily, after a modification, and used for
+ * dispatching events without allocating.
+ *
+ * A stopped listener stays registered to the topics of other actors, as
+ * it does not know them. It is skipped when dispatching, and pruned when
+ * found.
+ *
+ * Not thread-safe.
+ *
+ * @author monster
+ */
+final class TopicListeners {
+
+    /** An entry, knowing its index in the entries array. */
+    interface Entry {
+        /** Returns the listener, or null if it was collected. */
+        TActor listener();
+
+        /** Returns the listener ID. */
+        long id();
+
+        /** Returns the index in the entries array. */
+        int index();
+
+        /** Sets the index in the entries array. */
+        void index(int newIndex);
+    }
+
+    /** Entry of a strongly referenced listener. */
+    static final class StrongEntry implements Entry {
+
+        /** The listener. */
+        private final TActor listener;
+
+        /** The listener ID. */
+        private final long id;
+
+        /** The index. */
+        private int index;
+
+        /** Creates a StrongEntry. */
+        public StrongEntry(final TActor theListener) {
+            listener = theListener;
+            id = theListener.id();
+        }
+
+        @Override
+        public TActor listener() {
+            return listener;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void index(final int newIndex) {
+            index = newIndex;
+        }
+    }
+
+    /** WeakReference with topic, so we can do quick remove on GC. */
+    static final class WeakReferenceWithTopic extends WeakReference<TActor>
+            implements Entry {
+
+        /** The topic. */
+        public final Object topic;
+
+        /** The listener ID. */
+        private final long id;
+
+        /** The index. */
+        private int index;
+
+        /** Creates a WeakReferenceWithTopic. */
+        public WeakReferenceWithTopic(final Object theTopic, final TActor obj,
+                final ReferenceQueue<? super TActor> queue) {
+            super(obj, queue);
+            topic = theTopic;
+            id = obj.id();
+        }
+
+        @Override
+        public TActor listener() {
+            return get();
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public int index() {
+            return index;
+        }
+
+        @Override
+        public void index(final int newIndex) {
+            index = newIndex;
+        }
+    }
+
+    /**
+     * The entries of the listeners sharing a Mailbox. The Mailbox itself is
+     * not referenced, as it would keep weak listeners, like its owner,
+     * from being collected while the groups are cached.
+     */
+    static final class MailboxGroup {
+
+        /** The entries. Must not be modified. */
+        public final Entry[] entries;
+
+        /** Creates a MailboxGroup. */
+        public MailboxGroup(final Entry[] theEntries) {
+            entries = theEntries;
+        }
+
+        /**
+         * Returns the Mailbox of the listeners, or null if they were all
+         * collected, or stopped.
+         */
+        public TMailbox mailbox() {
+            for (final Entry entry : entries) {
+                final TActor listener = live(entry);
+                if (listener != null) {
+                    return listener.getMailbox();
+                }
+            }
+            return null;
+        }
+    }
+
+    /** No entries. */
+    static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /** No groups. */
+    static final MailboxGroup[] NO_GROUPS = new MailboxGroup[0];
+
+    /** Minimum capacity of the entries array. */
+    private static final int MIN_CAPACITY = 4;
+
+    /**
+     * The entries, by listener ID. Linear probing, without tombstones.
+     * The length is a power of 2, and at least twice the number of entries.
+     */
+    private Entry[] byID = new Entry[MIN_CAPACITY * 2];
+
+    /** The entries. Only the first size are used. */
+    private Entry[] entries = new Entry[MIN_CAPACITY];
+
+    /** The number of entries. */
+    private int size;
+
+    /** Immutable copy of the entries, or null if it must be rebuilt. */
+    private Entry[] snapshot = NO_ENTRIES;
+
+    /** The entries, grouped by Mailbox, or null if they must be rebuilt. */
+    private MailboxGroup[] groups = NO_GROUPS;
+
+    /**
+     * Returns the listener of an entry, or null if it was collected, or
+     * stopped.
+     */
+    static TActor live(final Entry entry) {
+        final TActor result = entry.listener();
+        return ((result instanceof TActorBase) && (((TActorBase) result)
+                .state() == LifecycleState.STOPPED)) ? null : result;
+    }
+
+    /** Returns the number of entries. */
+    public int size() {
+        return size;
+    }
+
+    /** Spreads the bits of an ID. */
+    private static int hash(final long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Returns the entry of the given listener, if any. */
+    public Entry find(final TActor listener) {
+        final long id = listener.id();
+        final Entry[] table = byID;
+        final int mask = table.length - 1;
+        int i = hash(id) & mask;
+        Entry entry;
+        while ((entry = table[i]) != null) {
+            if ((entry.id() == id) && (entry.listener() == listener)) {
+                return entry;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /** Inserts an entry in the table, which has room for it. */
+    private static void insert(final Entry[] table, final Entry entry) {
+        final int mask = table.length - 1;
+        int i = hash(entry.id()) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry;
+    }
+
+    /**
+     * Removes an entry from the table, shifting back the following entries
+     * of its probe chain.
+     */
+    private void unlink(final Entry entry) {
+        final Entry[] table = byID;
+        final int mask = table.length - 1;
+        int i = hash(entry.id()) & mask;
+        while (table[i] != entry) {
+            if (table[i] == null) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            final Entry next = table[j];
+            if (next == null) {
+                break;
+            }
+            final int home = hash(next.id()) & mask;
+            // Stays, if its home slot is cyclically in (i, j].
+            if ((i <= j) ? ((i < home) && (home <= j))
+                    : ((i < home) || (home <= j))) {
+                continue;
+            }
+            table[i] = next;
+            i = j;
+        }
+        table[i] = null;
+    }
+
+    /** Rebuilds the table with the given capacity (a power of 2). */
+    private void rehash(final int capacity) {
+        final Entry[] table = new Entry[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(table, entries[i]);
+        }
+        byID = table;
+    }
+
+    /** Adds a new entry. The listener must not be registered yet. */
+    public void add(final Entry entry) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entry.index(size);
+        entries[size++] = entry;
+        if (size * 2 > byID.length) {
+            rehash(byID.length * 2);
+        } else {
+            insert(byID, entry);
+        }
+        snapshot = null;
+        groups = null;
+    }
+
+    /** Removes an entry. Returns false if it was not found. */
+    public boolean remove(final Entry entry) {
+        final int index = entry.index();
+        if ((index >= size) || (entries[index] != entry)) {
+            return false;
+        }
+        final Entry last = entries[--size];
+        entries[index] = last;
+        last.index(index);
+        entries[size] = null;
+        unlink(entry);
+        if ((entries.length > MIN_CAPACITY) && (size * 4 < entries.length)) {
+            entries = Arrays.copyOf(entries,
+                    Math.max(MIN_CAPACITY, entries.length / 2));
+        }
+        if ((byID.length > MIN_CAPACITY * 2) && (size * 8 < byID.length)) {
+            rehash(byID.length / 2);
+        }
+        snapshot = null;
+        groups = null;
+        return true;
+    }
+
+    /** Removes the entries of the stopped listeners. */
+    public void removeStopped() {
+        // Backwards, as remove() moves the last entry into the freed slot.
+        for (int i = size - 1; i >= 0; i--) {
+            final Entry entry = entries[i];
+            final TActor listener = entry.listener();
+            if ((listener != null) && (live(entry) == null)) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the current snapshot of the entries.
+     * The returned array must not be modified.
+     */
+    public Entry[] snapshot() {
+        if (snapshot == null) {
+            snapshot = (size == 0) ? NO_ENTRIES : Arrays.copyOf(entries, size);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the current entries, grouped by listener Mailbox.
+     * Collected and stopped listeners are left out. The returned array
+     * must not be modified.
+     */
+    public MailboxGroup[] groups() {
+        if (groups == null) {
+            final Map<TMailbox, List<Entry>> map = new IdentityHashMap<>();
+            for (int i = 0; i < size; i++) {
+                final Entry entry = entries[i];
+                final TActor listener = live(entry);
+                if (listener != null) {
+                    List<Entry> list = map.get(listener.getMailbox());
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        map.put(listener.getMailbox(), list);
+                    }
+                    list.add(entry);
+                }
+            }
+            final MailboxGroup[] result = new MailboxGroup[map.size()];
+            int index = 0;
+            for (final List<Entry> list : map.values()) {
+                result[index++] = new MailboxGroup(list.toArray(new Entry[list
+                        .size()]));
+            }
+            groups = result;
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes variable-length integers in ByteBuffers.
+ *
+ * Unsigned varints use 7 bits per byte, least significant group first;
+ * the high bit of each byte tells if more bytes follow. Signed varints are
+ * zig-zag encoded first, so that small negative numbers stay small.
+ *
+ * @author monster
+ */
+public final class Varints {
+
+    /** No instances. */
+    private Varints() {
+        // NOP
+    }
+
+    /** Writes an unsigned varint. */
+    public static void writeVarLong(final ByteBuffer buffer, final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /** Reads an unsigned varint. */
+    public static long readVarLong(final ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /** Writes an unsigned int varint. */
+    public static void writeVarInt(final ByteBuffer buffer, final int value) {
+        writeVarLong(buffer, value & 0xFFFFFFFFL);
+    }
+
+    /** Reads an unsigned int varint. */
+    public static int readVarInt(final ByteBuffer buffer) {
+        return (int) readVarLong(buffer);
+    }
+
+    /** Writes a signed (zig-zag) varint. */
+    public static void writeSignedVarLong(final ByteBuffer buffer,
+            final long value) {
+        writeVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /** Reads a signed (zig-zag) varint. */
+    public static long readSignedVarLong(final ByteBuffer buffer) {
+        final long v = readVarLong(buffer);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Returns the number of bytes of a signed (zig-zag) varint. */
+    public static int signedVarLongSize(final long value) {
+        return varLongSize((value << 1) ^ (value >> 63));
+    }
+
+    /** Returns the number of bytes of an unsigned varint. */
+    public static int varLongSize(final long value) {
+        int result = 1;
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            result++;
+            v >>>= 7;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.blockwithme.tactors.TActor;
+import com.google.common.base.Preconditions;
+
+/**
+ * ExternalIDActorRegistry implementation, based on open-addressing tables keyed by
+ * primitive long IDs.
+ *
+ * The IDs are spread over a fixed number of segments. Lookups by ID are
+ * lock-free; modifications lock a single segment. Collected actors are
+ * removed through a ReferenceQueue, which is processed on every registration.
+ *
+ * Named actors are strongly referenced through the name map, like pinned
+ * actors, so that they can always be found by name.
+ *
+ * @author monster
+ */
+public class WeakActorRegistry implements ExternalIDActorRegistry {
+
+    /** Holds a registered actor, knowing the actor ID. */
+    private interface Holder {
+
+        /** The actor ID. */
+        long id();
+
+        /** The actor, or null if it was collected. */
+        TActor actor();
+    }
+
+    /** Weak reference to an actor, knowing the actor ID. */
+    private static final class ActorRef extends WeakReference<TActor>
+            implements Holder {
+
+        /** The actor ID. */
+        private final long id;
+
+        /** Creates an ActorRef. */
+        public ActorRef(final long theID, final TActor actor,
+                final ReferenceQueue<? super TActor> queue) {
+            super(actor, queue);
+            id = theID;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public TActor actor() {
+            return get();
+        }
+    }
+
+    /**
+     * Holds a pinned actor, which can therefore never be GCed. It is not a
+     * Reference, so that the GC does not have to process it.
+     */
+    private static final class PinnedActor implements Holder {
+
+        /** The actor ID. */
+        private final long id;
+
+        /** The hard reference to the actor. */
+        private final TActor actor;
+
+        /** Creates a PinnedActor. */
+        public PinnedActor(final long theID, final TActor theActor) {
+            id = theID;
+            actor = theActor;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public TActor actor() {
+            return actor;
+        }
+    }
+
+    /**
+     * Marks removed entries, so that probe chains are not broken.
+     * Its ID is 0, which is never a valid actor ID.
+     */
+    private static final Holder TOMBSTONE = new PinnedActor(0, null);
+
+    /** Minimum (and initial) capacity of a segment table. Power of 2. */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * An open-addressing (linear probing) table. Slots with key 0 are empty.
+     *
+     * Writers always set the ref before the key, and readers always check
+     * that the ref they found has the expected ID.
+     */
+    private static final class Table {
+
+        /** The keys (actor IDs). */
+        public final AtomicLongArray keys;
+
+        /** The values. */
+        public final AtomicReferenceArray<Holder> refs;
+
+        /** The index mask. */
+        public final int mask;
+
+        /** Creates a Table with the given capacity (a power of 2). */
+        public Table(final int capacity) {
+            keys = new AtomicLongArray(capacity);
+            refs = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    /** A segment of the registry. All modifications lock the segment. */
+    private static final class Segment {
+
+        /** The current table. Replaced (not modified) on rehash. */
+        private volatile Table table = new Table(MIN_CAPACITY);
+
+        /** Number of non-empty slots (including tombstones). */
+        private int used;
+
+        /** Number of live entries. */
+        private int live;
+
+        /** Returns the actor with the given ID, if any. Lock-free. */
+        public TActor find(final long id, final int hash) {
+            final Table t = table;
+            final int mask = t.mask;
+            int i = hash & mask;
+            while (true) {
+                final long key = t.keys.get(i);
+                if (key == id) {
+                    final Holder ref = t.refs.get(i);
+                    return (ref.id() == id) ? ref.actor() : null;
+                }
+                if (key == 0) {
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        /** Adds a new entry. Fails if the ID is already in use. */
+        public synchronized void add(final Holder ref, final int hash) {
+            Table t = table;
+            if ((used + 1) * 2 > t.mask + 1) {
+                t = rehash(live + 1);
+            }
+            insert(t, ref, hash);
+        }
+
+        /**
+         * Adds the entries refs[order[from]] to refs[order[to-1]], growing
+         * the table at most once. Fails if an ID is already in use.
+         */
+        public synchronized void addAll(final Holder[] refs,
+                final int[] hashes, final int[] order, final int from,
+                final int to) {
+            final int count = to - from;
+            Table t = table;
+            if ((used + count) * 2 > t.mask + 1) {
+                t = rehash(live + count);
+            }
+            for (int i = from; i < to; i++) {
+                final int index = order[i];
+                insert(t, refs[index], hashes[index]);
+            }
+        }
+
+        /** Inserts an entry in the given table, which has room for it. */
+        private void insert(final Table t, final Holder ref, final int hash) {
+            final long id = ref.id();
+            final int mask = t.mask;
+            int i = hash & mask;
+            int free = -1;
+            long key;
+            while ((key = t.keys.get(i)) != 0) {
+                final Holder old = t.refs.get(i);
+                if (old == TOMBSTONE) {
+                    if (free < 0) {
+                        free = i;
+                    }
+                } else if (key == id) {
+                    throw new IllegalStateException("Actor ID " + id
+                            + " already registered");
+                }
+                i = (i + 1) & mask;
+            }
+            if (free < 0) {
+                free = i;
+                used++;
+            }
+            t.refs.set(free, ref);
+            t.keys.set(free, id);
+            live++;
+        }
+
+        /**
+         * Removes the entry with the given ID. If expected is not null, the
+         * entry is only removed if it is that exact ref.
+         * Returns the removed ref, or null.
+         */
+        public synchronized Holder remove(final long id, final int hash,
+                final Holder expected) {
+            final Table t = table;
+            final int mask = t.mask;
+            int i = hash & mask;
+            long key;
+            while ((key = t.keys.get(i)) != 0) {
+                if (key == id) {
+                    final Holder ref = t.refs.get(i);
+                    if ((ref != TOMBSTONE)
+                            && ((expected == null) || (ref == expected))) {
+                        t.refs.set(i, TOMBSTONE);
+                        live--;
+                        if ((t.mask + 1 > MIN_CAPACITY)
+                                && (live * 8 < t.mask + 1)) {
+                            rehash(live);
+                        }
+                        return ref;
+                    }
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        /** Number of live entries. */
+        public synchronized int size() {
+            return live;
+        }
+
+        /**
+         * Replaces the table with a new one, sized for the given number of
+         * entries, dropping tombstones. The refs of collected actors are
+         * kept, until expungeStaleEntries() removes them and informs the
+         * listeners.
+         */
+        private Table rehash(final int expected) {
+            final Table old = table;
+            int capacity = MIN_CAPACITY;
+            while (capacity < expected * 4) {
+                capacity <<= 1;
+            }
+            final Table t = new Table(capacity);
+            final int mask = t.mask;
+            int count = 0;
+            for (int j = 0; j <= old.mask; j++) {
+                final Holder ref = old.refs.get(j);
+                if ((ref != null) && (ref != TOMBSTONE)) {
+                    int i = hash(ref.id()) & mask;
+                    while (t.keys.get(i) != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    t.refs.lazySet(i, ref);
+                    t.keys.lazySet(i, ref.id());
+                    count++;
+                }
+            }
+            used = count;
+            live = count;
+            // Volatile write publishes the whole table.
+            table = t;
+            return t;
+        }
+    }
+
+    /** The segments. */
+    private final Segment[] segments;
+
+    /** Shift turning a hash into a segment index. */
+    private final int segmentShift;
+
+    /** The actors registered by name. */
+    private final ConcurrentMap<String, TActor> names = new ConcurrentHashMap<>();
+
+    /** The queue of collected actors. */
+    private final ReferenceQueue<TActor> queue = new ReferenceQueue<>();
+
+    /** The listeners. */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Creates a WeakActorRegistry, with segments based on the CPU count. */
+    public WeakActorRegistry() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Creates a WeakActorRegistry, with (at least) the given segment count. */
+    public WeakActorRegistry(final int minSegments) {
+        int count = 2;
+        int bits = 1;
+        while (count < minSegments) {
+            count <<= 1;
+            bits++;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        segmentShift = 32 - bits;
+    }
+
+    /** Spreads the bits of the ID. */
+    private static int hash(final long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Returns the segment for a hash. */
+    private Segment segmentFor(final int hash) {
+        return segments[hash >>> segmentShift];
+    }
+
+    /** Removes the collected actors from the registry. */
+    public final void expungeStaleEntries() {
+        ActorRef ref;
+        while ((ref = (ActorRef) queue.poll()) != null) {
+            final int hash = hash(ref.id);
+            if (segmentFor(hash).remove(ref.id, hash, ref) != null) {
+                fireRemoved(ref.id);
+            }
+        }
+    }
+
+    /** Informs the listeners that an actor was removed. */
+    private void fireRemoved(final long id) {
+        for (final Listener listener : listeners) {
+            listener.removed(id);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#addListener(com.blockwithme.tactors.internal.ActorRegistry.Listener)
+     */
+    @Override
+    public void addListener(final Listener listener) {
+        listeners.add(Preconditions.checkNotNull(listener, "listener"));
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ExternalIDActorRegistry#register(long, java.lang.String, com.blockwithme.tactors.TActor, boolean)
+     */
+    @Override
+    public void register(final long id, final String name,
+            final TActor actor, final boolean pin) {
+        Preconditions.checkNotNull(actor, "actor");
+        Preconditions.checkArgument(id != 0, "id cannot be 0");
+        expungeStaleEntries();
+        if ((name != null) && (names.putIfAbsent(name, actor) != null)) {
+            throw new IllegalArgumentException("Actor name " + name
+                    + " already registered");
+        }
+        final int hash = hash(id);
+        try {
+            segmentFor(hash).add(
+                    pin ? new PinnedActor(id, actor) : new ActorRef(id, actor,
+                            queue), hash);
+        } catch (final RuntimeException e) {
+            if (name != null) {
+                names.remove(name, actor);
+            }
+            throw e;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ExternalIDActorRegistry#registerAll(long, com.blockwithme.tactors.TActor[], boolean[], int)
+     */
+    @Override
+    public void registerAll(final long firstID, final TActor[] actors,
+            final boolean[] pins, final int count) {
+        Preconditions.checkArgument((firstID > 0) || (firstID + count <= 0),
+                "the ID range cannot contain 0");
+        expungeStaleEntries();
+        int named = 0;
+        try {
+            for (; named < count; named++) {
+                final TActor actor = actors[named];
+                final String name = actor.name();
+                if ((name != null) && (names.putIfAbsent(name, actor) != null)) {
+                    throw new IllegalArgumentException("Actor name " + name
+                            + " already registered");
+                }
+            }
+        } catch (final RuntimeException e) {
+            for (int i = 0; i < named; i++) {
+                final String name = actors[i].name();
+                if (name != null) {
+                    names.remove(name, actors[i]);
+                }
+            }
+            throw e;
+        }
+        // Sorts the actors by segment, so that each segment is locked once.
+        final Holder[] refs = new Holder[count];
+        final int[] hashes = new int[count];
+        final int[] starts = new int[segments.length + 1];
+        for (int i = 0; i < count; i++) {
+            final long id = firstID + i;
+            refs[i] = pins[i] ? new PinnedActor(id, actors[i])
+                    : new ActorRef(id, actors[i], queue);
+            hashes[i] = hash(id);
+            starts[(hashes[i] >>> segmentShift) + 1]++;
+        }
+        for (int s = 0; s < segments.length; s++) {
+            starts[s + 1] += starts[s];
+        }
+        final int[] order = new int[count];
+        final int[] next = Arrays.copyOf(starts, segments.length);
+        for (int i = 0; i < count; i++) {
+            order[next[hashes[i] >>> segmentShift]++] = i;
+        }
+        for (int s = 0; s < segments.length; s++) {
+            if (starts[s] < starts[s + 1]) {
+                segments[s].addAll(refs, hashes, order, starts[s],
+                        starts[s + 1]);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#find(long)
+     */
+    @Override
+    public TActor find(final long id) {
+        if (id == 0) {
+            return null;
+        }
+        final int hash = hash(id);
+        return segmentFor(hash).find(id, hash);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#find(java.lang.String)
+     */
+    @Override
+    public TActor find(final String name) {
+        return (name == null) ? null : names.get(name);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#remove(long)
+     */
+    @Override
+    public boolean remove(final long id) {
+        if (id == 0) {
+            return false;
+        }
+        final int hash = hash(id);
+        final Holder ref = segmentFor(hash).remove(id, hash, null);
+        if (ref == null) {
+            return false;
+        }
+        final TActor actor = ref.actor();
+        if ((actor != null) && (actor.name() != null)) {
+            names.remove(actor.name(), actor);
+        }
+        fireRemoved(id);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.tactors.internal.ActorRegistry#size()
+     */
+    @Override
+    public int size() {
+        int result = 0;
+        for (final Segment segment : segments) {
+            result += segment.size();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.tactors.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An ObjectInputStream that only resolves whitelisted classes, so that the
+ * responses received from other processes cannot instantiate arbitrary
+ * Serializable classes, and run their readObject() methods.
+ *
+ * Always allowed are the primitive wrappers, String, BigInteger,
+ * BigDecimal, the exceptions of the java.lang, java.io, java.util,
+ * java.util.concurrent and com.blockwithme.tactors packages, the classes
+ * their serialized form needs, and arrays of allowed types. Other classes
+ * must be whitelisted explicitly. Proxies are never resolved.
+ *
+ * @author monster
+ */
+final class WhitelistObjectInputStream extends ObjectInputStream {
+
+    /** The classes always allowed. */
+    private static final Set<String> ALLOWED = new HashSet<>(Arrays.asList(
+            "java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+            "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Float", "java.lang.Double", "java.lang.Number",
+            "java.lang.String", "java.math.BigInteger",
+            "java.math.BigDecimal", "java.lang.StackTraceElement",
+            "java.util.ArrayList", "java.util.Collections$EmptyList",
+            "java.util.Collections$UnmodifiableCollection",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList"));
+
+    /** The packages whose exceptions are allowed. */
+    private static final Set<String> EXCEPTION_PACKAGES = new HashSet<>(
+            Arrays.asList("java.lang", "java.io", "java.util",
+                    "java.util.concurrent", "com.blockwithme.tactors"));
+
+    /** The additional allowed class names. */
+    private final Set<String> allowed;
+
+    /** Creates a WhitelistObjectInputStream, with additional class names. */
+    WhitelistObjectInputStream(final InputStream in,
+            final Set<String> theAllowed) throws IOException {
+        super(in);
+        allowed = theAllowed;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.ObjectInputStream#resolveClass(java.io.ObjectStreamClass)
+     */
+    @Override
+    protected Class<?> resolveClass(final ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException {
+        String name = desc.getName();
+        if (name.startsWith("[")) {
+            name = name.substring(name.lastIndexOf('[') + 1);
+            if (name.length() == 1) {
+                // Array of primitives
+                return super.resolveClass(desc);
+            }
+            name = name.substring(1, name.length() - 1);
+        }
+        if (ALLOWED.contains(name) || allowed.contains(name)) {
+            return super.resolveClass(desc);
+        }
+        // Only loads the class; it is not initialized.
+        final Class<?> result = super.resolveClass(desc);
+        Class<?> element = result;
+        while (element.isArray()) {
+            element = element.getComponentType();
+        }
+        final int dot = name.lastIndexOf('.');
+        if (Throwable.class.isAssignableFrom(element) && (dot > 0)
+                && EXCEPTION_PACKAGES.contains(name.substring(0, dot))) {
+            return result;
+        }
+        throw new InvalidClassException(desc.getName(), "Not whitelisted");
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.ObjectInputStream#resolveProxyClass(java.lang.String[])
+     */
+    @Override
+    protected Class<?> resolveProxyClass(final String[] interfaces)
+            throws IOException {
+        throw new InvalidClassException("Proxy classes are not allowed");
+    }
+}
@@ -15,19 +15,77 @@
  */
 package com.blockwithme.tactors.test;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+
 import junit.framework.TestCase;
 
 import org.agilewiki.jactor.api.Actor;
 import org.agilewiki.jactor.api.Transport;
+import org.agilewiki.jactor.api.UnboundRequestBase;
 
+import com.blockwithme.tactors.ActorCreator;
+import com.blockwithme.tactors.LifecycleState;
 import com.blockwithme.tactors.MBOwner;
+import com.blockwithme.tactors.MailboxOverflowException;
+import com.blockwithme.tactors.OverflowPolicy;
+import com.blockwithme.tactors.RequestLatency;
+import com.blockwithme.tactors.RequestPriority;
 import com.blockwithme.tactors.TActor;
 import com.blockwithme.tactors.TMailbox;
 import com.blockwithme.tactors.TMailboxFactory;
 import com.blockwithme.tactors.TRequest;
+import com.blockwithme.tactors.internal.ActorRehydrator;
+import com.blockwithme.tactors.internal.ExecutionStrategy;
+import com.blockwithme.tactors.internal.FileActorStore;
+import com.blockwithme.tactors.internal.JournalReplayer;
+import com.blockwithme.tactors.internal.JournaledRequest;
+import com.blockwithme.tactors.internal.MailboxMetrics;
+import com.blockwithme.tactors.internal.Passivatable;
+import com.blockwithme.tactors.internal.RecyclableRequest;
+import com.blockwithme.tactors.internal.RemoteTransport;
+import com.blockwithme.tactors.internal.RequestCodec;
+import com.blockwithme.tactors.internal.RequestCodecs;
+import com.blockwithme.tactors.internal.RequestDecoder;
+import com.blockwithme.tactors.internal.RequestJournal;
+import com.blockwithme.tactors.internal.RequestPool;
+import com.blockwithme.tactors.internal.SharedMemoryTransport;
+import com.blockwithme.tactors.internal.SlotActorRegistry;
 import com.blockwithme.tactors.internal.TActorBase;
+import com.blockwithme.tactors.internal.TActorListenerSupport;
+import com.blockwithme.tactors.internal.TActorsConfig;
 import com.blockwithme.tactors.internal.TActorsImplModule;
+import com.blockwithme.tactors.internal.TMailboxFactoryImpl;
+import com.blockwithme.tactors.internal.TMailboxFactoryMetrics;
+import com.blockwithme.tactors.internal.TMailboxImpl;
 import com.blockwithme.tactors.internal.TRequestBase;
+import com.blockwithme.tactors.internal.TickClock;
+import com.blockwithme.tactors.internal.TickedRequest;
+import com.blockwithme.tactors.internal.TimeCodec;
+import com.blockwithme.tactors.internal.Varints;
+import com.blockwithme.tactors.internal.WeakActorRegistry;
 import com.blockwithme.time.Time;
 import com.blockwithme.time.Timeline;
 import com.google.inject.Guice;
@@ -67,6 +125,64 @@ public class TActorTest extends TestCase {
         }
     }
 
+    private static class ConflatingActor extends MyActor {
+        public int deliveries;
+        public int skipped;
+
+        public ConflatingActor(final TMailbox theMailbox,
+                final Timeline timeline) {
+            super(theMailbox, null, timeline, false);
+        }
+
+        @Override
+        protected boolean conflateTimeChanges() {
+            return true;
+        }
+
+        @Override
+        protected void onAsyncTimeChange(final Time time,
+                final int skippedTicks) {
+            deliveries++;
+            skipped += skippedTicks;
+        }
+    }
+
+    private static class TickActor extends MyActorNonMBOwner {
+        public int ticks;
+
+        public TickActor(final TMailbox theMailbox, final Timeline timeline) {
+            super(theMailbox, null, timeline, false);
+            subscribeMailboxTicks();
+        }
+
+        @Override
+        protected void onAsyncTimeChange(final Time time) {
+            ticks++;
+        }
+    }
+
+    private static class ListenerActor extends MyActorNonMBOwner {
+        public int events;
+
+        public ListenerActor(final TMailbox theMailbox,
+                final Timeline timeline) {
+            super(theMailbox, null, timeline, false);
+        }
+
+        public TActorListenerSupport support() {
+            return support;
+        }
+    }
+
+    private static final UnboundRequestBase<Void, ListenerActor> EVENT = new UnboundRequestBase<Void, ListenerActor>() {
+        @Override
+        public void processRequest(final ListenerActor _targetActor,
+                final Transport<Void> _transport) throws Exception {
+            _targetActor.events++;
+            _transport.processResponse(null);
+        }
+    };
+
     private static class DummyTActor implements TActor {
         public long id;
 
@@ -276,4 +392,1310 @@ public class TActorTest extends TestCase {
         }
         assertTrue(failed);
     }
+
+    public void testActorIDBlocks() throws Exception {
+        final Injector injector = Guice.createInjector(new TActorsImplModule(
+                TActorsConfig.builder().actorIDBlockSize(16).build()));
+        final TMailboxFactory factory = injector
+                .getInstance(TMailboxFactory.class);
+        try {
+            final Timeline timeline = factory.clockService().coreTimeline();
+            final Set<Long> ids = new HashSet<>();
+            final List<TActor> actors = new ArrayList<>();
+            for (int m = 0; m < 3; m++) {
+                final TMailbox mailbox = factory.createMailbox();
+                actors.add(new MyActor(mailbox, null, timeline, false));
+                for (int i = 0; i < 40; i++) {
+                    actors.add(new MyActorNonMBOwner(mailbox, null, timeline,
+                            false));
+                }
+            }
+            for (final TActor actor : actors) {
+                assertTrue(actor.id() != 0);
+                assertTrue(ids.add(actor.id()));
+                assertEquals(actor, factory.findActor(actor.id()));
+            }
+        } finally {
+            factory.close();
+        }
+    }
+
+    public void testWeakActorRegistry() throws Exception {
+        final WeakActorRegistry registry = new WeakActorRegistry(4);
+        final List<DummyTActor> actors = new ArrayList<>();
+        for (int i = 1; i <= 10000; i++) {
+            final DummyTActor actor = new DummyTActor();
+            actor.id = i * 7919L;
+            actors.add(actor);
+            registry.register(actor.id, null, actor, false);
+        }
+        assertEquals(10000, registry.size());
+        for (final DummyTActor actor : actors) {
+            assertSame(actor, registry.find(actor.id));
+        }
+        assertNull(registry.find(1L));
+
+        boolean failed = false;
+        try {
+            // Must not accept duplicate IDs
+            registry.register(actors.get(0).id, null, new DummyTActor(),
+                    false);
+        } catch (final Exception e) {
+            failed = true;
+        }
+        assertTrue(failed);
+
+        for (int i = 0; i < actors.size(); i += 2) {
+            assertTrue(registry.remove(actors.get(i).id));
+        }
+        assertEquals(5000, registry.size());
+        for (int i = 0; i < actors.size(); i++) {
+            final DummyTActor actor = actors.get(i);
+            assertEquals((i % 2 == 0) ? null : actor, registry.find(actor.id));
+        }
+
+        DummyTActor weak = new DummyTActor();
+        weak.id = -42;
+        registry.register(weak.id, null, weak, false);
+        weak = null;
+        final long start = System.currentTimeMillis();
+        System.gc();
+        while ((registry.find(-42) != null)
+                && (System.currentTimeMillis() - start < 5000)) {
+            Thread.sleep(100);
+            System.gc();
+        }
+        assertNull(registry.find(-42));
+    }
+
+    public void testConflatedTimeChanges() throws Exception {
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final ConflatingActor actor = new ConflatingActor(mailbox, timeline);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // Keeps the mailbox busy, while the ticks arrive.
+        new TRequestBase<Void>(mailbox, timeline) {
+            @Override
+            public void processRequest(final Transport<Void> rp)
+                    throws Exception {
+                blocked.countDown();
+                release.await();
+                rp.processResponse(null);
+            }
+        }.signal();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        actor.onTimeChange(timeline.lastTick());
+        actor.onTimeChange(timeline.lastTick());
+        actor.onTimeChange(timeline.lastTick());
+        release.countDown();
+        assertEquals("Hello world!", actor.hi1.call());
+        assertEquals(1, actor.deliveries);
+        assertEquals(2, actor.skipped);
+    }
+
+    public void testMailboxTicks() throws Exception {
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final MyActor owner = new MyActor(mailbox, null, timeline, false);
+        final List<TickActor> actors = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            actors.add(new TickActor(mailbox, timeline));
+        }
+        mailbox.tickListener().onTimeChange(timeline.lastTick());
+        mailbox.tickListener().onTimeChange(timeline.lastTick());
+        assertEquals("Hello world!", owner.hi1.call());
+        for (final TickActor actor : actors) {
+            assertEquals(2, actor.ticks);
+        }
+    }
+
+    public void testInformListeners() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        new MyActor(mailbox, null, timeline, false);
+        final ListenerActor publisher = new ListenerActor(mailbox, timeline);
+        final TActorListenerSupport support = publisher.support();
+        final List<ListenerActor> listeners = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final TMailbox other = mailboxFactory.createMailbox();
+            new MyActor(other, null, timeline, false);
+            for (int j = 0; j < 5; j++) {
+                final ListenerActor listener = new ListenerActor(other,
+                        timeline);
+                listeners.add(listener);
+                support.registerRequest("topic", listener, (j % 2) == 0)
+                        .call();
+            }
+        }
+        support.informListenersRequest("topic", EVENT).call();
+        for (int i = 0; i < listeners.size(); i += 2) {
+            support.unregisterRequest("topic", listeners.get(i)).call();
+        }
+        support.informListenersRequest("topic", EVENT).call();
+        // Nobody listens to that one.
+        support.informListenersRequest("other", EVENT).call();
+        for (int i = 0; i < listeners.size(); i++) {
+            assertEquals((i % 2 == 0) ? 1 : 2, listeners.get(i).events);
+        }
+    }
+
+    public void testInformListenersByMailbox() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        new MyActor(mailbox, null, timeline, false);
+        final ListenerActor publisher = new ListenerActor(mailbox, timeline);
+        final TActorListenerSupport support = publisher.support();
+        final List<ListenerActor> listeners = new ArrayList<>();
+        // Includes listeners in the publisher Mailbox.
+        for (int i = 0; i < 3; i++) {
+            final TMailbox other = (i == 0) ? mailbox : mailboxFactory
+                    .createMailbox();
+            if (i != 0) {
+                new MyActor(other, null, timeline, false);
+            }
+            for (int j = 0; j < 4; j++) {
+                final ListenerActor listener = new ListenerActor(other,
+                        timeline);
+                listeners.add(listener);
+                support.registerRequest("topic", listener, (j % 2) == 0)
+                        .call();
+            }
+        }
+        support.informListenersByMailboxRequest("topic", EVENT).call();
+        support.unregisterRequest("topic", listeners.get(0)).call();
+        support.informListenersByMailboxRequest("topic", EVENT).call();
+        support.informListenersByMailboxRequest("other", EVENT).call();
+        for (int i = 0; i < listeners.size(); i++) {
+            assertEquals((i == 0) ? 1 : 2, listeners.get(i).events);
+        }
+    }
+
+    public void testUnregisterFromMiddle() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        new MyActor(mailbox, null, timeline, false);
+        final ListenerActor publisher = new ListenerActor(mailbox, timeline);
+        final TActorListenerSupport support = publisher.support();
+        final ListenerActor a = new ListenerActor(mailbox, timeline);
+        final ListenerActor b = new ListenerActor(mailbox, timeline);
+        final ListenerActor c = new ListenerActor(mailbox, timeline);
+        final ListenerActor d = new ListenerActor(mailbox, timeline);
+        for (final ListenerActor listener : Arrays.asList(a, b, c, d)) {
+            support.register("topic", listener, false);
+        }
+        assertEquals(Arrays.<TActor> asList(a, b, c, d),
+                support.listenersFor("topic"));
+        // The last entry moves into the slot of the removed one.
+        assertTrue(support.unregister("topic", b));
+        assertFalse(support.unregister("topic", b));
+        assertEquals(new HashSet<TActor>(Arrays.<TActor> asList(a, c, d)),
+                new HashSet<TActor>(support.listenersFor("topic")));
+        // The moved entry can still be removed.
+        assertTrue(support.unregister("topic", d));
+        assertEquals(new HashSet<TActor>(Arrays.<TActor> asList(a, c)),
+                new HashSet<TActor>(support.listenersFor("topic")));
+        support.informListenersByMailboxRequest("topic", EVENT).call();
+        assertEquals(1, a.events);
+        assertEquals(0, b.events);
+        assertEquals(1, c.events);
+        assertEquals(0, d.events);
+    }
+
+    public void testMailboxMetrics() throws Exception {
+        final Injector injector = Guice.createInjector(new TActorsImplModule(
+                TActorsConfig.builder().mailboxMetrics(true).build()));
+        final TMailboxFactoryImpl<?> factory = (TMailboxFactoryImpl<?>) injector
+                .getInstance(TMailboxFactory.class);
+        final TMailboxFactoryMetrics metrics = factory.metrics();
+        assertNotNull(metrics);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final TMailboxImpl mailbox = (TMailboxImpl) factory
+                    .createMailbox();
+            final MyActor actor = new MyActor(mailbox, null, factory
+                    .clockService().coreTimeline(), false);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Hello world!", actor.hi1.call());
+            }
+            final MailboxMetrics mbMetrics = mailbox.metrics();
+            assertTrue(mbMetrics.getRequestsProcessed() >= 10);
+            assertEquals(0, mbMetrics.getQueueDepth());
+            assertTrue(mbMetrics.getProcessingTimeP99Micros() >= 0);
+            assertTrue(metrics.getRequestsProcessed() >= 10);
+            assertTrue(metrics.getMailboxCount() >= 1);
+            assertTrue(server.isRegistered(metrics.name()));
+            assertTrue(server.isRegistered(mbMetrics.name()));
+        } finally {
+            factory.close();
+        }
+        assertFalse(server.isRegistered(metrics.name()));
+    }
+
+    public void testRequestLatency() throws Exception {
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final MyActor actor = new MyActor(mailbox, null, mailboxFactory
+                .clockService().coreTimeline(), false);
+        for (int i = 0; i < 100; i++) {
+            actor.hi1.call();
+        }
+        final RequestLatency total = mailboxFactory.requestLatency(actor.hi1
+                .getClass());
+        assertEquals(100, total.count());
+        assertNull(total.mailbox());
+        assertTrue(total.queueDelay(50) <= total.queueDelay(99.9));
+        assertTrue(total.serviceTime(99.9) <= total.maxServiceTime());
+        boolean found = false;
+        for (final RequestLatency latency : mailboxFactory.requestLatencies()) {
+            if (latency.requestClass() == actor.hi1.getClass()) {
+                assertSame(mailbox, latency.mailbox());
+                assertEquals(100, latency.count());
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    public void testExecutionStrategies() throws Exception {
+        for (final ExecutionStrategy strategy : ExecutionStrategy.values()) {
+            final Injector injector = Guice
+                    .createInjector(new TActorsImplModule(TActorsConfig
+                            .builder().executionStrategy(strategy)
+                            .threadCount(2).build()));
+            final TMailboxFactoryImpl<?> factory = (TMailboxFactoryImpl<?>) injector
+                    .getInstance(TMailboxFactory.class);
+            try {
+                assertEquals(strategy, factory.executionStrategy());
+                final Timeline timeline = factory.clockService()
+                        .coreTimeline();
+                for (int i = 0; i < 4; i++) {
+                    final MyActor actor = new MyActor(
+                            factory.createMailbox((i % 2) == 0), null,
+                            timeline, false);
+                    assertEquals("Hello world!", actor.hi1.call());
+                }
+            } finally {
+                factory.close();
+            }
+        }
+    }
+
+    /** Overfills a bounded Mailbox with signals, while it is blocked. */
+    private void overfillBoundedMailbox(final OverflowPolicy policy)
+            throws Exception {
+        final TMailboxImpl mailbox = (TMailboxImpl) mailboxFactory
+                .createBoundedMailbox(false, 2, policy);
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final MyActor actor = new MyActor(mailbox, null, timeline, false);
+        assertEquals(2, mailbox.capacity());
+        assertEquals(policy, mailbox.overflowPolicy());
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> processed = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        new TRequestBase<Void>(mailbox, timeline) {
+            @Override
+            public void processRequest(final Transport<Void> rp)
+                    throws Exception {
+                blocked.countDown();
+                release.await();
+                rp.processResponse(null);
+            }
+        }.signal();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        int rejected = 0;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i < 2, mailbox.canAccept());
+            final int index = i;
+            try {
+                new TRequestBase<Void>(mailbox, timeline) {
+                    @Override
+                    public void processRequest(final Transport<Void> rp)
+                            throws Exception {
+                        processed.add(index);
+                        rp.processResponse(null);
+                    }
+                }.signal();
+            } catch (final MailboxOverflowException e) {
+                assertSame(mailbox, e.mailbox());
+                rejected++;
+            }
+        }
+        if (policy == OverflowPolicy.REJECT) {
+            assertEquals(1, rejected);
+        } else {
+            assertEquals(0, rejected);
+            assertEquals(1, mailbox.droppedRequests());
+        }
+        release.countDown();
+        final long deadline = System.currentTimeMillis() + 5000;
+        // DROP_OLDEST releases its buffered signals one at a time.
+        while ((processed.size() < 2)
+                && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(1);
+        }
+        assertEquals("Hello world!", actor.hi1.call());
+        assertTrue(mailbox.canAccept());
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            assertEquals(Arrays.asList(1, 2), processed);
+        } else {
+            assertEquals(Arrays.asList(0, 1), processed);
+        }
+    }
+
+    public void testBoundedMailbox() throws Exception {
+        final TMailbox unbounded = mailboxFactory.createMailbox();
+        assertNull(unbounded.overflowPolicy());
+        assertEquals(Integer.MAX_VALUE, unbounded.capacity());
+        assertTrue(unbounded.canAccept());
+        overfillBoundedMailbox(OverflowPolicy.REJECT);
+        overfillBoundedMailbox(OverflowPolicy.DROP_NEWEST);
+        overfillBoundedMailbox(OverflowPolicy.DROP_OLDEST);
+    }
+
+    private static TRequestBase<Void> countingSignal(final TMailbox mailbox,
+            final Timeline timeline, final AtomicInteger processed) {
+        return new TRequestBase<Void>(mailbox, timeline) {
+            @Override
+            public void processRequest(final Transport<Void> rp)
+                    throws Exception {
+                processed.incrementAndGet();
+                rp.processResponse(null);
+            }
+        };
+    }
+
+    public void testBlockingBoundedMailbox() throws Exception {
+        final TMailboxImpl mailbox = (TMailboxImpl) mailboxFactory
+                .createBoundedMailbox(false, 1, OverflowPolicy.BLOCK);
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final MyActor actor = new MyActor(mailbox, null, timeline, false);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        new TRequestBase<Void>(mailbox, timeline) {
+            @Override
+            public void processRequest(final Transport<Void> rp)
+                    throws Exception {
+                blocked.countDown();
+                release.await();
+                rp.processResponse(null);
+            }
+        }.signal();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        countingSignal(mailbox, timeline, processed).signal();
+        assertFalse(mailbox.canAccept());
+        // Within a Mailbox, BLOCK falls back to REJECT
+        final TMailbox other = mailboxFactory.createMailbox();
+        new MyActor(other, null, timeline, false);
+        assertTrue(new TRequestBase<Boolean>(other, timeline) {
+            @Override
+            public void processRequest(final Transport<Boolean> rp)
+                    throws Exception {
+                try {
+                    countingSignal(mailbox, timeline, processed).signal();
+                    rp.processResponse(false);
+                } catch (final MailboxOverflowException e) {
+                    rp.processResponse(true);
+                }
+            }
+        }.call());
+        // Other threads wait until there is room
+        final Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    countingSignal(mailbox, timeline, processed).signal();
+                } catch (final Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        sender.start();
+        sender.join(100);
+        assertTrue(sender.isAlive());
+        release.countDown();
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertEquals("Hello world!", actor.hi1.call());
+        assertEquals(2, processed.get());
+    }
+
+    public void testPriorityLanes() throws Exception {
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final MyActor actor = new MyActor(mailbox, null, timeline, false);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = new ArrayList<>();
+        new TRequestBase<Void>(mailbox, timeline) {
+            @Override
+            public void processRequest(final Transport<Void> rp)
+                    throws Exception {
+                blocked.countDown();
+                release.await();
+                rp.processResponse(null);
+            }
+        }.signal();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (final RequestPriority priority : RequestPriority.values()) {
+            final String name = priority.name();
+            new TRequestBase<Void>(mailbox, timeline) {
+                @Override
+                public void processRequest(final Transport<Void> rp)
+                        throws Exception {
+                    order.add(name);
+                    rp.processResponse(null);
+                }
+
+                @Override
+                public RequestPriority priority() {
+                    return priority;
+                }
+
+                @Override
+                protected void processPrioritySignal() throws Exception {
+                    order.add(name);
+                }
+            }.signal();
+        }
+        release.countDown();
+        assertEquals("Hello world!", actor.hi1.call());
+        assertEquals(Arrays.asList("CONTROL", "HIGH", "NORMAL"), order);
+    }
+
+    public void testTimeOrderedMailbox() throws Exception {
+        final TMailboxFactoryImpl factory = (TMailboxFactoryImpl) mailboxFactory;
+        try {
+            factory.createTimeOrderedMailbox(false, 16);
+            fail("Expected IllegalStateException without TimeCodec");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        // The signals below have no creation time, so they are only
+        // ordered by sender ID.
+        factory.setTimeCodec(new TimeCodec() {
+            @Override
+            public long encode(final Time time) {
+                throw new AssertionError("No creation time expected");
+            }
+
+            @Override
+            public Time decode(final long value) {
+                throw new AssertionError("No creation time expected");
+            }
+        });
+        final TMailboxImpl mailbox = (TMailboxImpl) factory
+                .createTimeOrderedMailbox(false, 16);
+        assertEquals(16, mailbox.timeOrderWindow());
+        final Timeline timeline = mailboxFactory.clockService()
+                .coreTimeline();
+        final MyActor actor = new MyActor(mailbox, null, timeline, false);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> order = Collections
+                .synchronizedList(new ArrayList<Long>());
+        new TRequestBase<Void>(mailbox, timeline) {
+            @Override
+            public void processRequest(final Transport<Void> rp)
+                    throws Exception {
+                blocked.countDown();
+                release.await();
+                rp.processResponse(null);
+            }
+        }.signal();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (final long id : new long[] { 5, 3, 4, 1, 2 }) {
+            final DummyTActor sender = new DummyTActor();
+            sender.id = id;
+            new TRequestBase<Void>(mailbox, sender) {
+                @Override
+                public void processRequest(final Transport<Void> rp)
+                        throws Exception {
+                    order.add(senderID());
+                    rp.processResponse(null);
+                }
+            }.signal();
+        }
+        release.countDown();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((order.size() < 5) && (System.currentTimeMillis() < deadline)) {
+            actor.hi1.call();
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), order);
+    }
+
+    private static class CounterActor extends MyActor {
+        public long total;
+
+        public CounterActor(final TMailbox theMailbox, final Timeline timeline) {
+            super(theMailbox, null, timeline, false);
+        }
+    }
+
+    private static class AddRequest extends TRequestBase<Void> implements
+            JournaledRequest {
+        private final CounterActor target;
+        private final int value;
+
+        public AddRequest(final CounterActor theTarget, final Time time,
+                final int theValue) {
+            super(theTarget.getMailbox(), time);
+            target = theTarget;
+            value = theValue;
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> rp)
+                throws Exception {
+            target.total += value;
+            rp.processResponse(null);
+        }
+
+        @Override
+        public long targetID() {
+            return target.id();
+        }
+
+        @Override
+        public void writePayload(final DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+    }
+
+    public void testRequestJournal() throws Exception {
+        final File dir = Files.createTempDirectory("tactors-journal").toFile();
+        try {
+            final Timeline timeline = mailboxFactory.clockService()
+                    .coreTimeline();
+            final TMailboxImpl mailbox = (TMailboxImpl) mailboxFactory
+                    .createMailbox();
+            final CounterActor counter = new CounterActor(mailbox, timeline);
+            // Encodes each distinct creation time as its index.
+            final List<Time> times = new ArrayList<>();
+            final TimeCodec codec = new TimeCodec() {
+                @Override
+                public synchronized long encode(final Time time) {
+                    int result = times.indexOf(time);
+                    if (result < 0) {
+                        result = times.size();
+                        times.add(time);
+                    }
+                    return result;
+                }
+
+                @Override
+                public synchronized Time decode(final long value) {
+                    return times.get((int) value);
+                }
+            };
+            try (final RequestJournal journal = new RequestJournal(dir, 256,
+                    codec)) {
+                mailbox.journal(journal);
+                for (int i = 1; i <= 100; i++) {
+                    new AddRequest(counter, timeline.lastTick(), i).signal();
+                }
+                counter.hi1.call();
+                mailbox.journal(null);
+                assertEquals(100, journal.records());
+            }
+            assertEquals(5050, counter.total);
+            assertTrue(dir.list().length > 1);
+
+            final TMailboxFactory replayFactory = Guice.createInjector(
+                    new TActorsImplModule()).getInstance(
+                    TMailboxFactory.class);
+            try {
+                final CounterActor replayed = new CounterActor(
+                        replayFactory.createMailbox(), replayFactory
+                                .clockService().coreTimeline());
+                assertEquals(counter.id(), replayed.id());
+                final JournalReplayer replayer = new JournalReplayer(codec);
+                replayer.register(AddRequest.class, new RequestDecoder() {
+                    @Override
+                    public TRequest<?> decode(final TActor target,
+                            final Time creationTime, final DataInput payload)
+                            throws IOException {
+                        assertTrue((creationTime == null)
+                                || times.contains(creationTime));
+                        return new AddRequest((CounterActor) target,
+                                creationTime, payload.readInt());
+                    }
+                });
+                assertEquals(100, replayer.replay(dir, replayFactory));
+                assertEquals(0, replayer.skipped());
+                assertEquals(5050, replayed.total);
+            } finally {
+                replayFactory.close();
+            }
+        } finally {
+            for (final File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static class EntityActor extends MyActorNonMBOwner implements
+            Passivatable {
+        public final int value;
+
+        public EntityActor(final TMailbox theMailbox, final String name,
+                final Timeline timeline, final int theValue) {
+            super(theMailbox, name, timeline, false);
+            value = theValue;
+        }
+
+        @Override
+        public void writeState(final DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+    }
+
+    private static int actorFiles(final File dir) {
+        int result = 0;
+        for (final String name : dir.list()) {
+            if (name.endsWith(".actor")) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public void testPassivation() throws Exception {
+        final TMailboxFactoryImpl<?> factory = (TMailboxFactoryImpl<?>) mailboxFactory;
+        final File dir = Files.createTempDirectory("tactors-store").toFile();
+        try {
+            factory.enablePassivation(new FileActorStore(dir), 3600000);
+            factory.registerRehydrator(EntityActor.class,
+                    new ActorRehydrator() {
+                        @Override
+                        public Passivatable rehydrate(
+                                final TMailboxFactory f, final String name,
+                                final DataInput state) throws IOException {
+                            final Timeline timeline = f.clockService()
+                                    .coreTimeline();
+                            final TMailbox mailbox = f.createMailbox();
+                            new MyActor(mailbox, null, timeline, false);
+                            return new EntityActor(mailbox, name, timeline,
+                                    state.readInt());
+                        }
+                    });
+            final Timeline timeline = factory.clockService().coreTimeline();
+            final TMailbox mailbox = factory.createMailbox();
+            final MyActor owner = new MyActor(mailbox, null, timeline, false);
+            final EntityActor entity = new EntityActor(mailbox, "entity",
+                    timeline, 42);
+            final long id = entity.id();
+            final ChildActor child = new ChildActor(mailbox, entity, timeline);
+            assertEquals(1, factory.passivateIdleActors(0));
+            owner.hi1.call();
+            assertEquals(1, actorFiles(dir));
+            assertEquals(LifecycleState.PASSIVATED, entity.state());
+            assertEquals(id, new FileActorStore(dir).find("entity"));
+            try {
+                new TRequestBase<Void>(mailbox, timeline) {
+                    @Override
+                    protected TActor target() {
+                        return entity;
+                    }
+
+                    @Override
+                    public void processRequest(
+                            final Transport<Void> responseProcessor)
+                            throws Exception {
+                        responseProcessor.processResponse(null);
+                    }
+                }.call();
+                fail("request to a passivated actor accepted");
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+            final EntityActor rehydrated = (EntityActor) factory.findActor(id);
+            assertNotSame(entity, rehydrated);
+            assertEquals(id, rehydrated.id());
+            assertEquals(42, rehydrated.value);
+            assertSame(rehydrated, factory.findActor("entity"));
+            // The children index survives the passivation
+            assertEquals(Arrays.<TActor> asList(child),
+                    factory.children(rehydrated));
+            assertEquals(0, actorFiles(dir));
+            assertEquals(0, new FileActorStore(dir).find("entity"));
+        } finally {
+            for (final File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static class ChildActor extends TActorBase {
+        public ChildActor(final TMailbox theMailbox, final TActor parent,
+                final Timeline timeline) {
+            super(theMailbox, null, parent, timeline);
+        }
+
+        @Override
+        public TActor copy(final TMailbox mailbox) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public void testChildrenIndex() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService().coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final MyActor root = new MyActor(mailbox, null, timeline, false);
+        final ChildActor a = new ChildActor(mailbox, root, timeline);
+        ChildActor b = new ChildActor(mailbox, root, timeline);
+        final ChildActor aa = new ChildActor(mailbox, a, timeline);
+        assertEquals(new HashSet<TActor>(Arrays.<TActor> asList(a, b)),
+                new HashSet<TActor>(mailboxFactory.children(root)));
+        assertEquals(Arrays.<TActor> asList(aa), mailboxFactory.children(a));
+        assertTrue(mailboxFactory.children(aa).isEmpty());
+        final List<TActor> descendants = mailboxFactory.descendants(root);
+        assertEquals(3, descendants.size());
+        assertSame(aa, descendants.get(2));
+        // Collected children disappear from the index
+        b = null;
+        final long start = System.currentTimeMillis();
+        System.gc();
+        while ((mailboxFactory.children(root).size() != 1)
+                && (System.currentTimeMillis() - start < 5000)) {
+            Thread.sleep(100);
+            System.gc();
+        }
+        assertEquals(Arrays.<TActor> asList(a), mailboxFactory.children(root));
+    }
+
+    public void testCreateActors() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService().coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final MyActor owner = new MyActor(mailbox, null, timeline, false);
+        final List<ChildActor> created = mailbox.createActors(1000,
+                new ActorCreator<ChildActor>() {
+                    @Override
+                    public ChildActor create(final TMailbox theMailbox,
+                            final int index) {
+                        return new ChildActor(theMailbox, owner, timeline);
+                    }
+                });
+        assertEquals(1000, created.size());
+        final long first = created.get(0).id();
+        for (int i = 0; i < created.size(); i++) {
+            final ChildActor actor = created.get(i);
+            assertEquals(first + i, actor.id());
+            assertSame(actor, mailboxFactory.findActor(actor.id()));
+        }
+        assertEquals(1000, mailboxFactory.children(owner).size());
+    }
+
+    public void testCreateActorsNameConflict() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService().coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        new MyActor(mailbox, null, timeline, false);
+        final List<TActor> created = new ArrayList<>();
+        try {
+            mailbox.createActors(3, new ActorCreator<TActor>() {
+                @Override
+                public TActor create(final TMailbox theMailbox,
+                        final int index) {
+                    final TActor result = new MyActorNonMBOwner(theMailbox,
+                            (index == 0) ? null : "bulk", timeline, false);
+                    created.add(result);
+                    return result;
+                }
+            });
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // The name conflict itself, not hidden by the registration.
+            assertTrue(e.getMessage().contains("already registered"));
+        }
+        assertEquals(2, created.size());
+        for (final TActor actor : created) {
+            assertSame(actor, mailboxFactory.findActor(actor.id()));
+        }
+        assertSame(created.get(1), mailboxFactory.findActor("bulk"));
+    }
+
+    private static class RemoteAdd implements JournaledRequest {
+        private final long targetID;
+        private final int value;
+
+        public RemoteAdd(final long theTargetID, final int theValue) {
+            targetID = theTargetID;
+            value = theValue;
+        }
+
+        @Override
+        public long targetID() {
+            return targetID;
+        }
+
+        @Override
+        public void writePayload(final DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+    }
+
+    private static class RemoteDate extends RemoteAdd {
+        public RemoteDate(final long theTargetID) {
+            super(theTargetID, 0);
+        }
+    }
+
+    private static class DateRequest extends TRequestBase<Date> {
+        public DateRequest(final TActor target) {
+            super(target.getMailbox(), (Time) null);
+        }
+
+        @Override
+        public void processRequest(final Transport<Date> rp)
+                throws Exception {
+            rp.processResponse(new Date(42));
+        }
+    }
+
+    public void testRemoteTransport() throws Exception {
+        final TMailboxFactory remoteFactory = new TMailboxFactoryImpl<TMailbox>(
+                2L, new WeakActorRegistry(), mailboxFactory.clockService());
+        try (final RemoteTransport local = new RemoteTransport(mailboxFactory);
+                final RemoteTransport remote = new RemoteTransport(
+                        remoteFactory)) {
+            final CounterActor counter = new CounterActor(
+                    remoteFactory.createMailbox(), remoteFactory
+                            .clockService().coreTimeline());
+            remote.register(RemoteAdd.class, new RequestDecoder() {
+                @Override
+                public TRequest<?> decode(final TActor target,
+                        final Time creationTime, final DataInput payload)
+                        throws IOException {
+                    return new AddRequest((CounterActor) target, creationTime,
+                            payload.readInt());
+                }
+            });
+            final InetSocketAddress address = remote
+                    .listen(new InetSocketAddress(InetAddress
+                            .getLoopbackAddress(), 0));
+            assertEquals(2L, local.connect(address));
+            for (int i = 1; i <= 10; i++) {
+                assertNull(local.send(2L, new RemoteAdd(counter.id(), i)).get(
+                        5, TimeUnit.SECONDS));
+            }
+            assertEquals(55, counter.total);
+            try {
+                local.send(2L, new RemoteAdd(counter.id() + 1000, 1)).get(5,
+                        TimeUnit.SECONDS);
+                fail();
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            remote.register(RemoteDate.class, new RequestDecoder() {
+                @Override
+                public TRequest<?> decode(final TActor target,
+                        final Time creationTime, final DataInput payload)
+                        throws IOException {
+                    payload.readInt();
+                    return new DateRequest(target);
+                }
+            });
+            try {
+                // Date is not whitelisted
+                local.send(2L, new RemoteDate(counter.id())).get(5,
+                        TimeUnit.SECONDS);
+                fail();
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof InvalidClassException);
+            }
+            local.allowResponseClass(Date.class);
+            assertEquals(new Date(42), local.send(2L,
+                    new RemoteDate(counter.id())).get(5, TimeUnit.SECONDS));
+        } finally {
+            remoteFactory.close();
+        }
+    }
+
+    public void testRequestCodecs() throws Exception {
+        final ByteBuffer varints = ByteBuffer.allocate(256);
+        final long[] values = { 0, 1, 127, 128, -1, Long.MIN_VALUE,
+                Long.MAX_VALUE };
+        for (final long value : values) {
+            int position = varints.position();
+            Varints.writeVarLong(varints, value);
+            assertEquals(Varints.varLongSize(value), varints.position()
+                    - position);
+            position = varints.position();
+            Varints.writeSignedVarLong(varints, value);
+            assertEquals(Varints.signedVarLongSize(value),
+                    varints.position() - position);
+        }
+        varints.flip();
+        for (final long value : values) {
+            assertEquals(value, Varints.readVarLong(varints));
+            assertEquals(value, Varints.readSignedVarLong(varints));
+        }
+        assertEquals(1, Varints.varLongSize(127));
+        assertEquals(10, Varints.varLongSize(-1));
+
+        final RequestCodecs codecs = new RequestCodecs();
+        codecs.register(AddRequest.class, 1, new RequestCodec<AddRequest>() {
+            @Override
+            public void encode(final AddRequest request,
+                    final ByteBuffer buffer) {
+                Varints.writeSignedVarLong(buffer, request.value);
+            }
+
+            @Override
+            public TRequest<?> decode(final TActor target,
+                    final Time creationTime, final ByteBuffer buffer) {
+                return new AddRequest((CounterActor) target, creationTime,
+                        (int) Varints.readSignedVarLong(buffer));
+            }
+        });
+        assertEquals(1, codecs.typeID(AddRequest.class));
+        final CounterActor counter = new CounterActor(
+                mailboxFactory.createMailbox(), mailboxFactory.clockService()
+                        .coreTimeline());
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        for (int i = 1; i <= 100; i++) {
+            buffer = codecs.encode(new AddRequest(counter, null, i),
+                    counter.id(), buffer);
+        }
+        // Type, target and payload take one byte each, except payloads >= 64
+        assertEquals(100 * 3 + 37, buffer.position());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            codecs.decode(buffer, mailboxFactory).signal();
+        }
+        counter.hi1.call();
+        assertEquals(5050, counter.total);
+        // A codec that always overflows is not retried forever
+        codecs.register(Date.class, 2, new RequestCodec<Date>() {
+            @Override
+            public void encode(final Date request, final ByteBuffer buffer) {
+                throw new BufferOverflowException();
+            }
+
+            @Override
+            public TRequest<?> decode(final TActor target,
+                    final Time creationTime, final ByteBuffer buffer) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        try {
+            codecs.encode(new Date(), null, counter.id(),
+                    ByteBuffer.allocate(4));
+            fail();
+        } catch (final BufferOverflowException e) {
+            // OK
+        }
+    }
+
+    public void testSharedMemoryTransport() throws Exception {
+        final File file = File.createTempFile("tactors", ".shm");
+        final TMailboxFactory remoteFactory = new TMailboxFactoryImpl<TMailbox>(
+                2L, new WeakActorRegistry(), mailboxFactory.clockService());
+        final RequestCodecs codecs = new RequestCodecs();
+        codecs.register(RemoteAdd.class, 1, new RequestCodec<RemoteAdd>() {
+            @Override
+            public void encode(final RemoteAdd request, final ByteBuffer buffer) {
+                Varints.writeSignedVarLong(buffer, request.value);
+            }
+
+            @Override
+            public TRequest<?> decode(final TActor target,
+                    final Time creationTime, final ByteBuffer buffer) {
+                return new AddRequest((CounterActor) target, creationTime,
+                        (int) Varints.readSignedVarLong(buffer));
+            }
+        });
+        try (final SharedMemoryTransport local = new SharedMemoryTransport(
+                mailboxFactory, codecs, file, 4, 65536,
+                SharedMemoryTransport.WaitStrategy.PARK);
+                final SharedMemoryTransport remote = new SharedMemoryTransport(
+                        remoteFactory, codecs, file, 4, 65536,
+                        SharedMemoryTransport.WaitStrategy.PARK)) {
+            final CounterActor counter = new CounterActor(
+                    remoteFactory.createMailbox(), remoteFactory
+                            .clockService().coreTimeline());
+            assertTrue(local.connected(2L));
+            // Enough requests to wrap around the lane several times
+            for (int i = 1; i <= 5000; i++) {
+                assertNull(local.send(2L, counter.id(), new RemoteAdd(0, i))
+                        .get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(5000 * 5001 / 2, counter.total);
+            try {
+                local.send(2L, counter.id() + 1000, new RemoteAdd(0, 1)).get(
+                        5, TimeUnit.SECONDS);
+                fail();
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            remoteFactory.close();
+            file.delete();
+        }
+    }
+
+    private static class PooledAdd extends RecyclableRequest<Void> {
+        private CounterActor target;
+        private int value;
+
+        public PooledAdd(final RequestPool<PooledAdd> pool) {
+            super(pool);
+        }
+
+        public PooledAdd init(final CounterActor theTarget, final int theValue) {
+            target = theTarget;
+            value = theValue;
+            return this;
+        }
+
+        @Override
+        protected void reset() {
+            target = null;
+            value = 0;
+        }
+
+        @Override
+        public void processRequest(final Transport<Void> rp)
+                throws Exception {
+            target.total += value;
+            rp.processResponse(null);
+        }
+    }
+
+    public void testRequestPool() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService().coreTimeline();
+        final CounterActor counter = new CounterActor(
+                mailboxFactory.createMailbox(), timeline);
+        final RequestPool<PooledAdd> pool = new RequestPool<>(
+                counter.getMailbox(), 4, new RequestPool.Factory<PooledAdd>() {
+                    @Override
+                    public PooledAdd create(final RequestPool<PooledAdd> p) {
+                        return new PooledAdd(p);
+                    }
+                });
+        for (int i = 1; i <= 10; i++) {
+            final PooledAdd request = pool.acquire(timeline).init(counter, i);
+            request.signal();
+            counter.hi1.call();
+            // Signals are recycled once processed
+            assertFalse(request.active());
+        }
+        assertEquals(55, counter.total);
+        assertEquals(1, pool.created());
+        assertEquals(1, pool.size());
+        final PooledAdd request = pool.acquire(timeline).init(counter, 1);
+        request.call();
+        request.recycle();
+        try {
+            request.call();
+            fail();
+        } catch (final IllegalStateException e) {
+            // Use after recycle
+        }
+        assertEquals(56, counter.total);
+    }
+
+    private static class TickedHello extends TickedRequest<Long> {
+        public TickedHello(final TMailbox mailbox, final TickClock clock) {
+            super(mailbox, clock);
+        }
+
+        @Override
+        public void processRequest(final Transport<Long> rp)
+                throws Exception {
+            rp.processResponse(tick());
+        }
+    }
+
+    public void testTickedRequest() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService().coreTimeline();
+        final TMailbox mailbox = mailboxFactory.createMailbox();
+        final TickClock clock = new TickClock(4);
+        assertEquals(0, new TickedHello(mailbox, clock).tick());
+        final Time first = timeline.lastTick();
+        clock.onTimeChange(first);
+        final TickedHello old = new TickedHello(mailbox, clock);
+        final TickedHello read = new TickedHello(mailbox, clock);
+        final TickedHello stale = new TickedHello(mailbox, clock);
+        assertEquals(Long.valueOf(1), old.call());
+        assertSame(first, read.creationTime());
+        Time last = null;
+        for (int i = 0; i < 4; i++) {
+            last = timeline.lastTick();
+            clock.onTimeChange(last);
+        }
+        // Tick 1 is not remembered anymore, unless it was already read,
+        // or the request was processed
+        try {
+            stale.creationTime();
+            fail("expired tick accepted");
+        } catch (final IllegalStateException e) {
+            // OK
+        }
+        assertSame(first, old.creationTime());
+        assertSame(first, read.creationTime());
+        final TickedHello recent = new TickedHello(mailbox, clock);
+        assertEquals(5, recent.tick());
+        assertSame(last, recent.creationTime());
+    }
+
+    public void testTickClockWrap() throws Exception {
+        final Timeline timeline = mailboxFactory.clockService().coreTimeline();
+        final TickClock clock = new TickClock(4);
+        final Time[] times = new Time[6];
+        for (int tick = 1; tick <= 5; tick++) {
+            times[tick] = timeline.lastTick();
+            clock.onTimeChange(times[tick]);
+        }
+        // Tick 5 just replaced tick 1 in the same slot
+        assertEquals(5, clock.tick());
+        assertNull(clock.time(1));
+        for (int tick = 2; tick <= 5; tick++) {
+            assertSame(times[tick], clock.time(tick));
+        }
+        assertNull(clock.time(6));
+        assertNull(clock.time(0));
+    }
+
+    private static class LifecycleActor extends ChildActor {
+        public int started;
+        public int stopped;
+
+        public LifecycleActor(final TMailbox theMailbox, final TActor parent,
+                final Timeline timeline) {
+            super(theMailbox, parent, timeline);
+        }
+
+        public TActorListenerSupport support() {
+            return support;
+        }
+
+        @Override
+        protected void onStart() {
+            started++;
+        }
+
+        @Override
+        protected void onStop() {
+            stopped++;
+        }
+    }
+
+    public void testActorLifecycle() throws Exception {
+        final TMailboxFactoryImpl<TMailbox> factory = new TMailboxFactoryImpl<TMailbox>(
+                2L, new WeakActorRegistry(), mailboxFactory.clockService());
+        try {
+            factory.disableWeakTracking();
+            assertFalse(factory.weakTrackingEnabled());
+            final Timeline timeline = factory.clockService().coreTimeline();
+            final TMailboxImpl mailbox = (TMailboxImpl) factory.createMailbox();
+            final MyActor owner = new MyActor(mailbox, null, timeline, false);
+            final LifecycleActor actor = new LifecycleActor(mailbox, owner,
+                    timeline);
+            final ListenerActor listener = new ListenerActor(mailbox, timeline);
+            actor.support().register("topic", listener, false);
+            listener.support().register("topic", actor, false);
+            assertEquals(LifecycleState.NEW, actor.state());
+            actor.start();
+            assertEquals(LifecycleState.STARTED, actor.state());
+            assertEquals(1, actor.started);
+            try {
+                actor.start();
+                fail("started twice");
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+            assertSame(actor, factory.findActor(actor.id()));
+            assertEquals(Arrays.<TActor> asList(actor), factory.children(owner));
+            assertTrue(actor.stop());
+            assertFalse(actor.stop());
+            assertEquals(1, actor.stopped);
+            assertEquals(LifecycleState.STOPPED, actor.state());
+            // Removed eagerly, without waiting for the GC
+            assertNull(factory.findActor(actor.id()));
+            assertTrue(factory.children(owner).isEmpty());
+            assertTrue(actor.support().listenersFor("topic").isEmpty());
+            // A stopped parent gets no new children
+            new LifecycleActor(mailbox, actor, timeline);
+            assertTrue(factory.children(actor).isEmpty());
+            // Skipped, and pruned, as a listener of other actors
+            assertTrue(listener.support().listenersFor("topic").isEmpty());
+            listener.support().register("topic", actor, false);
+
+            assertTrue(mailbox.stop());
+            assertEquals(LifecycleState.STOPPED, mailbox.state());
+            try {
+                owner.hi1.call();
+                fail("stopped Mailbox accepted a request");
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+            try {
+                new ListenerActor(mailbox, timeline);
+                fail("stopped Mailbox accepted an actor");
+            } catch (final IllegalStateException e) {
+                // OK
+            }
+        } finally {
+            factory.close();
+        }
+    }
+
+    public void testSlotActorRegistry() throws Exception {
+        final SlotActorRegistry registry = new SlotActorRegistry();
+        final TMailboxFactoryImpl<TMailbox> factory = new TMailboxFactoryImpl<TMailbox>(
+                2L, registry, mailboxFactory.clockService());
+        try {
+            assertTrue(factory.denseActorIDs());
+            final Timeline timeline = factory.clockService().coreTimeline();
+            final TMailbox mailbox = factory.createMailbox();
+            final MyActor owner = new MyActor(mailbox, "owner", timeline, false);
+            final LifecycleActor first = new LifecycleActor(mailbox, owner,
+                    timeline);
+            final long firstID = first.id();
+            assertEquals(1, SlotActorRegistry.slot(firstID));
+            assertSame(first, factory.findActor(firstID));
+            assertSame(owner, factory.findActor("owner"));
+            first.stop();
+            assertNull(factory.findActor(firstID));
+            // The freed slot is recycled, with a new generation
+            final LifecycleActor second = new LifecycleActor(mailbox, owner,
+                    timeline);
+            assertEquals(SlotActorRegistry.slot(firstID),
+                    SlotActorRegistry.slot(second.id()));
+            assertEquals(SlotActorRegistry.generation(firstID) + 1,
+                    SlotActorRegistry.generation(second.id()));
+            assertNull(factory.findActor(firstID));
+            assertSame(second, factory.findActor(second.id()));
+            assertEquals(2, registry.slots());
+            // Bulk creation falls back to one registration per actor
+            final List<ChildActor> created = mailbox.createActors(100,
+                    new ActorCreator<ChildActor>() {
+                        @Override
+                        public ChildActor create(final TMailbox theMailbox,
+                                final int index) {
+                            return new ChildActor(theMailbox, owner, timeline);
+                        }
+                    });
+            for (final ChildActor actor : created) {
+                assertSame(actor, factory.findActor(actor.id()));
+            }
+            assertEquals(102, registry.slots());
+            assertEquals(102, registry.size());
+            assertNull(factory.findActor(Long.MAX_VALUE));
+        } finally {
+            factory.close();
+        }
+    }
 }